@@ -0,0 +1,38 @@
+package com.testfairy.tvtest.testfairy;
+
+// Argument values of TestFairyBridgeV2 calls. Kept apart from the glue so that events, queues and the journal can use
+// them without the player libraries.
+//
+// Track types, discontinuity reasons and selection reasons use the same values as ExoPlayer's C.TRACK_TYPE_*,
+// Player.DISCONTINUITY_REASON_* and C.SELECTION_REASON_*.
+public interface TestFairyBridgeConstants {
+    int TRACK_TYPE_UNKNOWN = -1;
+    int TRACK_TYPE_AUDIO = 1;
+    int TRACK_TYPE_VIDEO = 2;
+
+    int DRM_SESSION_ACQUIRED = 0;
+    int DRM_KEYS_LOADED = 1;
+    int DRM_KEYS_RESTORED = 2;
+    int DRM_KEYS_REMOVED = 3;
+    int DRM_SESSION_RELEASED = 4;
+    int DRM_SESSION_ERROR = 5;
+
+    int STALL_INITIAL_LOAD = 0;
+    int STALL_SEEK = 1;
+    int STALL_REBUFFER = 2;
+
+    int JANK_MILD = 1;
+    int JANK_MODERATE = 2;
+    int JANK_SEVERE = 3;
+
+    int SUMMARY_QOE = 0;
+    int SUMMARY_LATENCY = 1;
+    int SUMMARY_FORMAT_TIMELINE = 2;
+    int SUMMARY_THROUGHPUT = 3;
+    int SUMMARY_WATCHED_RANGES = 4;
+    int SUMMARY_DECODER_PROFILE = 5;
+    int SUMMARY_SEGMENT_LOADS = 6;
+
+    // Use for bitrate, width or height when unknown
+    int NO_VALUE = -1;
+}
@@ -0,0 +1,244 @@
+package com.testfairy.tvtest.testfairy;
+
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+
+// Performance of the decoder of one track type, from enable to disable.
+//
+// The renderer owns DecoderCounters and keeps updating the same instance while the decoder is enabled. The profile
+// keeps a reference, samples it every MIN_SAMPLE_INTERVAL_MS on TestFairyTickScheduler while the decoder is enabled
+// and the player is playing, and turns the deltas into rates: the peak dropped and skipped output buffers per second,
+// and the rendered buffers per second over intervals that rendered anything, so pauses do not drag the rate down.
+// Together with the decoder name and its initialization time this shows which devices struggle with which codecs.
+//
+// Counters are written on the playback thread, every read goes through DecoderCounters.ensureUpdated(). Profiles are
+// fed from the analytics listener on the player's application looper, and samples read the time from the scheduler's
+// timer. A profile is not synchronized: it binds to the TestFairyTickScheduler of the looper it is first used on, so
+// samples are taken on that same thread, and any use from another thread fails fast.
+final class TestFairyDecoderProfile extends TestFairyTickScheduler.Task {
+
+    static final long MIN_SAMPLE_INTERVAL_MS = 1000;
+
+    private final int trackType;
+    private boolean playing = false;
+    private boolean sampling = false;
+
+    // Decoder, counters is null while the decoder is disabled
+    private DecoderCounters counters;
+    private String decoderName;
+    private long initDurationMs = -1;
+    private String mimeType;
+    private String codecs;
+    private long enabledMs;
+    private long firstFrameMs = -1;
+    //////////////////////////////////////////////////////////////
+
+    // Sampling
+    private long lastSampleMs;
+    private long lastRendered;
+    private long lastDropped;
+    private long lastSkipped;
+    private long renderingMs;
+    private long renderedWhileRendering;
+    private int peakDroppedPerSecond;
+    private int peakSkippedPerSecond;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyDecoderProfile(int trackType) {
+        this.trackType = trackType;
+    }
+
+    TestFairyDecoderProfile(int trackType, TestFairyTickScheduler scheduler) {
+        super(scheduler);
+        this.trackType = trackType;
+    }
+
+    // Decoder lifecycle
+    void onEnabled(DecoderCounters counters, long nowMs) {
+        this.counters = counters;
+        this.decoderName = null;
+        this.initDurationMs = -1;
+        this.mimeType = null;
+        this.codecs = null;
+        this.enabledMs = nowMs;
+        this.firstFrameMs = -1;
+
+        lastSampleMs = nowMs;
+        lastRendered = 0;
+        lastDropped = 0;
+        lastSkipped = 0;
+        renderingMs = 0;
+        renderedWhileRendering = 0;
+        peakDroppedPerSecond = 0;
+        peakSkippedPerSecond = 0;
+
+        updateSampling();
+    }
+
+    void onInitialized(String decoderName, long initDurationMs) {
+        this.decoderName = decoderName;
+        this.initDurationMs = initDurationMs;
+    }
+
+    void onInputFormat(Format format) {
+        if (format != null) {
+            this.mimeType = format.sampleMimeType;
+            this.codecs = format.codecs;
+        }
+    }
+
+    void onFirstFrame(long nowMs) {
+        if (counters != null && firstFrameMs < 0) {
+            firstFrameMs = nowMs;
+        }
+    }
+
+    // Returns null if the decoder was not enabled through onEnabled
+    Summary onDisabled(DecoderCounters counters, long nowMs) {
+        if (this.counters == null || this.counters != counters) {
+            this.counters = null;
+            updateSampling();
+            return null;
+        }
+
+        sample(nowMs, true);
+
+        final Summary summary = new Summary();
+        summary.trackType = trackType;
+        summary.decoderName = decoderName;
+        summary.mimeType = mimeType;
+        summary.codecs = codecs;
+        summary.initDurationMs = initDurationMs;
+        summary.firstFrameMs = firstFrameMs >= 0 ? firstFrameMs - enabledMs : -1;
+        summary.enabledMs = nowMs - enabledMs;
+        summary.initCount = counters.decoderInitCount;
+        summary.inputBuffers = counters.inputBufferCount;
+        summary.renderedBuffers = counters.renderedOutputBufferCount;
+        summary.skippedBuffers = counters.skippedOutputBufferCount;
+        summary.droppedBuffers = counters.droppedBufferCount;
+        summary.maxConsecutiveDropped = counters.maxConsecutiveDroppedBufferCount;
+        summary.droppedToKeyframe = counters.droppedToKeyframeCount;
+        summary.renderedPerSecond = renderingMs > 0 ? (int) (renderedWhileRendering * 1000 / renderingMs) : -1;
+        summary.peakDroppedPerSecond = peakDroppedPerSecond;
+        summary.peakSkippedPerSecond = peakSkippedPerSecond;
+
+        this.counters = null;
+        updateSampling();
+        return summary;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Sampling
+    // Ends the current interval so that it does not span a pause, and samples every second while playing
+    void onPlaybackStateChanged(long nowMs, boolean isPlaying) {
+        sample(nowMs, true);
+
+        playing = isPlaying;
+        updateSampling();
+    }
+
+    @Override
+    protected void onTick() {
+        sampling = false;
+        sample(getScheduler().elapsedRealtime(), false);
+        updateSampling();
+    }
+
+    // A running tick is left alone, so frequent state changes do not keep pushing it back
+    private void updateSampling() {
+        final boolean shouldSample = counters != null && playing;
+
+        if (shouldSample && !sampling) {
+            getScheduler().schedule(this, MIN_SAMPLE_INTERVAL_MS);
+        } else if (!shouldSample && sampling) {
+            getScheduler().cancel(this);
+        }
+
+        sampling = shouldSample;
+    }
+
+    private void sample(long nowMs, boolean force) {
+        final DecoderCounters counters = this.counters;
+        final long elapsedMs = nowMs - lastSampleMs;
+
+        if (counters == null || elapsedMs <= 0 || (!force && elapsedMs < MIN_SAMPLE_INTERVAL_MS)) {
+            return;
+        }
+
+        counters.ensureUpdated();
+
+        final long rendered = counters.renderedOutputBufferCount;
+        final long dropped = counters.droppedBufferCount;
+        final long skipped = counters.skippedOutputBufferCount;
+
+        if (rendered > lastRendered) {
+            renderingMs += elapsedMs;
+            renderedWhileRendering += rendered - lastRendered;
+        }
+
+        // Rates of short forced samples are too noisy to be peaks
+        if (elapsedMs >= MIN_SAMPLE_INTERVAL_MS) {
+            peakDroppedPerSecond = Math.max(peakDroppedPerSecond, (int) ((dropped - lastDropped) * 1000 / elapsedMs));
+            peakSkippedPerSecond = Math.max(peakSkippedPerSecond, (int) ((skipped - lastSkipped) * 1000 / elapsedMs));
+        }
+
+        lastSampleMs = nowMs;
+        lastRendered = rendered;
+        lastDropped = dropped;
+        lastSkipped = skipped;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Formatted lazily when the event is sent
+    static final class Summary {
+        int trackType;
+        String decoderName;
+        String mimeType;
+        String codecs;
+        long initDurationMs;
+        long firstFrameMs;
+        long enabledMs;
+        int initCount;
+        int inputBuffers;
+        int renderedBuffers;
+        int skippedBuffers;
+        int droppedBuffers;
+        int maxConsecutiveDropped;
+        int droppedToKeyframe;
+        int renderedPerSecond;
+        int peakDroppedPerSecond;
+        int peakSkippedPerSecond;
+
+        @Override
+        public String toString() {
+            final StringBuilder out = new StringBuilder(256);
+
+            out.append(decoderName != null ? decoderName : "unknown decoder");
+            if (mimeType != null) {
+                out.append(" (").append(mimeType);
+                if (codecs != null) {
+                    out.append(' ').append(codecs);
+                }
+                out.append(')');
+            }
+            out.append(", track type ").append(trackType);
+            out.append(", init ").append(initDurationMs).append("ms");
+            out.append(" x").append(initCount);
+            if (firstFrameMs >= 0) {
+                out.append(", first frame after ").append(firstFrameMs).append("ms");
+            }
+            out.append(", enabled ").append(enabledMs / 1000).append('s');
+            out.append(", input ").append(inputBuffers);
+            out.append(", rendered ").append(renderedBuffers);
+            out.append(" (").append(renderedPerSecond).append("/s)");
+            out.append(", skipped ").append(skippedBuffers);
+            out.append(" (peak ").append(peakSkippedPerSecond).append("/s)");
+            out.append(", dropped ").append(droppedBuffers);
+            out.append(" (peak ").append(peakDroppedPerSecond).append("/s");
+            out.append(", ").append(maxConsecutiveDropped).append(" in a row)");
+            out.append(", dropped to keyframe ").append(droppedToKeyframe);
+            return out.toString();
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,239 @@
+package com.testfairy.tvtest.testfairy;
+
+// Decides which player errors are worth a stack trace upload, and notices retry storms.
+//
+// Errors are fingerprinted by kind, HTTP response code and host, and counted per fingerprint in windows of WINDOW_MS.
+// Only the first error of a fingerprint in each window is uploaded with TestFairy.logThrowable(); the repeats are
+// counted and reported once through onRepeats when the window closes. A flapping CDN then costs one upload and one
+// event per minute instead of hundreds of serialized stack traces. Windows with repeats are closed on
+// TestFairyTickScheduler when they expire, so the report does not wait for the next error or the end of the session.
+//
+// A retry storm is STORM_ERRORS errors of any fingerprint within STORM_WINDOW_MS, as seen when the player keeps
+// retrying a dead host. It is flagged once through onRetryStorm when it starts.
+//
+// Fingerprints live in a fixed table of MAX_FINGERPRINTS entries, the one seen least recently is reported and
+// replaced when a new fingerprint needs room. Errors are reported with SystemClock.elapsedRealtime() timestamps from
+// the analytics listener, on the player's application looper. The aggregator is not synchronized: it binds to the
+// TestFairyTickScheduler of the looper it is first used on, so expired windows close on that same thread, and any use
+// from another thread fails fast.
+abstract class TestFairyErrorAggregator extends TestFairyTickScheduler.Task {
+
+    static final int KIND_HTTP_RESPONSE = 0;
+    static final int KIND_HTTP_CONNECTION = 1;
+    static final int KIND_LOAD = 2;
+    static final int KIND_SOURCE = 3;
+    static final int KIND_DRM = 4;
+
+    static final int NO_RESPONSE_CODE = -1;
+
+    static final long WINDOW_MS = 60000;
+    static final int MAX_FINGERPRINTS = 16;
+    static final int STORM_ERRORS = 10;
+    static final long STORM_WINDOW_MS = 10000;
+
+    private static final String[] KIND_NAMES = {"HTTP", "HTTP connection error", "load error", "source error",
+            "DRM error"};
+
+    // Fingerprints, a slot is free while its window start is -1
+    private final int[] kinds = new int[MAX_FINGERPRINTS];
+    private final int[] responseCodes = new int[MAX_FINGERPRINTS];
+    private final String[] hosts = new String[MAX_FINGERPRINTS];
+    private final long[] windowStartMs = new long[MAX_FINGERPRINTS];
+    private final long[] lastSeenMs = new long[MAX_FINGERPRINTS];
+    private final int[] windowCounts = new int[MAX_FINGERPRINTS];
+    //////////////////////////////////////////////////////////////
+
+    // Storm detection, times of the last STORM_ERRORS errors
+    private final long[] recentErrorMs = new long[STORM_ERRORS];
+    private int recentNext = 0;
+    private int recentCount = 0;
+    private boolean inStorm = false;
+    //////////////////////////////////////////////////////////////
+
+    // Metrics
+    private volatile long errorCount = 0;
+    private volatile long uploadCount = 0;
+    private volatile long stormCount = 0;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyErrorAggregator() {
+        clear();
+    }
+
+    TestFairyErrorAggregator(TestFairyTickScheduler scheduler) {
+        super(scheduler);
+        clear();
+    }
+
+    // Callbacks, called on the thread that reported the error
+    protected abstract void onRepeats(String fingerprint, int repeats, long windowMs);
+
+    protected abstract void onRetryStorm(String fingerprint, int errors, long windowMs);
+
+    // Errors
+    // Returns true if the error's throwable should be uploaded
+    final boolean onError(int kind, int responseCode, String host, long nowMs) {
+        errorCount = errorCount + 1;
+
+        closeExpiredWindows(nowMs);
+        final boolean upload = count(kind, responseCode, host, nowMs);
+        detectStorm(kind, responseCode, host, nowMs);
+
+        if (upload) {
+            uploadCount = uploadCount + 1;
+        } else {
+            scheduleExpiry(nowMs);
+        }
+
+        return upload;
+    }
+
+    // Reports every open window, called when a playback session ends
+    final void flush(long nowMs) {
+        getScheduler().cancel(this);
+
+        for (int i = 0; i < MAX_FINGERPRINTS; i++) {
+            closeWindow(i, nowMs);
+        }
+
+        clear();
+    }
+
+    @Override
+    protected final void onTick() {
+        final long now = getScheduler().elapsedRealtime();
+
+        closeExpiredWindows(now);
+        scheduleExpiry(now);
+    }
+
+    // Wakes up when the first window with repeats expires, windows without repeats close silently whenever
+    private void scheduleExpiry(long nowMs) {
+        long firstExpiryMs = Long.MAX_VALUE;
+
+        for (int i = 0; i < MAX_FINGERPRINTS; i++) {
+            if (windowStartMs[i] >= 0 && windowCounts[i] > 1) {
+                firstExpiryMs = Math.min(firstExpiryMs, windowStartMs[i] + WINDOW_MS);
+            }
+        }
+
+        if (firstExpiryMs == Long.MAX_VALUE) {
+            getScheduler().cancel(this);
+        } else {
+            getScheduler().schedule(this, Math.max(0, firstExpiryMs - nowMs));
+        }
+    }
+
+    private boolean count(int kind, int responseCode, String host, long nowMs) {
+        int free = -1;
+        int oldest = 0;
+
+        for (int i = 0; i < MAX_FINGERPRINTS; i++) {
+            if (windowStartMs[i] < 0) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (kinds[i] == kind && responseCodes[i] == responseCode && equal(hosts[i], host)) {
+                windowCounts[i]++;
+                lastSeenMs[i] = nowMs;
+                return false;
+            } else if (lastSeenMs[i] < lastSeenMs[oldest] || windowStartMs[oldest] < 0) {
+                oldest = i;
+            }
+        }
+
+        final int slot = free >= 0 ? free : oldest;
+        closeWindow(slot, nowMs);
+
+        kinds[slot] = kind;
+        responseCodes[slot] = responseCode;
+        hosts[slot] = host;
+        windowStartMs[slot] = nowMs;
+        lastSeenMs[slot] = nowMs;
+        windowCounts[slot] = 1;
+        return true;
+    }
+
+    private void closeExpiredWindows(long nowMs) {
+        for (int i = 0; i < MAX_FINGERPRINTS; i++) {
+            if (windowStartMs[i] >= 0 && nowMs - windowStartMs[i] >= WINDOW_MS) {
+                closeWindow(i, nowMs);
+            }
+        }
+    }
+
+    // Reports the repeats of a slot and frees it
+    private void closeWindow(int slot, long nowMs) {
+        if (windowStartMs[slot] < 0) {
+            return;
+        }
+
+        if (windowCounts[slot] > 1) {
+            onRepeats(describe(kinds[slot], responseCodes[slot], hosts[slot]), windowCounts[slot] - 1,
+                    Math.min(WINDOW_MS, nowMs - windowStartMs[slot]));
+        }
+
+        windowStartMs[slot] = -1;
+        hosts[slot] = null;
+    }
+
+    private void detectStorm(int kind, int responseCode, String host, long nowMs) {
+        recentErrorMs[recentNext] = nowMs;
+        recentNext = (recentNext + 1) % STORM_ERRORS;
+        recentCount = Math.min(STORM_ERRORS, recentCount + 1);
+
+        // recentNext now points at the oldest of the last STORM_ERRORS errors
+        final boolean storm = recentCount == STORM_ERRORS && nowMs - recentErrorMs[recentNext] <= STORM_WINDOW_MS;
+
+        if (storm && !inStorm) {
+            stormCount = stormCount + 1;
+            onRetryStorm(describe(kind, responseCode, host), STORM_ERRORS, nowMs - recentErrorMs[recentNext]);
+        }
+
+        inStorm = storm;
+    }
+
+    private void clear() {
+        for (int i = 0; i < MAX_FINGERPRINTS; i++) {
+            windowStartMs[i] = -1;
+            hosts[i] = null;
+        }
+
+        recentNext = 0;
+        recentCount = 0;
+        inStorm = false;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static String describe(int kind, int responseCode, String host) {
+        final StringBuilder out = new StringBuilder(64);
+
+        out.append(KIND_NAMES[kind]);
+        if (responseCode != NO_RESPONSE_CODE) {
+            out.append(' ').append(responseCode);
+        }
+        if (host != null) {
+            out.append(" from ").append(host);
+        }
+
+        return out.toString();
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Metrics
+    final long getErrorCount() {
+        return errorCount;
+    }
+
+    final long getUploadCount() {
+        return uploadCount;
+    }
+
+    final long getStormCount() {
+        return stormCount;
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,317 @@
+package com.testfairy.tvtest.testfairy;
+
+// A reusable record describing a single captured player event. Callbacks only write an event code and a few primitive
+// payload slots into it, the human readable text is built once when the event is handed to TestFairy.
+//
+// Records are owned by TestFairyEventLog and must not be kept after they are drained. Event codes are public so that
+// they can be used to configure TestFairyEventSampler.
+public final class TestFairyEvent {
+
+    // Event codes. Ids are stored in journals, so a code keeps its id forever and a new code takes the next unused id
+    // wherever it is declared. Ordinals are only used for in-memory tables.
+    public enum Code {
+        // TestFairyMediaPlayerGlue
+        VIDEO_BUFFERING(1),         // arg0: percent
+        VIDEO_STATE(2),             // arg0: 1 if playing, 0 if paused
+        VIDEO_POSITION(3),          // arg0: percent
+        VIDEO_COMPLETE(4),
+        VIDEO_ERROR(5),             // arg0: reason, extra: error extra
+
+        // TestFairyExoPlayerAnalyticsListener
+        PLAYBACK_PLAYING(6),
+        PLAYBACK_COMPLETED(7),
+        PLAYBACK_BUFFERING_OR_PAUSED(8),
+        PLAYBACK_PAUSED(9),
+        PLAYBACK_POSITION(10),      // arg0: percent
+        PLAYBACK_SEEK(11),          // arg0: percent
+        PLAYBACK_BUFFERED(12),      // arg0: percent
+        STUTTER_PERIOD_TRANSITION(13),
+        STUTTER_SEEK(14),
+        STUTTER_SEEK_ADJUSTMENT(15),
+        STUTTER_AD_INSERTION(16),
+        STUTTER_INTERNAL(17),
+        REPEAT_MODE_OFF(18),
+        REPEAT_MODE_ONE(19),
+        REPEAT_MODE_ALL(20),
+        SHUFFLE_MODE(21),           // arg0: 1 if enabled, 0 if disabled
+        NEW_VIDEO(22),
+        VOLUME(23),                 // arg0: volume percent
+        DROPPED_FRAMES(24),         // arg0: dropped frames, arg1: elapsed ms
+        HTTP_ERROR(25),             // arg0: response code
+        HTTP_ERROR_BEFORE_RESPONSE(26),
+        PLAYER_ERROR(27),           // extra: error
+        LOAD_ERROR(28),
+        DRM_ERROR(29),
+        BANDWIDTH_BAND(33),         // arg0: band lower bound in bps, arg1: smoothed estimate in bps
+        NETWORK_AT_STALL(34),       // arg0: smoothed estimate in bps, arg1: last load throughput in bps
+        STALL(36),                  // arg0: TestFairyStallDetector cause, arg1: duration ms
+        JANK(38),                   // arg0: TestFairyJankAnalyzer severity, arg1: duration ms, extra: episode
+        STARTUP(40),                // arg0: time to first frame ms or -1, arg1: traced ms, extra: waterfall
+        ERROR_REPEATS(42),          // arg0: repeats, arg1: window ms, extra: error fingerprint
+        RETRY_STORM(43),            // arg0: errors, arg1: span ms, extra: error fingerprint of the last error
+
+        // Session summaries, extra holds the summary
+        QOE_SUMMARY(30),
+        LATENCY_HISTOGRAM(31),
+        FORMAT_TIMELINE(32),
+        THROUGHPUT_SUMMARY(35),
+        WATCHED_RANGES(37),
+        DECODER_PROFILE(39),        // arg0: track type
+        SEGMENT_LOADS(41),
+
+        // TestFairyBridgeV2 calls without a code of their own above, only queued and journaled by bridges
+        BUFFERING_STATE(44),        // arg0: 1 if buffering, 0 if not
+        DISCONTINUITY(45),          // arg0: discontinuity reason
+        REPEAT_MODE(46),            // arg0: repeat mode
+        FORMAT_SWITCH(47),          // arg0: track type and selection reason, arg1: bitrate, arg2: width and height
+        BANDWIDTH_ESTIMATE(48),     // arg0: load time ms, arg1: bytes loaded, arg2: bitrate estimate
+        DECODER_INITIALIZED(49),    // arg0: track type, arg1: initialization ms
+        AUDIO_UNDERRUN(50),         // arg0: buffer size, arg1: buffer size ms, arg2: ms since last feed
+        DRM_EVENT(51);              // arg0: drm event
+
+        // Codes indexed by id
+        private static final Code[] BY_ID;
+
+        static {
+            int maxId = 0;
+            for (Code code : values()) {
+                maxId = Math.max(maxId, code.id);
+            }
+
+            BY_ID = new Code[maxId + 1];
+            for (Code code : values()) {
+                BY_ID[code.id] = code;
+            }
+        }
+
+        private final int id;
+
+        Code(int id) {
+            this.id = id;
+        }
+
+        int getId() {
+            return id;
+        }
+
+        // Returns null for ids this version does not know
+        static Code fromId(int id) {
+            return id > 0 && id < BY_ID.length ? BY_ID[id] : null;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Payload
+    Code code;
+    long arg0;
+    long arg1;
+    long arg2;
+    Object extra;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyEvent() {
+    }
+
+    void set(Code code, long arg0, long arg1, Object extra) {
+        set(code, arg0, arg1, 0, extra);
+    }
+
+    void set(Code code, long arg0, long arg1, long arg2, Object extra) {
+        this.code = code;
+        this.arg0 = arg0;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.extra = extra;
+    }
+
+    void clear() {
+        set(null, 0, 0, 0, null);
+    }
+
+    // Packing of two ints into one payload slot
+    static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    static int high(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    static int low(long packed) {
+        return (int) packed;
+    }
+
+    // Formatting, only called on the path that sends events to TestFairy
+    void appendTo(StringBuilder out) {
+        switch (code) {
+            case VIDEO_BUFFERING:
+                out.append("Video Buffering: ").append(arg0).append('%');
+                break;
+            case VIDEO_STATE:
+                out.append("Video is ").append(arg0 != 0 ? "playing" : "paused");
+                break;
+            case VIDEO_POSITION:
+                out.append("Video Position: ").append(arg0).append('%');
+                break;
+            case VIDEO_COMPLETE:
+                out.append("Video complete");
+                break;
+            case VIDEO_ERROR:
+                out.append("Video error: Reason: ").append(arg0).append(" - Extra: ").append(extra);
+                break;
+            case PLAYBACK_PLAYING:
+                out.append("Playback is playing");
+                break;
+            case PLAYBACK_COMPLETED:
+                out.append("Playback has completed");
+                break;
+            case PLAYBACK_BUFFERING_OR_PAUSED:
+                out.append("Playback is buffering or paused automatically");
+                break;
+            case PLAYBACK_PAUSED:
+                out.append("Playback is paused");
+                break;
+            case PLAYBACK_POSITION:
+                out.append("Playback position ").append(arg0).append('%');
+                break;
+            case PLAYBACK_SEEK:
+                out.append("Playback seeks to position ").append(arg0).append('%');
+                break;
+            case PLAYBACK_BUFFERED:
+                out.append("Playback is buffering ").append(arg0).append('%');
+                break;
+            case STUTTER_PERIOD_TRANSITION:
+                out.append("Video stutters due to period transition");
+                break;
+            case STUTTER_SEEK:
+                out.append("Video stutters due to a seek");
+                break;
+            case STUTTER_SEEK_ADJUSTMENT:
+                out.append("Video stutters due to seek adjustment");
+                break;
+            case STUTTER_AD_INSERTION:
+                out.append("Video stutters due to an inserted ad");
+                break;
+            case STUTTER_INTERNAL:
+                out.append("Video stutters due to an internal problem");
+                break;
+            case REPEAT_MODE_OFF:
+                out.append("Repeat mode has been changed to OFF");
+                break;
+            case REPEAT_MODE_ONE:
+                out.append("Repeat mode has been changed to ONE");
+                break;
+            case REPEAT_MODE_ALL:
+                out.append("Repeat mode has been changed to ALL");
+                break;
+            case SHUFFLE_MODE:
+                out.append("Shuffle mode is ").append(arg0 != 0 ? "enabled" : "disabled");
+                break;
+            case NEW_VIDEO:
+                out.append("A new video has been loaded");
+                break;
+            case VOLUME:
+                out.append("Volume level has changed to ").append(arg0);
+                break;
+            case DROPPED_FRAMES:
+                out.append("Video has dropped ").append(arg0).append(" frames in ").append(arg1).append("ms");
+                break;
+            case HTTP_ERROR:
+                out.append("Http error during playback - ").append(arg0);
+                break;
+            case HTTP_ERROR_BEFORE_RESPONSE:
+                out.append("Http error during playback before response");
+                break;
+            case PLAYER_ERROR:
+                out.append("Player error - ").append(extra);
+                break;
+            case LOAD_ERROR:
+                out.append("Error during loading");
+                break;
+            case DRM_ERROR:
+                out.append("Drm session manager error occured");
+                break;
+            case BANDWIDTH_BAND:
+                out.append("Bandwidth estimate moved to band from ").append(arg0 / 1000).append("kbps (")
+                        .append(arg1 / 1000).append("kbps)");
+                break;
+            case NETWORK_AT_STALL:
+                out.append("Network at stall: estimate ").append(arg0 < 0 ? -1 : arg0 / 1000)
+                        .append("kbps, last load ").append(arg1 < 0 ? -1 : arg1 / 1000).append("kbps");
+                break;
+            case STALL:
+                out.append("Playback stalled for ").append(arg1).append("ms due to ");
+                if (arg0 == TestFairyStallDetector.CAUSE_INITIAL_LOAD) {
+                    out.append("initial load");
+                } else if (arg0 == TestFairyStallDetector.CAUSE_SEEK) {
+                    out.append("a seek");
+                } else {
+                    out.append("rebuffering");
+                }
+                break;
+            case JANK:
+                out.append("Jank episode: ").append(extra);
+                break;
+            case STARTUP:
+                out.append("Startup: ").append(extra);
+                break;
+            case ERROR_REPEATS:
+                out.append("Error repeated ").append(arg0).append(" times in ").append(arg1).append("ms - ")
+                        .append(extra);
+                break;
+            case RETRY_STORM:
+                out.append("Retry storm: ").append(arg0).append(" errors in ").append(arg1).append("ms, last - ")
+                        .append(extra);
+                break;
+            case QOE_SUMMARY:
+                out.append("Playback summary: ").append(extra);
+                break;
+            case LATENCY_HISTOGRAM:
+                out.append("Latency ").append(extra);
+                break;
+            case FORMAT_TIMELINE:
+                out.append("Format timeline: ").append(extra);
+                break;
+            case THROUGHPUT_SUMMARY:
+                out.append("Throughput summary: ").append(extra);
+                break;
+            case WATCHED_RANGES:
+                out.append("Watched ranges: ").append(extra);
+                break;
+            case DECODER_PROFILE:
+                out.append("Decoder profile: ").append(extra);
+                break;
+            case SEGMENT_LOADS:
+                out.append("Segment loads: ").append(extra);
+                break;
+            case BUFFERING_STATE:
+                out.append("Buffering ").append(arg0 != 0 ? "started" : "ended");
+                break;
+            case DISCONTINUITY:
+                out.append("Position discontinuity, reason ").append(arg0);
+                break;
+            case REPEAT_MODE:
+                out.append("Repeat mode has been changed to ").append(arg0);
+                break;
+            case FORMAT_SWITCH:
+                out.append("Format switch: track type ").append(high(arg0)).append(", ").append(arg1).append("bps, ")
+                        .append(high(arg2)).append('x').append(low(arg2));
+                break;
+            case BANDWIDTH_ESTIMATE:
+                out.append("Bandwidth sample: ").append(arg1).append(" bytes in ").append(arg0).append("ms, estimate ")
+                        .append(arg2 / 1000).append("kbps");
+                break;
+            case DECODER_INITIALIZED:
+                out.append("Decoder for track type ").append(arg0).append(" initialized in ").append(arg1)
+                        .append("ms");
+                break;
+            case AUDIO_UNDERRUN:
+                out.append("Audio underrun: buffer ").append(arg1).append("ms, last feed ").append(arg2)
+                        .append("ms ago");
+                break;
+            case DRM_EVENT:
+                out.append("Drm event ").append(arg0);
+                break;
+        }
+    }
+}
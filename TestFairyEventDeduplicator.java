@@ -0,0 +1,242 @@
+package com.testfairy.tvtest.testfairy;
+
+// Drops events that repeat what was just reported, before they reach the bridge. Player integrations ask
+// accept(code, arg0, arg1, now) before every bridge call and skip the call when it returns false.
+//
+// Two rules can be configured per event type:
+//
+//   Repeats   an event equal to the last one of its group is dropped. Groups let related types share one memo, so
+//             "playing, playing" is dropped but "playing, paused, playing" is not.
+//   Windows   an event equal to any event of the same type seen within the window is dropped. Equal events are
+//             found in a fixed-size open addressing table of primitive arrays, older entries are overwritten
+//             when a probe sequence is full.
+//
+// Create with TestFairyEventDeduplicator.Builder, or use createDefault() for the rules used by the integrations.
+//
+// The tables are not synchronized. Every event is checked on the thread the player calls back on, including the
+// position events of the tracker, which TestFairyTickScheduler confines to the same looper. A deduplicator therefore
+// belongs to one player and must not be shared. Counters can be read from any thread.
+public final class TestFairyEventDeduplicator {
+
+    private static final TestFairyEvent.Code[] CODES = TestFairyEvent.Code.values();
+
+    private static final int NO_GROUP = -1;
+    private static final int TABLE_SIZE = 256;
+    private static final int MAX_PROBES = 8;
+
+    // Rules, indexed by event code ordinal
+    private final int[] groups;
+    private final long[] windowsMs;
+    //////////////////////////////////////////////////////////////
+
+    // Last event of every repeat group
+    private final boolean[] groupHasLast;
+    private final int[] groupLastCode;
+    private final long[] groupLastArg0;
+    private final long[] groupLastArg1;
+    //////////////////////////////////////////////////////////////
+
+    // Window table, a slot is empty when its code is 0 and holds ordinal + 1 otherwise
+    private final int[] tableCodes = new int[TABLE_SIZE];
+    private final long[] tableArg0 = new long[TABLE_SIZE];
+    private final long[] tableArg1 = new long[TABLE_SIZE];
+    private final long[] tableSeenMs = new long[TABLE_SIZE];
+    //////////////////////////////////////////////////////////////
+
+    // Metrics
+    private final long[] suppressedByCode = new long[CODES.length];
+    private volatile long suppressedCount = 0;
+    private volatile long acceptedCount = 0;
+    //////////////////////////////////////////////////////////////
+
+    private TestFairyEventDeduplicator(Builder builder) {
+        this.groups = builder.groups.clone();
+        this.windowsMs = builder.windowsMs.clone();
+
+        final int groupCount = builder.groupCount;
+        this.groupHasLast = new boolean[groupCount];
+        this.groupLastCode = new int[groupCount];
+        this.groupLastArg0 = new long[groupCount];
+        this.groupLastArg1 = new long[groupCount];
+    }
+
+    // Defaults used by the integrations unless a deduplicator is set explicitly
+    public static TestFairyEventDeduplicator createDefault() {
+        return new Builder()
+                // TestFairyMediaPlayerGlue
+                .suppressRepeats(TestFairyEvent.Code.VIDEO_BUFFERING)
+                .suppressRepeats(TestFairyEvent.Code.VIDEO_POSITION)
+                .suppressRepeats(TestFairyEvent.Code.VIDEO_STATE)
+
+                // TestFairyExoPlayerAnalyticsListener
+                .suppressRepeats(TestFairyEvent.Code.PLAYBACK_PLAYING, TestFairyEvent.Code.PLAYBACK_PAUSED,
+                        TestFairyEvent.Code.PLAYBACK_BUFFERING_OR_PAUSED, TestFairyEvent.Code.PLAYBACK_COMPLETED)
+                .suppressRepeats(TestFairyEvent.Code.PLAYBACK_POSITION)
+                .suppressRepeats(TestFairyEvent.Code.PLAYBACK_BUFFERED)
+                .suppressWithinWindow(TestFairyEvent.Code.HTTP_ERROR, 1000)
+                .suppressWithinWindow(TestFairyEvent.Code.HTTP_ERROR_BEFORE_RESPONSE, 1000)
+                .suppressWithinWindow(TestFairyEvent.Code.LOAD_ERROR, 1000)
+                .suppressWithinWindow(TestFairyEvent.Code.DRM_ERROR, 1000)
+                .build();
+    }
+
+    // Deduplication
+    boolean accept(TestFairyEvent.Code code, long arg0, long arg1, long nowMs) {
+        final int index = code.ordinal();
+        final int group = groups[index];
+
+        if (group != NO_GROUP) {
+            if (groupHasLast[group] && groupLastCode[group] == index
+                    && groupLastArg0[group] == arg0 && groupLastArg1[group] == arg1) {
+                return suppress(index);
+            }
+
+            groupHasLast[group] = true;
+            groupLastCode[group] = index;
+            groupLastArg0[group] = arg0;
+            groupLastArg1[group] = arg1;
+        }
+
+        if (windowsMs[index] > 0 && seenWithinWindow(index, arg0, arg1, nowMs)) {
+            return suppress(index);
+        }
+
+        acceptedCount = acceptedCount + 1;
+        return true;
+    }
+
+    // Forgets everything seen so far, called when a playback session ends
+    void reset() {
+        for (int i = 0; i < groupHasLast.length; i++) {
+            groupHasLast[i] = false;
+        }
+
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            tableCodes[i] = 0;
+        }
+    }
+
+    private boolean suppress(int index) {
+        suppressedByCode[index]++;
+        suppressedCount = suppressedCount + 1;
+        return false;
+    }
+
+    // Looks the event up and records it as seen now
+    private boolean seenWithinWindow(int index, long arg0, long arg1, long nowMs) {
+        final int key = index + 1;
+        final long windowMs = windowsMs[index];
+
+        int slot = hash(key, arg0, arg1);
+        int oldestSlot = slot;
+
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            if (tableCodes[slot] == 0) {
+                oldestSlot = slot;
+                break;
+            }
+
+            if (tableCodes[slot] == key && tableArg0[slot] == arg0 && tableArg1[slot] == arg1) {
+                final boolean seen = nowMs - tableSeenMs[slot] < windowMs;
+                if (!seen) {
+                    tableSeenMs[slot] = nowMs;
+                }
+
+                return seen;
+            }
+
+            if (tableSeenMs[slot] < tableSeenMs[oldestSlot]) {
+                oldestSlot = slot;
+            }
+
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+
+        tableCodes[oldestSlot] = key;
+        tableArg0[oldestSlot] = arg0;
+        tableArg1[oldestSlot] = arg1;
+        tableSeenMs[oldestSlot] = nowMs;
+        return false;
+    }
+
+    private static int hash(int key, long arg0, long arg1) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= arg0 * 0xC2B2AE3D27D4EB4FL;
+        h ^= arg1 * 0x165667B19E3779F9L;
+        h ^= h >>> 29;
+        return (int) h & (TABLE_SIZE - 1);
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Metrics
+    public long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    // Approximate when read from another thread than the player's
+    public long getSuppressedCount(TestFairyEvent.Code code) {
+        return suppressedByCode[code.ordinal()];
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Builder
+    public static final class Builder {
+        private final int[] groups = new int[CODES.length];
+        private final long[] windowsMs = new long[groups.length];
+        private int groupCount = 0;
+
+        public Builder() {
+            for (int i = 0; i < groups.length; i++) {
+                groups[i] = NO_GROUP;
+            }
+        }
+
+        // Drops an event when it equals the last event reported for any of these types
+        public Builder suppressRepeats(TestFairyEvent.Code... codes) {
+            if (codes.length == 0) {
+                throw new IllegalArgumentException("At least one event code is required.");
+            }
+
+            for (TestFairyEvent.Code code : codes) {
+                if (code == null) {
+                    throw new NullPointerException("Event code cannot be null.");
+                }
+
+                groups[code.ordinal()] = groupCount;
+            }
+
+            groupCount++;
+            return this;
+        }
+
+        // Drops an event when an equal event of this type was reported less than windowMs ago
+        public Builder suppressWithinWindow(TestFairyEvent.Code code, long windowMs) {
+            if (code == null) {
+                throw new NullPointerException("Event code cannot be null.");
+            }
+
+            if (windowMs < 0) {
+                throw new IllegalArgumentException("Window cannot be negative.");
+            }
+
+            windowsMs[code.ordinal()] = windowMs;
+            return this;
+        }
+
+        // Removes every rule for this type
+        public Builder passThrough(TestFairyEvent.Code code) {
+            groups[code.ordinal()] = NO_GROUP;
+            windowsMs[code.ordinal()] = 0;
+            return this;
+        }
+
+        public TestFairyEventDeduplicator build() {
+            return new TestFairyEventDeduplicator(this);
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,167 @@
+package com.testfairy.tvtest.testfairy;
+
+// Turns queued or journaled events back into TestFairyBridge calls. Lives on the bridge side so that events, queues and
+// the journal do not depend on the glue.
+//
+// Every TestFairyBridgeV2 call has a code. Calls with more than three arguments pack two ints into one long, see
+// TestFairyEvent.pack().
+final class TestFairyEventDispatcher {
+
+    private TestFairyEventDispatcher() {
+    }
+
+    // Calls the matching bridge method, returns false for events the bridge has no method for
+    static boolean dispatch(TestFairyEvent event, TestFairyMediaPlayerGlue.TestFairyBridge bridge) {
+        switch (event.code) {
+            case VIDEO_BUFFERING:
+                bridge.onBufferingUpdate((int) event.arg0);
+                return true;
+            case VIDEO_STATE:
+                bridge.onPlaybackStateChange(event.arg0 != 0);
+                return true;
+            case VIDEO_POSITION:
+                bridge.onPlaybackPositionUpdate((int) event.arg0);
+                return true;
+            case VIDEO_COMPLETE:
+                bridge.onComplete();
+                return true;
+            case VIDEO_ERROR:
+                bridge.onError((int) event.arg0, event.extra);
+                return true;
+        }
+
+        return bridge instanceof TestFairyMediaPlayerGlue.TestFairyBridgeV2
+                && dispatch(event, (TestFairyMediaPlayerGlue.TestFairyBridgeV2) bridge);
+    }
+
+    private static boolean dispatch(TestFairyEvent event, TestFairyMediaPlayerGlue.TestFairyBridgeV2 bridge) {
+        switch (event.code) {
+            case BUFFERING_STATE:
+                bridge.onBufferingStateChange(event.arg0 != 0);
+                return true;
+            case PLAYBACK_SEEK:
+                bridge.onSeek((int) event.arg0);
+                return true;
+            case DISCONTINUITY:
+                bridge.onDiscontinuity((int) event.arg0);
+                return true;
+            case REPEAT_MODE:
+                bridge.onRepeatModeChange((int) event.arg0);
+                return true;
+            case SHUFFLE_MODE:
+                bridge.onShuffleModeChange(event.arg0 != 0);
+                return true;
+            case NEW_VIDEO:
+                bridge.onNewMedia();
+                return true;
+            case VOLUME:
+                bridge.onVolumeChange((int) event.arg0);
+                return true;
+            case FORMAT_SWITCH:
+                bridge.onFormatSwitch(TestFairyEvent.high(event.arg0), (int) event.arg1, TestFairyEvent.high(event.arg2),
+                        TestFairyEvent.low(event.arg2), TestFairyEvent.low(event.arg0));
+                return true;
+            case BANDWIDTH_ESTIMATE:
+                bridge.onBandwidthEstimate((int) event.arg0, event.arg1, event.arg2);
+                return true;
+            case DROPPED_FRAMES:
+                bridge.onDroppedFrames((int) event.arg0, event.arg1);
+                return true;
+            case DECODER_INITIALIZED:
+                bridge.onDecoderInitialized((int) event.arg0, event.arg1);
+                return true;
+            case AUDIO_UNDERRUN:
+                bridge.onAudioUnderrun((int) event.arg0, event.arg1, event.arg2);
+                return true;
+            case HTTP_ERROR:
+                bridge.onHttpError((int) event.arg0);
+                return true;
+            case LOAD_ERROR:
+                bridge.onLoadError();
+                return true;
+            case DRM_EVENT:
+                bridge.onDrmEvent((int) event.arg0);
+                return true;
+            case ERROR_REPEATS:
+                bridge.onErrorRepeats((int) event.arg0, event.arg1, text(event.extra));
+                return true;
+            case RETRY_STORM:
+                bridge.onRetryStorm((int) event.arg0, event.arg1, text(event.extra));
+                return true;
+            case BANDWIDTH_BAND:
+                bridge.onBandwidthBand(event.arg0, event.arg1);
+                return true;
+            case NETWORK_AT_STALL:
+                bridge.onNetworkAtStall(event.arg0, event.arg1);
+                return true;
+            case STALL:
+                bridge.onStall((int) event.arg0, event.arg1);
+                return true;
+            case JANK:
+                bridge.onJank((int) event.arg0, event.arg1, event.extra);
+                return true;
+            case STARTUP:
+                bridge.onStartup(event.arg0, event.arg1, event.extra);
+                return true;
+            case QOE_SUMMARY:
+            case LATENCY_HISTOGRAM:
+            case FORMAT_TIMELINE:
+            case THROUGHPUT_SUMMARY:
+            case WATCHED_RANGES:
+            case DECODER_PROFILE:
+            case SEGMENT_LOADS:
+                bridge.onSummary(getSummaryType(event.code), (int) event.arg0, event.extra);
+                return true;
+            default:
+                return false;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Summaries
+    static TestFairyEvent.Code getSummaryCode(int summaryType) {
+        switch (summaryType) {
+            case TestFairyBridgeConstants.SUMMARY_QOE:
+                return TestFairyEvent.Code.QOE_SUMMARY;
+            case TestFairyBridgeConstants.SUMMARY_LATENCY:
+                return TestFairyEvent.Code.LATENCY_HISTOGRAM;
+            case TestFairyBridgeConstants.SUMMARY_FORMAT_TIMELINE:
+                return TestFairyEvent.Code.FORMAT_TIMELINE;
+            case TestFairyBridgeConstants.SUMMARY_THROUGHPUT:
+                return TestFairyEvent.Code.THROUGHPUT_SUMMARY;
+            case TestFairyBridgeConstants.SUMMARY_WATCHED_RANGES:
+                return TestFairyEvent.Code.WATCHED_RANGES;
+            case TestFairyBridgeConstants.SUMMARY_DECODER_PROFILE:
+                return TestFairyEvent.Code.DECODER_PROFILE;
+            case TestFairyBridgeConstants.SUMMARY_SEGMENT_LOADS:
+                return TestFairyEvent.Code.SEGMENT_LOADS;
+            default:
+                throw new IllegalArgumentException("Unknown summary type " + summaryType);
+        }
+    }
+
+    private static int getSummaryType(TestFairyEvent.Code code) {
+        switch (code) {
+            case QOE_SUMMARY:
+                return TestFairyBridgeConstants.SUMMARY_QOE;
+            case LATENCY_HISTOGRAM:
+                return TestFairyBridgeConstants.SUMMARY_LATENCY;
+            case FORMAT_TIMELINE:
+                return TestFairyBridgeConstants.SUMMARY_FORMAT_TIMELINE;
+            case THROUGHPUT_SUMMARY:
+                return TestFairyBridgeConstants.SUMMARY_THROUGHPUT;
+            case WATCHED_RANGES:
+                return TestFairyBridgeConstants.SUMMARY_WATCHED_RANGES;
+            case DECODER_PROFILE:
+                return TestFairyBridgeConstants.SUMMARY_DECODER_PROFILE;
+            default:
+                return TestFairyBridgeConstants.SUMMARY_SEGMENT_LOADS;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    private static String text(Object extra) {
+        return extra == null ? null : extra.toString();
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,317 @@
+package com.testfairy.tvtest.testfairy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Append-only journal of events backed by memory-mapped segment files. Every record has the same size, so appending
+// is a handful of memory writes into the mapped segment and never blocks on I/O; the OS writes pages back on its own.
+//
+// Segments are named journal-<sequence>.tfj. When a segment is full, appending switches to a spare segment that
+// maintain() has mapped ahead of time, and when there are more than maxSegments the oldest one is queued for deletion.
+// Mapping and deleting files never happen in append(), which runs on player callback threads. If the spare is not ready
+// yet the record is dropped and counted instead. Records are read in small chunks and tombstoned as they are read, so
+// a journal left over from a previous process is picked up on open without replaying anything twice.
+//
+// append() is called from the player's threads, maintain() and drain() from a single background thread.
+//
+// Record layout, big endian:
+//   0  int   event code id, 0 marks the end of written records, -1 a record that was already read
+//   4  int   length of the extra text
+//   8  long  timestamp ms
+//   16 long  arg0
+//   24 long  arg1
+//   32 long  arg2
+//   40 byte[24] extra text, UTF-8, truncated
+final class TestFairyEventJournal {
+
+    static final int RECORD_SIZE = 64;
+    static final int RECORDS_PER_SEGMENT = 4096;
+
+    private static final int EXTRA_OFFSET = 40;
+    private static final int MAX_EXTRA_BYTES = RECORD_SIZE - EXTRA_OFFSET;
+    private static final long SEGMENT_SIZE = (long) RECORD_SIZE * RECORDS_PER_SEGMENT;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".tfj";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    interface Consumer {
+        void accept(TestFairyEvent event, long timeMs);
+    }
+
+    // State
+    private final File directory;
+    private final int maxSegments;
+    private final byte[] extraBuffer = new byte[MAX_EXTRA_BYTES];
+    private final TestFairyEvent event = new TestFairyEvent();
+
+    private long readSequence;
+    private MappedByteBuffer readSegment;
+    private int readIndex;
+
+    private long writeSequence;
+    private MappedByteBuffer writeSegment;
+    private int writeIndex;
+
+    // Mapped ahead by maintain(), null until then
+    private MappedByteBuffer spareSegment;
+    private final ArrayList<File> pendingDeletes = new ArrayList<File>();
+
+    private long droppedSegments = 0;
+    private long droppedRecords = 0;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyEventJournal(File directory, int maxSegments) throws IOException {
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("A journal needs at least one segment.");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+
+        this.directory = directory;
+        this.maxSegments = maxSegments;
+
+        final long[] sequences = listSequences();
+        if (sequences.length == 0) {
+            writeSequence = 0;
+            writeSegment = map(writeSequence);
+            writeIndex = 0;
+        } else {
+            writeSequence = sequences[sequences.length - 1];
+            writeSegment = map(writeSequence);
+            writeIndex = findEnd(writeSegment);
+        }
+
+        readSequence = sequences.length == 0 ? writeSequence : sequences[0];
+        readSegment = readSequence == writeSequence ? writeSegment : map(readSequence);
+        readIndex = 0;
+    }
+
+    // Appending
+    synchronized void append(long timeMs, TestFairyEvent.Code code, long arg0, long arg1, long arg2, Object extra) {
+        if (writeIndex == RECORDS_PER_SEGMENT && !rotate()) {
+            droppedRecords++;
+            return;
+        }
+
+        final int offset = writeIndex * RECORD_SIZE;
+        int extraLength = 0;
+
+        if (extra != null) {
+            final byte[] text = extra.toString().getBytes(UTF_8);
+            extraLength = Math.min(text.length, MAX_EXTRA_BYTES);
+
+            for (int i = 0; i < extraLength; i++) {
+                writeSegment.put(offset + EXTRA_OFFSET + i, text[i]);
+            }
+        }
+
+        writeSegment.putInt(offset + 4, extraLength);
+        writeSegment.putLong(offset + 8, timeMs);
+        writeSegment.putLong(offset + 16, arg0);
+        writeSegment.putLong(offset + 24, arg1);
+        writeSegment.putLong(offset + 32, arg2);
+
+        // Written last so that a crash mid-record leaves the record unused
+        writeSegment.putInt(offset, code.getId());
+        writeIndex++;
+    }
+
+    // Switches to the spare segment, returns false if there is none yet
+    private boolean rotate() {
+        if (spareSegment == null) {
+            return false;
+        }
+
+        writeSequence++;
+        writeSegment = spareSegment;
+        writeIndex = 0;
+        spareSegment = null;
+
+        while (writeSequence - readSequence + 1 > maxSegments) {
+            pendingDeletes.add(segmentFile(readSequence));
+            droppedSegments++;
+            openReadSegment(readSequence + 1);
+        }
+
+        return true;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Maintenance
+    // True when maintain() has work to do
+    synchronized boolean needsMaintenance() {
+        return spareSegment == null || !pendingDeletes.isEmpty();
+    }
+
+    // Deletes dropped segments and maps the spare segment. The file work happens outside the lock so that appends
+    // are not held up by it.
+    void maintain() throws IOException {
+        final long spareSequence;
+        final File[] deletes;
+
+        synchronized (this) {
+            spareSequence = spareSegment == null ? writeSequence + 1 : -1;
+            deletes = pendingDeletes.toArray(new File[pendingDeletes.size()]);
+            pendingDeletes.clear();
+        }
+
+        for (File file : deletes) {
+            file.delete();
+        }
+
+        if (spareSequence < 0) {
+            return;
+        }
+
+        final MappedByteBuffer spare = map(spareSequence);
+
+        synchronized (this) {
+            // drain() runs on the same thread, so the write sequence cannot have moved on in the meantime
+            if (spareSegment == null && writeSequence + 1 == spareSequence) {
+                spareSegment = spare;
+            }
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Reads up to maxRecords records in order and returns how many were read. Read records are tombstoned, and the
+    // journal starts over with a fresh segment once everything has been read.
+    synchronized int drain(Consumer consumer, int maxRecords) throws IOException {
+        int count = 0;
+
+        while (count < maxRecords && !isEmpty()) {
+            if (readSequence != writeSequence && readIndex == RECORDS_PER_SEGMENT) {
+                segmentFile(readSequence).delete();
+                openReadSegment(readSequence + 1);
+                continue;
+            }
+
+            if (readSegment == null) {
+                readSegment = map(readSequence);
+            }
+
+            final int offset = readIndex * RECORD_SIZE;
+            // Tombstones and ids of codes this version does not know are skipped
+            final TestFairyEvent.Code code = TestFairyEvent.Code.fromId(readSegment.getInt(offset));
+            readIndex++;
+
+            if (code == null) {
+                continue;
+            }
+
+            final int extraLength = Math.min(readSegment.getInt(offset + 4), MAX_EXTRA_BYTES);
+            String extra = null;
+
+            if (extraLength > 0) {
+                for (int i = 0; i < extraLength; i++) {
+                    extraBuffer[i] = readSegment.get(offset + EXTRA_OFFSET + i);
+                }
+                extra = new String(extraBuffer, 0, extraLength, UTF_8);
+            }
+
+            event.set(code, readSegment.getLong(offset + 16), readSegment.getLong(offset + 24),
+                    readSegment.getLong(offset + 32), extra);
+            readSegment.putInt(offset, -1);
+
+            consumer.accept(event, readSegment.getLong(offset + 8));
+            count++;
+        }
+
+        if (isEmpty() && writeIndex > 0) {
+            startOver();
+        }
+
+        return count;
+    }
+
+    private void startOver() throws IOException {
+        segmentFile(writeSequence).delete();
+
+        writeSequence++;
+        writeSegment = spareSegment != null ? spareSegment : map(writeSequence);
+        writeIndex = 0;
+        spareSegment = null;
+        openReadSegment(writeSequence);
+    }
+
+    // Older segments are mapped by drain() when it gets to them
+    private void openReadSegment(long sequence) {
+        readSequence = sequence;
+        readSegment = sequence == writeSequence ? writeSegment : null;
+        readIndex = 0;
+    }
+
+    synchronized boolean isEmpty() {
+        return readSequence == writeSequence && readIndex >= writeIndex;
+    }
+
+    // Segments deleted because the journal went over its size cap
+    synchronized long getDroppedSegmentCount() {
+        return droppedSegments;
+    }
+
+    // Records dropped because the spare segment was not mapped in time
+    synchronized long getDroppedRecordCount() {
+        return droppedRecords;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Files
+    private File segmentFile(long sequence) {
+        return new File(directory, PREFIX + sequence + SUFFIX);
+    }
+
+    private MappedByteBuffer map(long sequence) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(segmentFile(sequence), "rw");
+
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        } finally {
+            // The mapping stays valid after the channel is closed
+            file.close();
+        }
+    }
+
+    private static int findEnd(MappedByteBuffer segment) {
+        int index = 0;
+
+        while (index < RECORDS_PER_SEGMENT && segment.getInt(index * RECORD_SIZE) != 0) {
+            index++;
+        }
+
+        return index;
+    }
+
+    private long[] listSequences() {
+        final String[] names = directory.list();
+        if (names == null) {
+            return new long[0];
+        }
+
+        long[] sequences = new long[names.length];
+        int count = 0;
+
+        for (String name : names) {
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                try {
+                    sequences[count++] = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                } catch (NumberFormatException ignored) {
+                    // Not one of ours
+                }
+            }
+        }
+
+        sequences = Arrays.copyOf(sequences, count);
+        Arrays.sort(sequences);
+        return sequences;
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,136 @@
+package com.testfairy.tvtest.testfairy;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import com.testfairy.TestFairy;
+
+// Entry point for every captured player event. Callers pass an event code and primitive payload, which is written into
+// a preallocated slot of a bounded ring buffer. A background drainer thread flushes the queue in batches and builds the
+// text of each event only at the point where it is handed to TestFairy.addEvent, so neither formatting nor SDK latency
+// lands on player callback threads.
+final class TestFairyEventLog {
+
+    private static final int CAPACITY = 1024;
+    private static final int BATCH_SIZE = 64;
+    private static final long FLUSH_DELAY_MS = 250;
+    private static final int MSG_FLUSH = 1;
+
+    // State
+    private static final TestFairyEventQueue queue = new TestFairyEventQueue(CAPACITY, TestFairyEventOverflowPolicy.DROP_OLDEST);
+    private static Handler drainer;
+    private static volatile boolean flushScheduled = false;
+    private static volatile boolean immediateFlushScheduled = false;
+    //////////////////////////////////////////////////////////////
+
+    private TestFairyEventLog() {
+    }
+
+    // Producers, serialized so the queue always sees a single producer
+    static void add(TestFairyEvent.Code code) {
+        add(code, 0, 0, null);
+    }
+
+    static void add(TestFairyEvent.Code code, long arg0) {
+        add(code, arg0, 0, null);
+    }
+
+    static void add(TestFairyEvent.Code code, long arg0, long arg1) {
+        add(code, arg0, arg1, null);
+    }
+
+    static synchronized void add(TestFairyEvent.Code code, long arg0, long arg1, Object extra) {
+        queue.offer(code, arg0, arg1, extra);
+
+        if (drainer == null) {
+            drainer = createDrainer();
+        }
+
+        // One pending flush at a time, an immediate flush replaces the delayed one
+        if (queue.size() >= CAPACITY / 2) {
+            if (!immediateFlushScheduled) {
+                immediateFlushScheduled = true;
+                flushScheduled = true;
+                drainer.removeMessages(MSG_FLUSH);
+                drainer.sendEmptyMessage(MSG_FLUSH);
+            }
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            drainer.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY_MS);
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Events held back by TestFairyEventOverflowPolicy.COALESCE would otherwise wait for the next add
+    private static synchronized boolean publishCoalesced() {
+        if (!queue.hasCoalesced()) {
+            return false;
+        }
+
+        queue.publishCoalesced();
+        return true;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Configuration and metrics
+    static void setOverflowPolicy(TestFairyEventOverflowPolicy overflowPolicy) {
+        queue.setOverflowPolicy(overflowPolicy);
+    }
+
+    static long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    static long getFlushedCount() {
+        return queue.getConsumedCount();
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Drainer
+    private static Handler createDrainer() {
+        final HandlerThread thread = new HandlerThread("TestFairyEventLog", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+
+        return new Handler(thread.getLooper(), new Handler.Callback() {
+            private final TestFairyEvent[] batch = createBatch();
+            private final StringBuilder text = new StringBuilder(128);
+
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what != MSG_FLUSH) {
+                    return false;
+                }
+
+                // Cleared before draining so that events added from now on schedule another flush
+                flushScheduled = false;
+                immediateFlushScheduled = false;
+
+                do {
+                    int count;
+                    while ((count = queue.drain(batch)) > 0) {
+                        for (int i = 0; i < count; i++) {
+                            text.setLength(0);
+                            batch[i].appendTo(text);
+                            batch[i].clear();
+                            TestFairy.addEvent(text.toString());
+                        }
+                    }
+                } while (publishCoalesced());
+
+                return true;
+            }
+        });
+    }
+
+    private static TestFairyEvent[] createBatch() {
+        final TestFairyEvent[] batch = new TestFairyEvent[BATCH_SIZE];
+
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch[i] = new TestFairyEvent();
+        }
+
+        return batch;
+    }
+    //////////////////////////////////////////////////////////////
+}
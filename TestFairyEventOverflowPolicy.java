@@ -0,0 +1,13 @@
+package com.testfairy.tvtest.testfairy;
+
+// What a full TestFairyEventQueue does with a new event, see TestFairyMediaPlayerGlue.setEventOverflowPolicy()
+public enum TestFairyEventOverflowPolicy {
+    // Discard the oldest queued event to make room for the new one
+    DROP_OLDEST,
+
+    // Discard the new event
+    DROP_NEWEST,
+
+    // Keep only the latest event of each kind until there is room again
+    COALESCE
+}
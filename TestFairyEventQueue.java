@@ -0,0 +1,180 @@
+package com.testfairy.tvtest.testfairy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded single-producer/single-consumer ring buffer of preallocated event records.
+//
+// The producer writes primitive payload straight into a slot and publishes it by advancing the tail, nothing is
+// allocated per event. The consumer copies slots out before claiming them, so the producer is free to reclaim the
+// oldest slot under TestFairyEventOverflowPolicy.DROP_OLDEST without waiting for the consumer.
+final class TestFairyEventQueue {
+
+    // State
+    private final TestFairyEvent[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile TestFairyEventOverflowPolicy overflowPolicy;
+
+    // Producer owned, events held back by COALESCE until there is room in the ring
+    private final TestFairyEvent[] coalesced = new TestFairyEvent[TestFairyEvent.Code.values().length];
+    private int coalescedCount = 0;
+
+    // Each counter has a single writer
+    private volatile long droppedCount = 0;
+    private volatile long consumedCount = 0;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyEventQueue(int capacity, TestFairyEventOverflowPolicy overflowPolicy) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two.");
+        }
+
+        this.slots = new TestFairyEvent[capacity];
+        this.mask = capacity - 1;
+        this.overflowPolicy = overflowPolicy;
+
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new TestFairyEvent();
+        }
+
+        for (int i = 0; i < coalesced.length; i++) {
+            coalesced[i] = new TestFairyEvent();
+        }
+    }
+
+    // Producer side
+    boolean offer(TestFairyEvent.Code code, long arg0, long arg1, Object extra) {
+        return offer(code, arg0, arg1, 0, extra);
+    }
+
+    boolean offer(TestFairyEvent.Code code, long arg0, long arg1, long arg2, Object extra) {
+        if (coalescedCount > 0) {
+            publishCoalesced();
+
+            if (coalescedCount > 0) {
+                return coalesce(code, arg0, arg1, arg2, extra);
+            }
+        }
+
+        if (isFull()) {
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    droppedCount++;
+                    return false;
+                case COALESCE:
+                    return coalesce(code, arg0, arg1, arg2, extra);
+                case DROP_OLDEST:
+                    // Only fails if the consumer freed a slot in the meantime
+                    dropOldest();
+                    break;
+            }
+        }
+
+        publish(code, arg0, arg1, arg2, extra);
+        return true;
+    }
+
+    private boolean isFull() {
+        return tail.get() - head.get() >= slots.length;
+    }
+
+    private boolean dropOldest() {
+        final long h = head.get();
+
+        if (tail.get() - h < slots.length) {
+            return false;
+        }
+
+        if (head.compareAndSet(h, h + 1)) {
+            droppedCount++;
+            return true;
+        }
+
+        return false;
+    }
+
+    private void publish(TestFairyEvent.Code code, long arg0, long arg1, long arg2, Object extra) {
+        final long t = tail.get();
+        slots[(int) (t & mask)].set(code, arg0, arg1, arg2, extra);
+        tail.lazySet(t + 1);
+    }
+
+    private boolean coalesce(TestFairyEvent.Code code, long arg0, long arg1, long arg2, Object extra) {
+        final TestFairyEvent held = coalesced[code.ordinal()];
+
+        if (held.code != null) {
+            droppedCount++;
+        } else {
+            coalescedCount++;
+        }
+
+        held.set(code, arg0, arg1, arg2, extra);
+        return true;
+    }
+
+    boolean hasCoalesced() {
+        return coalescedCount > 0;
+    }
+
+    // Moves held back events into the ring for as long as there is room, producer side only
+    void publishCoalesced() {
+        for (int i = 0; i < coalesced.length && coalescedCount > 0 && !isFull(); i++) {
+            final TestFairyEvent held = coalesced[i];
+
+            if (held.code != null) {
+                publish(held.code, held.arg0, held.arg1, held.arg2, held.extra);
+                held.clear();
+                coalescedCount--;
+            }
+        }
+    }
+
+    void setOverflowPolicy(TestFairyEventOverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Consumer side, copies up to batch.length events into the given records and returns how many were copied
+    int drain(TestFairyEvent[] batch) {
+        int count = 0;
+
+        while (count < batch.length) {
+            final long h = head.get();
+
+            if (h == tail.get()) {
+                break;
+            }
+
+            final TestFairyEvent slot = slots[(int) (h & mask)];
+            batch[count].set(slot.code, slot.arg0, slot.arg1, slot.arg2, slot.extra);
+
+            // Only keep the copy if the producer did not reclaim the slot while we were reading it
+            if (head.compareAndSet(h, h + 1)) {
+                count++;
+            }
+        }
+
+        consumedCount += count;
+        return count;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Metrics
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    long getDroppedCount() {
+        return droppedCount;
+    }
+
+    long getConsumedCount() {
+        return consumedCount;
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,300 @@
+package com.testfairy.tvtest.testfairy;
+
+// Per event type policy engine that sits between a player integration and TestFairyEventLog. High frequency signals
+// can be rate limited with a token bucket, summed over a time window (dropped frames) or collapsed to the last value
+// seen in a time window (buffering percentages). Types without a policy pass through untouched.
+//
+// Create with TestFairyEventSampler.Builder, or use createDefault() for the policies used by the wrappers.
+//
+// A sampler can be shared by several wrappers and listeners, each calling it from its own player's thread, and windows
+// are closed by the TestFairyTickScheduler of the thread that built the sampler, so buckets and windows are guarded by
+// the sampler's monitor.
+// Every event takes it once. It is uncontended unless two players report at the same instant, which costs about as
+// much as the TestFairyEventLog producer lock the event takes next anyway.
+public final class TestFairyEventSampler {
+
+    private static final int POLICY_PASS = 0;
+    private static final int POLICY_RATE_LIMIT = 1;
+    private static final int POLICY_SUM = 2;
+    private static final int POLICY_LAST_VALUE = 3;
+
+    private static final TestFairyEvent.Code[] CODES = TestFairyEvent.Code.values();
+
+    // Receives the events that pass, TestFairyEventLog unless a benchmark passes its own
+    interface Output {
+        void add(TestFairyEvent.Code code, long arg0, long arg1, Object extra);
+    }
+
+    private final TestFairyTickScheduler scheduler;
+    private final Output output;
+
+    // Policies, indexed by event code ordinal
+    private final int[] policies;
+    private final long[] windowsMs;
+    private final long[] ratesPerSecond;
+    private final long[] burstSizes;
+
+    // Token buckets, in thousandths of a token to stay integral
+    private final long[] milliTokens;
+    private final long[] lastRefillMs;
+
+    // Open coalescing windows
+    private final boolean[] pending;
+    private final long[] pendingArg0;
+    private final long[] pendingArg1;
+    private final Object[] pendingExtras;
+    private final WindowTask[] windowTasks;
+
+    private long suppressedCount = 0;
+    private long emittedCount = 0;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyEventSampler(Builder builder, TestFairyTickScheduler scheduler, Output output) {
+        final int codes = CODES.length;
+
+        this.scheduler = scheduler;
+        this.output = output;
+
+        this.policies = builder.policies.clone();
+        this.windowsMs = builder.windowsMs.clone();
+        this.ratesPerSecond = builder.ratesPerSecond.clone();
+        this.burstSizes = builder.burstSizes.clone();
+
+        this.milliTokens = new long[codes];
+        this.lastRefillMs = new long[codes];
+        this.pending = new boolean[codes];
+        this.pendingArg0 = new long[codes];
+        this.pendingArg1 = new long[codes];
+        this.pendingExtras = new Object[codes];
+        this.windowTasks = new WindowTask[codes];
+
+        for (int i = 0; i < codes; i++) {
+            milliTokens[i] = burstSizes[i] * 1000;
+
+            if (policies[i] == POLICY_SUM || policies[i] == POLICY_LAST_VALUE) {
+                windowTasks[i] = new WindowTask(i);
+            }
+        }
+    }
+
+    // Defaults used by the wrappers unless a sampler is set explicitly
+    public static TestFairyEventSampler createDefault() {
+        return createDefaultBuilder().build();
+    }
+
+    static Builder createDefaultBuilder() {
+        return new Builder()
+                .sumOverWindow(TestFairyEvent.Code.DROPPED_FRAMES, 5000)
+                .keepLastValueOverWindow(TestFairyEvent.Code.VIDEO_BUFFERING, 1000)
+                .keepLastValueOverWindow(TestFairyEvent.Code.PLAYBACK_BUFFERED, 1000);
+    }
+
+    // Sampling
+    void add(TestFairyEvent.Code code) {
+        add(code, 0, 0, null);
+    }
+
+    void add(TestFairyEvent.Code code, long arg0) {
+        add(code, arg0, 0, null);
+    }
+
+    void add(TestFairyEvent.Code code, long arg0, long arg1) {
+        add(code, arg0, arg1, null);
+    }
+
+    void add(TestFairyEvent.Code code, long arg0, long arg1, Object extra) {
+        final int index = code.ordinal();
+        final int policy = policies[index];
+        final long now = policy == POLICY_RATE_LIMIT ? scheduler.elapsedRealtime() : 0;
+
+        final boolean opensWindow;
+
+        synchronized (this) {
+            switch (policy) {
+                case POLICY_RATE_LIMIT:
+                    if (!tryAcquire(index, now)) {
+                        suppressedCount++;
+                        return;
+                    }
+                    opensWindow = false;
+                    break;
+                case POLICY_SUM:
+                case POLICY_LAST_VALUE:
+                    if (accumulate(index, arg0, arg1, extra, policy == POLICY_SUM)) {
+                        suppressedCount++;
+                        return;
+                    }
+                    opensWindow = true;
+                    break;
+                default:
+                    opensWindow = false;
+                    break;
+            }
+
+            if (!opensWindow) {
+                emittedCount++;
+            }
+        }
+
+        if (opensWindow) {
+            scheduler.schedule(windowTasks[index], windowsMs[index]);
+        } else {
+            output.add(code, arg0, arg1, extra);
+        }
+    }
+
+    // Emits every open window right away, used when a playback session ends
+    void flush() {
+        for (int i = 0; i < windowTasks.length; i++) {
+            if (windowTasks[i] != null) {
+                scheduler.cancel(windowTasks[i]);
+                closeWindow(i);
+            }
+        }
+    }
+
+    public synchronized long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    public synchronized long getEmittedCount() {
+        return emittedCount;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Token bucket, called with the monitor held
+    private boolean tryAcquire(int index, long now) {
+        final long elapsed = now - lastRefillMs[index];
+        lastRefillMs[index] = now;
+
+        if (elapsed > 0) {
+            milliTokens[index] = Math.min(burstSizes[index] * 1000, milliTokens[index] + elapsed * ratesPerSecond[index]);
+        }
+
+        if (milliTokens[index] < 1000) {
+            return false;
+        }
+
+        milliTokens[index] -= 1000;
+        return true;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Coalescing windows, called with the monitor held. Returns false if the event opened the window.
+    private boolean accumulate(int index, long arg0, long arg1, Object extra, boolean sum) {
+        if (pending[index]) {
+            if (sum) {
+                pendingArg0[index] += arg0;
+                pendingArg1[index] += arg1;
+            } else {
+                pendingArg0[index] = arg0;
+                pendingArg1[index] = arg1;
+            }
+            pendingExtras[index] = extra;
+
+            return true;
+        }
+
+        pending[index] = true;
+        pendingArg0[index] = arg0;
+        pendingArg1[index] = arg1;
+        pendingExtras[index] = extra;
+        return false;
+    }
+
+    private void closeWindow(int index) {
+        final long arg0;
+        final long arg1;
+        final Object extra;
+
+        synchronized (this) {
+            if (!pending[index]) {
+                return;
+            }
+
+            arg0 = pendingArg0[index];
+            arg1 = pendingArg1[index];
+            extra = pendingExtras[index];
+            pending[index] = false;
+            pendingExtras[index] = null;
+            emittedCount++;
+        }
+
+        output.add(CODES[index], arg0, arg1, extra);
+    }
+
+    private final class WindowTask extends TestFairyTickScheduler.Task {
+        private final int index;
+
+        private WindowTask(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected void onTick() {
+            closeWindow(index);
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Builder
+    public static final class Builder {
+        private final int[] policies = new int[CODES.length];
+        private final long[] windowsMs = new long[policies.length];
+        private final long[] ratesPerSecond = new long[policies.length];
+        private final long[] burstSizes = new long[policies.length];
+
+        // Lets at most eventsPerSecond events of this type through on average, with bursts of up to burstSize
+        public Builder limitRate(TestFairyEvent.Code code, int eventsPerSecond, int burstSize) {
+            if (eventsPerSecond <= 0 || burstSize <= 0) {
+                throw new IllegalArgumentException("Rate and burst size must be positive.");
+            }
+
+            set(code, POLICY_RATE_LIMIT, 0);
+            ratesPerSecond[code.ordinal()] = eventsPerSecond;
+            burstSizes[code.ordinal()] = burstSize;
+            return this;
+        }
+
+        // Sums the payload of all events of this type within the window into a single event
+        public Builder sumOverWindow(TestFairyEvent.Code code, long windowMs) {
+            set(code, POLICY_SUM, windowMs);
+            return this;
+        }
+
+        // Emits only the last event of this type seen within the window
+        public Builder keepLastValueOverWindow(TestFairyEvent.Code code, long windowMs) {
+            set(code, POLICY_LAST_VALUE, windowMs);
+            return this;
+        }
+
+        // Removes any policy for this type
+        public Builder passThrough(TestFairyEvent.Code code) {
+            set(code, POLICY_PASS, 0);
+            return this;
+        }
+
+        public TestFairyEventSampler build() {
+            return new TestFairyEventSampler(this, TestFairyTickScheduler.getInstance(), new Output() {
+                @Override
+                public void add(TestFairyEvent.Code code, long arg0, long arg1, Object extra) {
+                    TestFairyEventLog.add(code, arg0, arg1, extra);
+                }
+            });
+        }
+
+        private void set(TestFairyEvent.Code code, int policy, long windowMs) {
+            if (code == null) {
+                throw new NullPointerException("Event code cannot be null.");
+            }
+
+            if (windowMs < 0) {
+                throw new IllegalArgumentException("Window cannot be negative.");
+            }
+
+            policies[code.ordinal()] = policy;
+            windowsMs[code.ordinal()] = windowMs;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -1,14 +1,15 @@
 package com.testfairy.tvtest.testfairy;
 
-import android.os.Handler;
+import android.net.Uri;
+import android.os.SystemClock;
 import android.view.Surface;
 import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
-import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.analytics.AnalyticsListener;
 import com.google.android.exoplayer2.audio.AudioAttributes;
 import com.google.android.exoplayer2.decoder.DecoderCounters;
@@ -16,148 +17,670 @@ import com.google.android.exoplayer2.metadata.Metadata;
 import com.google.android.exoplayer2.source.MediaSourceEventListener;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.testfairy.TestFairy;
 import java.io.IOException;
-import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
+// Analytics callbacks arrive on the player's application looper. Position samples, jank checks,
+// decoder samples and error windows run on the same looper, so they never race with the callbacks.
 public class TestFairyExoPlayerAnalyticsListener implements AnalyticsListener {
 
-  private final Handler handler = new Handler();
+  // Stands in for a null bridge, so that callbacks can always call the bridge
+  private static final TestFairyMediaPlayerGlue.TestFairyBridgeV2 NO_BRIDGE =
+      new TestFairyMediaPlayerGlue.BaseTestFairyBridgeV2();
+
   private final ExoPlayer player;
+  private final TestFairyPlayerSnapshot playerSnapshot;
+  private final TestFairyPositionTracker positionTracker;
+  private volatile TestFairyEventSampler eventSampler;
+  private volatile TestFairyMediaPlayerGlue.TestFairyBridgeV2 testFairyBridge;
+  private volatile TestFairyEventDeduplicator eventDeduplicator = TestFairyEventDeduplicator.createDefault();
+  private boolean lastKnownBufferingState = false;
+  private final TestFairyQoeMetrics qoeMetrics = new TestFairyQoeMetrics();
+  private final TestFairyFormatTimeline formatTimeline = new TestFairyFormatTimeline();
+  // Selection reason of the last video format loaded, handed to the timeline when it is decoded
+  private int loadedVideoBitrate = Format.NO_VALUE;
+  private int loadedVideoSelectionReason = TestFairyFormatTimeline.NO_VALUE;
+  private final TestFairyWatchedRanges watchedRanges = new TestFairyWatchedRanges();
+  private final TestFairyStartupTracer startupTracer = new TestFairyStartupTracer();
+  private final TestFairySegmentLoadStats segmentLoads = new TestFairySegmentLoadStats();
+  private final TestFairyThroughputMeter throughputMeter = new TestFairyThroughputMeter();
+  // Bands set from another thread, handed to the meter with the next bandwidth sample
+  private final AtomicReference<long[]> pendingBandwidthBands = new AtomicReference<>();
+  private final TestFairyStallDetector stallDetector = new TestFairyStallDetector() {
+    @Override
+    protected void onStall(int cause, long durationMs) {
+      testFairyBridge.onStall(cause, durationMs);
+    }
+
+    @Override
+    protected void onStateChanged(int state, int cause, long nowMs) {
+      qoeMetrics.onPlaybackState(state, cause, nowMs);
+    }
+  };
+  private final TestFairyJankAnalyzer jankAnalyzer = new TestFairyJankAnalyzer() {
+    @Override
+    protected void onEpisode(Episode episode) {
+      testFairyBridge.onJank(episode.severity, episode.durationMs, episode);
+    }
+  };
+  private final TestFairyErrorAggregator errorAggregator = new TestFairyErrorAggregator() {
+    @Override
+    protected void onRepeats(String fingerprint, int repeats, long windowMs) {
+      testFairyBridge.onErrorRepeats(repeats, windowMs, fingerprint);
+    }
 
-  private Runnable currentPositionTracker;
-  private long lastKnownPlaybackPercent = -1;
+    @Override
+    protected void onRetryStorm(String fingerprint, int errors, long windowMs) {
+      testFairyBridge.onRetryStorm(errors, windowMs, fingerprint);
+    }
+  };
+  // Last load failure handed to the aggregator. A fatal one comes back as the source exception of
+  // a player error and must not be counted twice.
+  private IOException lastLoadError;
+  // Indexed by track type, C.TRACK_TYPE_DEFAULT to C.TRACK_TYPE_CAMERA_MOTION
+  private final TestFairyDecoderProfile[] decoderProfiles = new TestFairyDecoderProfile[] {
+      new TestFairyDecoderProfile(C.TRACK_TYPE_DEFAULT),
+      new TestFairyDecoderProfile(C.TRACK_TYPE_AUDIO),
+      new TestFairyDecoderProfile(C.TRACK_TYPE_VIDEO),
+      new TestFairyDecoderProfile(C.TRACK_TYPE_TEXT),
+      new TestFairyDecoderProfile(C.TRACK_TYPE_METADATA),
+      new TestFairyDecoderProfile(C.TRACK_TYPE_CAMERA_MOTION)
+  };
+  private final TestFairyHistogram loadDurations = new TestFairyHistogram("segment load");
+  private final TestFairyHistogram bandwidthLoadTimes = new TestFairyHistogram("bandwidth sample load");
+  private final TestFairyHistogram decoderInitDurations = new TestFairyHistogram("decoder init");
+  private final TestFairyHistogram audioUnderrunGaps = new TestFairyHistogram("audio underrun feed gap");
 
   public TestFairyExoPlayerAnalyticsListener(ExoPlayer player) {
+    this(player, TestFairyEventSampler.createDefault());
+  }
+
+  public TestFairyExoPlayerAnalyticsListener(final ExoPlayer player,
+      TestFairyEventSampler eventSampler) {
+    if (eventSampler == null) {
+      throw new NullPointerException("TestFairyEventSampler cannot be null.");
+    }
+
     this.player = player;
+    this.eventSampler = eventSampler;
+    this.playerSnapshot = new TestFairyPlayerSnapshot() {
+      @Override
+      protected long readDuration() {
+        return player.getDuration();
+      }
+
+      @Override
+      protected long readCurrentPosition() {
+        return player.getCurrentPosition();
+      }
+
+      @Override
+      protected boolean readIsPlaying() {
+        return player.getPlayWhenReady() && player.getPlaybackState() == Player.STATE_READY;
+      }
+
+      @Override
+      protected long readBufferedPosition() {
+        return player.getBufferedPosition();
+      }
+    };
+    this.positionTracker = new TestFairyPositionTracker() {
+      @Override
+      protected long getDuration() {
+        return playerSnapshot.getDuration();
+      }
+
+      @Override
+      protected long getCurrentPosition() {
+        return playerSnapshot.getCurrentPosition();
+      }
+
+      @Override
+      protected void onPositionSampled(long position, long duration) {
+        watchedRanges.onPosition(position, duration, SystemClock.elapsedRealtime());
+      }
+
+      @Override
+      protected void onPositionPercentChanged(int percent) {
+        if (isNew(TestFairyEvent.Code.PLAYBACK_POSITION, percent, SystemClock.elapsedRealtime())) {
+          testFairyBridge.onPlaybackPositionUpdate(percent);
+        }
+      }
+    };
+
+    // Default bridge, can be overridden with a setter
+    this.testFairyBridge = createDefaultBridge();
   }
 
-  private void registerCurrentPositionTracker() {
-    unRegisterCurrentPositionTracker();
+  // Position updates are not sent one by one, they are summarized by WATCHED_RANGES when the
+  // session ends
+  private TestFairyMediaPlayerGlue.TestFairyBridgeV2 createDefaultBridge() {
+    return new TestFairyMediaPlayerGlue.BaseTestFairyBridgeV2() {
+      @Override
+      public void onPlaybackStateChange(boolean isPlaying) {
+        if (isPlaying) {
+          eventSampler.add(TestFairyEvent.Code.PLAYBACK_PLAYING);
+        } else {
+          eventSampler.add(TestFairyEvent.Code.PLAYBACK_PAUSED);
+        }
+      }
+
+      @Override
+      public void onBufferingUpdate(int percent) {
+        eventSampler.add(TestFairyEvent.Code.PLAYBACK_BUFFERED, percent);
+      }
+
+      @Override
+      public void onComplete() {
+        eventSampler.add(TestFairyEvent.Code.PLAYBACK_COMPLETED);
+      }
+
+      @Override
+      public void onError(int reason, Object extra) {
+        eventSampler.add(TestFairyEvent.Code.PLAYER_ERROR, reason, 0, extra);
+      }
+
+      @Override
+      public void onBufferingStateChange(boolean isBuffering) {
+        if (isBuffering) {
+          eventSampler.add(TestFairyEvent.Code.PLAYBACK_BUFFERING_OR_PAUSED);
+        }
+      }
+
+      @Override
+      public void onSeek(int percent) {
+        eventSampler.add(TestFairyEvent.Code.PLAYBACK_SEEK, percent);
+      }
+
+      @Override
+      public void onDiscontinuity(int reason) {
+        switch (reason) {
+          case Player.DISCONTINUITY_REASON_PERIOD_TRANSITION:
+            eventSampler.add(TestFairyEvent.Code.STUTTER_PERIOD_TRANSITION);
+            break;
+          case Player.DISCONTINUITY_REASON_SEEK:
+            eventSampler.add(TestFairyEvent.Code.STUTTER_SEEK);
+            break;
+          case Player.DISCONTINUITY_REASON_SEEK_ADJUSTMENT:
+            eventSampler.add(TestFairyEvent.Code.STUTTER_SEEK_ADJUSTMENT);
+            break;
+          case Player.DISCONTINUITY_REASON_AD_INSERTION:
+            eventSampler.add(TestFairyEvent.Code.STUTTER_AD_INSERTION);
+            break;
+          case Player.DISCONTINUITY_REASON_INTERNAL:
+            eventSampler.add(TestFairyEvent.Code.STUTTER_INTERNAL);
+            break;
+        }
+      }
+
+      @Override
+      public void onRepeatModeChange(int repeatMode) {
+        switch (repeatMode) {
+          case Player.REPEAT_MODE_OFF:
+            eventSampler.add(TestFairyEvent.Code.REPEAT_MODE_OFF);
+            break;
+          case Player.REPEAT_MODE_ONE:
+            eventSampler.add(TestFairyEvent.Code.REPEAT_MODE_ONE);
+            break;
+          case Player.REPEAT_MODE_ALL:
+            eventSampler.add(TestFairyEvent.Code.REPEAT_MODE_ALL);
+            break;
+        }
+      }
+
+      @Override
+      public void onShuffleModeChange(boolean isEnabled) {
+        eventSampler.add(TestFairyEvent.Code.SHUFFLE_MODE, isEnabled ? 1 : 0);
+      }
+
+      @Override
+      public void onNewMedia() {
+        eventSampler.add(TestFairyEvent.Code.NEW_VIDEO);
+      }
+
+      @Override
+      public void onVolumeChange(int percent) {
+        eventSampler.add(TestFairyEvent.Code.VOLUME, percent);
+      }
+
+      @Override
+      public void onDroppedFrames(int droppedFrames, long elapsedMs) {
+        eventSampler.add(TestFairyEvent.Code.DROPPED_FRAMES, droppedFrames, elapsedMs);
+      }
+
+      @Override
+      public void onHttpError(int responseCode) {
+        if (responseCode == NO_VALUE) {
+          eventSampler.add(TestFairyEvent.Code.HTTP_ERROR_BEFORE_RESPONSE);
+        } else {
+          eventSampler.add(TestFairyEvent.Code.HTTP_ERROR, responseCode);
+        }
+      }
 
-    currentPositionTracker = new Runnable() {
       @Override
-      public void run() {
-        long currentPosition = player.getCurrentPosition();
-        long percent = (currentPosition * 100) / player.getDuration();
+      public void onLoadError() {
+        eventSampler.add(TestFairyEvent.Code.LOAD_ERROR);
+      }
 
-        if (lastKnownPlaybackPercent != percent) {
-          lastKnownPlaybackPercent = percent;
-          TestFairy.addEvent(String.format(Locale.ENGLISH, "Playback position %d%%", percent));
+      @Override
+      public void onDrmEvent(int drmEvent) {
+        if (drmEvent == DRM_SESSION_ERROR) {
+          eventSampler.add(TestFairyEvent.Code.DRM_ERROR);
         }
+      }
 
-        handler.postDelayed(currentPositionTracker, 100);
+      @Override
+      public void onErrorRepeats(int repeats, long windowMs, String fingerprint) {
+        eventSampler.add(TestFairyEvent.Code.ERROR_REPEATS, repeats, windowMs, fingerprint);
+      }
+
+      @Override
+      public void onRetryStorm(int errors, long spanMs, String fingerprint) {
+        eventSampler.add(TestFairyEvent.Code.RETRY_STORM, errors, spanMs, fingerprint);
+      }
+
+      @Override
+      public void onBandwidthBand(long bandLowerBound, long bitrateEstimate) {
+        eventSampler.add(TestFairyEvent.Code.BANDWIDTH_BAND, bandLowerBound, bitrateEstimate);
+      }
+
+      @Override
+      public void onNetworkAtStall(long bitrateEstimate, long lastLoadBitrate) {
+        eventSampler.add(TestFairyEvent.Code.NETWORK_AT_STALL, bitrateEstimate, lastLoadBitrate);
+      }
+
+      @Override
+      public void onStall(int stallCause, long durationMs) {
+        eventSampler.add(TestFairyEvent.Code.STALL, stallCause, durationMs);
+      }
+
+      @Override
+      public void onJank(int jankSeverity, long durationMs, Object episode) {
+        eventSampler.add(TestFairyEvent.Code.JANK, jankSeverity, durationMs, episode);
+      }
+
+      @Override
+      public void onStartup(long firstFrameMs, long tracedMs, Object waterfall) {
+        eventSampler.add(TestFairyEvent.Code.STARTUP, firstFrameMs, tracedMs, waterfall);
+      }
+
+      @Override
+      public void onSummary(int summaryType, int trackType, Object summary) {
+        eventSampler.add(TestFairyEventDispatcher.getSummaryCode(summaryType), trackType, 0,
+            summary);
       }
     };
+  }
+
+  // Every captured event goes through the bridge. Bridges that only implement the original
+  // TestFairyBridge receive the playback state, position, buffering, completion and error events.
+  // A null bridge turns the events off, see TestFairyBridgeV2.
+  public TestFairyMediaPlayerGlue.TestFairyBridge getTestFairyBridge() {
+    TestFairyMediaPlayerGlue.TestFairyBridgeV2 bridge = testFairyBridge;
+    return bridge == NO_BRIDGE ? null : TestFairyMediaPlayerGlue.downgradeBridge(bridge);
+  }
+
+  public void setTestFairyBridge(TestFairyMediaPlayerGlue.TestFairyBridge bridge) {
+    testFairyBridge = bridge == null ? NO_BRIDGE : TestFairyMediaPlayerGlue.upgradeBridge(bridge);
+  }
+
+  public TestFairyEventSampler getEventSampler() {
+    return eventSampler;
+  }
+
+  public void setEventSampler(TestFairyEventSampler eventSampler) {
+    if (eventSampler == null) {
+      throw new NullPointerException("TestFairyEventSampler cannot be null.");
+    }
+
+    this.eventSampler.flush();
+    this.eventSampler = eventSampler;
+  }
+
+  // Repeated events are dropped before they reach the bridge, see
+  // TestFairyEventDeduplicator.createDefault()
+  public TestFairyEventDeduplicator getEventDeduplicator() {
+    return eventDeduplicator;
+  }
+
+  public void setEventDeduplicator(TestFairyEventDeduplicator eventDeduplicator) {
+    if (eventDeduplicator == null) {
+      throw new NullPointerException("TestFairyEventDeduplicator cannot be null.");
+    }
+
+    this.eventDeduplicator = eventDeduplicator;
+  }
+
+  private boolean isNew(TestFairyEvent.Code code, long arg0, long nowMs) {
+    return eventDeduplicator.accept(code, arg0, 0, nowMs);
+  }
+
+  // Uploads the throwable only if it is the first of its fingerprint in the aggregator's window
+  private void logThrowable(Throwable throwable, int kind, int responseCode, String host,
+      long nowMs) {
+    if (errorAggregator.onError(kind, responseCode, host, nowMs)) {
+      TestFairy.logThrowable(throwable);
+    }
+  }
+
+  // Fingerprint of a load failure, by its exception type and response code
+  private void logLoadThrowable(IOException error, String host, long nowMs) {
+    if (error instanceof HttpDataSource.InvalidResponseCodeException) {
+      logThrowable(error, TestFairyErrorAggregator.KIND_HTTP_RESPONSE,
+          ((HttpDataSource.InvalidResponseCodeException) error).responseCode, host, nowMs);
+    } else if (error instanceof HttpDataSource.HttpDataSourceException) {
+      // The underlying cause is more telling when there is one, note that it may be null
+      Throwable innerCause = error.getCause();
+
+      logThrowable(innerCause != null ? innerCause : error,
+          TestFairyErrorAggregator.KIND_HTTP_CONNECTION, TestFairyErrorAggregator.NO_RESPONSE_CODE,
+          host, nowMs);
+    } else {
+      logThrowable(error, TestFairyErrorAggregator.KIND_LOAD,
+          TestFairyErrorAggregator.NO_RESPONSE_CODE, host, nowMs);
+    }
+  }
+
+  // Ends the current playback session and sends its summary. Sessions also end when playback
+  // completes or the player is stopped. Call it on the player's application thread.
+  public void endPlaybackSession() {
+    endPlaybackSession(SystemClock.elapsedRealtime());
+  }
+
+  private void finishStartup(long nowMs) {
+    TestFairyStartupTracer.Waterfall waterfall = startupTracer.finish(nowMs);
+
+    if (waterfall != null) {
+      testFairyBridge.onStartup(waterfall.getFirstFrameMs(), waterfall.totalMs, waterfall);
+    }
+  }
+
+  // The play intent of a session is where its first startup trace starts, the same point in every
+  // integration
+  private void startStartup(long nowMs) {
+    qoeMetrics.onPlayIntent(nowMs);
+    startupTracer.start(nowMs);
+  }
+
+  // Reports the start of the previous media if it was still in progress
+  private void restartStartup(long nowMs) {
+    qoeMetrics.onPlayIntent(nowMs);
+    TestFairyStartupTracer.Waterfall waterfall = startupTracer.restart(nowMs);
+
+    if (waterfall != null) {
+      testFairyBridge.onStartup(waterfall.getFirstFrameMs(), waterfall.totalMs, waterfall);
+    }
+  }
+
+  private void endPlaybackSession(long nowMs) {
+    stallDetector.end(nowMs);
+    jankAnalyzer.end(nowMs);
+
+    // Sessions that end before the first frame still report how far startup got
+    finishStartup(nowMs);
+    startupTracer.reset();
+    eventDeduplicator.reset();
+    errorAggregator.flush(nowMs);
 
-    handler.postDelayed(currentPositionTracker, 100);
+    TestFairyQoeMetrics.Summary summary = qoeMetrics.end(nowMs);
+
+    if (summary != null) {
+      eventSampler.flush();
+      onSummary(TestFairyMediaPlayerGlue.TestFairyBridgeV2.SUMMARY_QOE, summary);
+    }
+
+    TestFairyFormatTimeline.Summary formats = formatTimeline.end(nowMs);
+    if (formats != null) {
+      onSummary(TestFairyMediaPlayerGlue.TestFairyBridgeV2.SUMMARY_FORMAT_TIMELINE, formats);
+    }
+
+    flushSegmentLoads(nowMs);
+
+    TestFairyThroughputMeter.Summary throughput = throughputMeter.end();
+    if (throughput != null) {
+      onSummary(TestFairyMediaPlayerGlue.TestFairyBridgeV2.SUMMARY_THROUGHPUT, throughput);
+    }
+
+    // Sent instead of a position event for every percent
+    TestFairyWatchedRanges.Summary watched = watchedRanges.end();
+    if (watched != null) {
+      onSummary(TestFairyMediaPlayerGlue.TestFairyBridgeV2.SUMMARY_WATCHED_RANGES, watched);
+    }
+
+    sendAndReset(loadDurations);
+    sendAndReset(bandwidthLoadTimes);
+    sendAndReset(decoderInitDurations);
+    sendAndReset(audioUnderrunGaps);
   }
 
-  private void unRegisterCurrentPositionTracker() {
-    if (currentPositionTracker != null) {
-      handler.removeCallbacks(currentPositionTracker);
-      currentPositionTracker = null;
+  private void flushSegmentLoads(long nowMs) {
+    TestFairySegmentLoadStats.Rollup rollup = segmentLoads.flush(nowMs);
+
+    if (rollup != null) {
+      onSummary(TestFairyMediaPlayerGlue.TestFairyBridgeV2.SUMMARY_SEGMENT_LOADS, rollup);
     }
   }
 
+  private void onSummary(int summaryType, Object summary) {
+    testFairyBridge.onSummary(summaryType,
+        TestFairyMediaPlayerGlue.TestFairyBridgeV2.TRACK_TYPE_UNKNOWN, summary);
+  }
+
+  private void sendAndReset(TestFairyHistogram histogram) {
+    if (histogram.getCount() > 0) {
+      onSummary(TestFairyMediaPlayerGlue.TestFairyBridgeV2.SUMMARY_LATENCY, histogram.snapshot());
+      histogram.reset();
+    }
+  }
+
+  // Bandwidth band bounds in bits per second, an event is sent whenever the smoothed estimate moves
+  // to another band. Can be called from any thread, the running session keeps its samples.
+  public void setBandwidthBands(long... boundsBitsPerSecond) {
+    pendingBandwidthBands.set(TestFairyThroughputMeter.checkBands(boundsBitsPerSecond).clone());
+  }
+
+  // Player getter reads requested by the listener, and how many of them actually called into the
+  // player
+  public long getPlayerReadCount() {
+    return playerSnapshot.getReadCount();
+  }
+
+  public long getPlayerCallCount() {
+    return playerSnapshot.getPlayerCallCount();
+  }
+
+  // Latency distributions of the current session, readable from any thread
+  public TestFairyHistogram getLoadDurationHistogram() {
+    return loadDurations;
+  }
+
+  public TestFairyHistogram getBandwidthLoadTimeHistogram() {
+    return bandwidthLoadTimes;
+  }
+
+  public TestFairyHistogram getDecoderInitDurationHistogram() {
+    return decoderInitDurations;
+  }
+
+  public TestFairyHistogram getAudioUnderrunGapHistogram() {
+    return audioUnderrunGaps;
+  }
+
   @Override
   public void onPlayerStateChanged(EventTime eventTime, boolean playWhenReady,
       int playbackState) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_PLAYER_STATE_CHANGED,
+        eventTime.realtimeMs, playWhenReady ? 1 : 0, playbackState, 0, null);
+
+    playerSnapshot.invalidate();
+
+    final boolean isPlaying = playWhenReady && playbackState == Player.STATE_READY;
+    for (TestFairyDecoderProfile profile : decoderProfiles) {
+      profile.onPlaybackStateChanged(eventTime.realtimeMs, isPlaying);
+    }
+
+    watchedRanges.onPosition(playerSnapshot.getCurrentPosition(), playerSnapshot.getDuration(),
+        eventTime.realtimeMs);
+
+    if (playWhenReady && (playbackState == Player.STATE_BUFFERING
+        || playbackState == Player.STATE_READY)) {
+      startStartup(eventTime.realtimeMs);
+    }
+
+    if (playbackState == Player.STATE_READY) {
+      startupTracer.mark(TestFairyStartupTracer.PHASE_READY, eventTime.realtimeMs);
+    }
+
     if (playWhenReady && playbackState == Player.STATE_READY) {
-      if (currentPositionTracker == null) {
-        registerCurrentPositionTracker();
+      startupTracer.mark(TestFairyStartupTracer.PHASE_PLAYBACK_STARTED, eventTime.realtimeMs);
+
+      if (!positionTracker.isRunning()) {
+        positionTracker.start();
       }
 
-      TestFairy.addEvent("Playback is playing");
+      stallDetector.onBufferingEnded(eventTime.realtimeMs, true);
+
+      if (lastKnownBufferingState) {
+        lastKnownBufferingState = false;
+        testFairyBridge.onBufferingStateChange(false);
+      }
+      if (isNew(TestFairyEvent.Code.PLAYBACK_PLAYING, 0, eventTime.realtimeMs)) {
+        testFairyBridge.onPlaybackStateChange(true);
+      }
     } else if (playWhenReady) {
-      unRegisterCurrentPositionTracker();
+      positionTracker.stop();
 
-      if (player.getDuration() != 0 && player.getDuration() <= player.getCurrentPosition()) {
-        TestFairy.addEvent("Playback has completed");
+      long duration = playerSnapshot.getDuration();
+      if (duration > 0 && duration <= playerSnapshot.getCurrentPosition()) {
+        if (isNew(TestFairyEvent.Code.PLAYBACK_COMPLETED, 0, eventTime.realtimeMs)) {
+          testFairyBridge.onComplete();
+        }
       } else {
-        TestFairy.addEvent("Playback is buffering or paused automatically");
+        if (!lastKnownBufferingState && playbackState == Player.STATE_BUFFERING) {
+          testFairyBridge.onNetworkAtStall(throughputMeter.getSmoothedThroughput(),
+              throughputMeter.getLastLoadThroughput());
+        }
+
+        lastKnownBufferingState = true;
+        if (isNew(TestFairyEvent.Code.PLAYBACK_BUFFERING_OR_PAUSED, 0, eventTime.realtimeMs)) {
+          testFairyBridge.onBufferingStateChange(true);
+        }
+      }
+
+      if (playbackState == Player.STATE_BUFFERING) {
+        stallDetector.onBufferingStarted(eventTime.realtimeMs);
       }
     } else {
-      unRegisterCurrentPositionTracker();
+      positionTracker.stop();
+
+      stallDetector.onPaused(eventTime.realtimeMs);
+      if (isNew(TestFairyEvent.Code.PLAYBACK_PAUSED, 0, eventTime.realtimeMs)) {
+        testFairyBridge.onPlaybackStateChange(false);
+      }
+    }
 
-      TestFairy.addEvent("Playback is paused");
+    if (playbackState == Player.STATE_ENDED || playbackState == Player.STATE_IDLE) {
+      endPlaybackSession(eventTime.realtimeMs);
     }
   }
 
   @Override
   public void onTimelineChanged(EventTime eventTime, int reason) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_TIMELINE_CHANGED,
+        eventTime.realtimeMs, reason, 0, 0, null);
+
+    playerSnapshot.invalidateDuration();
   }
 
   @Override
   public void onPositionDiscontinuity(EventTime eventTime, int reason) {
-    switch (reason) {
-      case SimpleExoPlayer.DISCONTINUITY_REASON_PERIOD_TRANSITION:
-        TestFairy.addEvent("Video stutters due to period transition");
-        break;
-      case SimpleExoPlayer.DISCONTINUITY_REASON_SEEK:
-        TestFairy.addEvent("Video stutters due to a seek");
-        break;
-      case SimpleExoPlayer.DISCONTINUITY_REASON_SEEK_ADJUSTMENT:
-        TestFairy.addEvent("Video stutters due to seek adjustment");
-        break;
-      case SimpleExoPlayer.DISCONTINUITY_REASON_AD_INSERTION:
-        TestFairy.addEvent("Video stutters due to an inserted ad");
-        break;
-      case SimpleExoPlayer.DISCONTINUITY_REASON_INTERNAL:
-        TestFairy.addEvent("Video stutters due to an internal problem");
-        break;
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_POSITION_DISCONTINUITY,
+        eventTime.realtimeMs, reason, 0, 0, null);
+
+    playerSnapshot.invalidate();
+    testFairyBridge.onDiscontinuity(reason);
+
+    // The next playlist item starts its own trace
+    if (reason == Player.DISCONTINUITY_REASON_PERIOD_TRANSITION) {
+      restartStartup(eventTime.realtimeMs);
     }
   }
 
   @Override
   public void onSeekStarted(EventTime eventTime) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_SEEK_STARTED,
+        eventTime.realtimeMs, eventTime.currentPlaybackPositionMs, 0, 0, null);
+
+    stallDetector.onSeek(eventTime.realtimeMs);
+
+    // Closes the run at the position the seek started from
+    watchedRanges.onPosition(eventTime.currentPlaybackPositionMs, playerSnapshot.getDuration(),
+        eventTime.realtimeMs);
+    watchedRanges.onSeek();
   }
 
   @Override
   public void onSeekProcessed(EventTime eventTime) {
-    long currentPosition = player.getCurrentPosition();
-    long percent = (currentPosition * 100) / player.getDuration();
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_SEEK_PROCESSED,
+        eventTime.realtimeMs, eventTime.currentPlaybackPositionMs, 0, 0, null);
+
+    playerSnapshot.invalidate();
+    int percent = playerSnapshot.getPositionPercent();
+    watchedRanges.onPosition(playerSnapshot.getCurrentPosition(), playerSnapshot.getDuration(),
+        eventTime.realtimeMs);
 
-    lastKnownPlaybackPercent = percent;
+    positionTracker.setLastKnownPercent(percent);
+    positionTracker.resync();
 
-    TestFairy
-        .addEvent(String.format(Locale.ENGLISH, "Playback seeks to position %d%%", percent));
+    if (percent >= 0) {
+      testFairyBridge.onSeek(percent);
+    }
   }
 
   @Override
   public void onPlaybackParametersChanged(EventTime eventTime,
       PlaybackParameters playbackParameters) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_PLAYBACK_PARAMETERS_CHANGED,
+        eventTime.realtimeMs, Float.floatToIntBits(playbackParameters.speed),
+        Float.floatToIntBits(playbackParameters.pitch), 0, null);
+
+    positionTracker.setPlaybackSpeed(playbackParameters.speed);
   }
 
   @Override
   public void onRepeatModeChanged(EventTime eventTime, int repeatMode) {
-    switch (repeatMode) {
-      case ExoPlayer.REPEAT_MODE_OFF:
-        TestFairy.addEvent("Repeat mode has been changed to OFF");
-      case ExoPlayer.REPEAT_MODE_ONE:
-        TestFairy.addEvent("Repeat mode has been changed to ONE");
-      case ExoPlayer.REPEAT_MODE_ALL:
-        TestFairy.addEvent("Repeat mode has been changed to ALL");
-        break;
-    }
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_REPEAT_MODE_CHANGED,
+        eventTime.realtimeMs, repeatMode, 0, 0, null);
+
+    testFairyBridge.onRepeatModeChange(repeatMode);
   }
 
   @Override
   public void onShuffleModeChanged(EventTime eventTime, boolean shuffleModeEnabled) {
-    if (shuffleModeEnabled) {
-      TestFairy.addEvent("Shuffle mode is enabled");
-    } else {
-      TestFairy.addEvent("Shuffle mode is disabled");
-    }
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_SHUFFLE_MODE_CHANGED,
+        eventTime.realtimeMs, shuffleModeEnabled ? 1 : 0, 0, 0, null);
+
+    testFairyBridge.onShuffleModeChange(shuffleModeEnabled);
   }
 
   @Override
   public void onLoadingChanged(EventTime eventTime, boolean isLoading) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_LOADING_CHANGED,
+        eventTime.realtimeMs, isLoading ? 1 : 0, 0, 0, null);
   }
 
   @Override
   public void onPlayerError(EventTime eventTime, ExoPlaybackException error) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_PLAYER_ERROR,
+        eventTime.realtimeMs, error.type, error.type == ExoPlaybackException.TYPE_SOURCE
+            ? getResponseCode(error.getSourceException()) : TestFairyErrorAggregator.NO_RESPONSE_CODE,
+        0, error);
+
+    qoeMetrics.onError();
+
     if (error.type == ExoPlaybackException.TYPE_SOURCE) {
       IOException cause = error.getSourceException();
 
@@ -172,24 +695,24 @@ public class TestFairyExoPlayerAnalyticsListener implements AnalyticsListener {
           // message and headers.
           HttpDataSource.InvalidResponseCodeException ex = (HttpDataSource.InvalidResponseCodeException) httpError;
 
-          TestFairy.addEvent(
-              String.format(Locale.ENGLISH, "Http error during playback - %d", ex.responseCode));
-          TestFairy.logThrowable(cause);
-        } else {
-          // Try calling httpError.getCause() to retrieve the underlying cause,
-          // although note that it may be null.
-          TestFairy.addEvent("Http error during playback before response");
-
-          Throwable innerCause = httpError.getCause();
-          if (innerCause != null) {
-            TestFairy.logThrowable(innerCause);
-          } else {
-            TestFairy.logThrowable(cause);
+          if (isNew(TestFairyEvent.Code.HTTP_ERROR, ex.responseCode, eventTime.realtimeMs)) {
+            testFairyBridge.onHttpError(ex.responseCode);
           }
+        } else if (isNew(TestFairyEvent.Code.HTTP_ERROR_BEFORE_RESPONSE, 0, eventTime.realtimeMs)) {
+          testFairyBridge.onHttpError(TestFairyMediaPlayerGlue.TestFairyBridgeV2.NO_VALUE);
+        }
+
+        // Repeats of the same failure are counted by the aggregator instead of uploaded
+        if (cause != lastLoadError) {
+          logLoadThrowable(httpError, getRequestHost(httpError.dataSpec), eventTime.realtimeMs);
         }
       } else {
-        TestFairy.addEvent(String.format(Locale.ENGLISH, "Player error - %s", error.toString()));
-        TestFairy.logThrowable(cause);
+        testFairyBridge.onError(error.type, error);
+
+        if (cause != lastLoadError) {
+          logThrowable(cause, TestFairyErrorAggregator.KIND_SOURCE,
+              TestFairyErrorAggregator.NO_RESPONSE_CODE, null, eventTime.realtimeMs);
+        }
       }
     }
   }
@@ -197,29 +720,75 @@ public class TestFairyExoPlayerAnalyticsListener implements AnalyticsListener {
   @Override
   public void onTracksChanged(EventTime eventTime, TrackGroupArray trackGroups,
       TrackSelectionArray trackSelections) {
-    lastKnownPlaybackPercent = -1;
-    TestFairy.addEvent("A new video has been loaded");
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_TRACKS_CHANGED,
+        eventTime.realtimeMs, trackGroups.length, 0, 0, null);
+
+    playerSnapshot.invalidateDuration();
+    positionTracker.setLastKnownPercent(-1);
+    testFairyBridge.onNewMedia();
+
+    // Tracks are cleared when the player stops
+    if (trackGroups.length > 0) {
+      startStartup(eventTime.realtimeMs);
+      startupTracer.mark(TestFairyStartupTracer.PHASE_TRACKS_SELECTED, eventTime.realtimeMs);
+    }
   }
 
   @Override
   public void onLoadStarted(EventTime eventTime,
       MediaSourceEventListener.LoadEventInfo loadEventInfo,
       MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_LOAD_STARTED,
+        eventTime.realtimeMs, mediaLoadData.dataType, mediaLoadData.trackType, 0, null);
+
+    // The first load after prepare is the earliest sign of a new playback. Later loads, including
+    // the preloading of the next playlist item, do not start anything.
+    if (startupTracer.isArmed()) {
+      startStartup(eventTime.realtimeMs);
+    }
   }
 
   @Override
   public void onLoadCompleted(EventTime eventTime,
       MediaSourceEventListener.LoadEventInfo loadEventInfo,
       MediaSourceEventListener.MediaLoadData mediaLoadData) {
-    TestFairy.addEvent(
-        String.format(Locale.ENGLISH, "Playback is buffering %d%%", player.getBufferedPercentage())
-    );
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_LOAD_COMPLETED,
+        eventTime.realtimeMs, mediaLoadData.dataType, loadEventInfo.bytesLoaded,
+        loadEventInfo.loadDurationMs, null);
+
+    loadDurations.record(loadEventInfo.loadDurationMs);
+
+    if (mediaLoadData.dataType == C.DATA_TYPE_MANIFEST) {
+      startupTracer.mark(TestFairyStartupTracer.PHASE_MANIFEST_LOADED, eventTime.realtimeMs);
+    } else if (mediaLoadData.dataType == C.DATA_TYPE_MEDIA) {
+      startupTracer.mark(TestFairyStartupTracer.PHASE_FIRST_SEGMENT_LOADED, eventTime.realtimeMs);
+    }
+
+    throughputMeter.onLoadCompleted(loadEventInfo.loadDurationMs, loadEventInfo.bytesLoaded);
+
+    segmentLoads.onLoadCompleted(eventTime.realtimeMs, toLoadType(mediaLoadData.dataType),
+        getHost(loadEventInfo), loadEventInfo.bytesLoaded, loadEventInfo.loadDurationMs);
+    if (segmentLoads.isFlushDue(eventTime.realtimeMs)) {
+      flushSegmentLoads(eventTime.realtimeMs);
+    }
+
+    // 0 while the duration is unknown, like ExoPlayer.getBufferedPercentage()
+    int bufferedPercent = Math.max(0, playerSnapshot.getBufferedPercent());
+    if (isNew(TestFairyEvent.Code.PLAYBACK_BUFFERED, bufferedPercent, eventTime.realtimeMs)) {
+      testFairyBridge.onBufferingUpdate(bufferedPercent);
+    }
   }
 
   @Override
   public void onLoadCanceled(EventTime eventTime,
       MediaSourceEventListener.LoadEventInfo loadEventInfo,
       MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_LOAD_CANCELED,
+        eventTime.realtimeMs, mediaLoadData.dataType, loadEventInfo.bytesLoaded,
+        loadEventInfo.loadDurationMs, null);
+
+    segmentLoads.onLoadCanceled(eventTime.realtimeMs, toLoadType(mediaLoadData.dataType),
+        getHost(loadEventInfo));
   }
 
   @Override
@@ -227,122 +796,350 @@ public class TestFairyExoPlayerAnalyticsListener implements AnalyticsListener {
       MediaSourceEventListener.LoadEventInfo loadEventInfo,
       MediaSourceEventListener.MediaLoadData mediaLoadData, IOException error,
       boolean wasCanceled) {
-    TestFairy.addEvent("Error during loading");
-    TestFairy.logThrowable(error);
+    String host = getHost(loadEventInfo);
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_LOAD_ERROR,
+        eventTime.realtimeMs, mediaLoadData.dataType, getResponseCode(error), wasCanceled ? 1 : 0,
+        host);
+
+    segmentLoads.onLoadError(eventTime.realtimeMs, toLoadType(mediaLoadData.dataType), host);
+
+    if (isNew(TestFairyEvent.Code.LOAD_ERROR, 0, eventTime.realtimeMs)) {
+      testFairyBridge.onLoadError();
+    }
+
+    lastLoadError = error;
+    logLoadThrowable(error, getRequestHost(loadEventInfo.dataSpec), eventTime.realtimeMs);
   }
 
   @Override
   public void onDownstreamFormatChanged(EventTime eventTime,
       MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DOWNSTREAM_FORMAT_CHANGED,
+        eventTime.realtimeMs, mediaLoadData.trackType,
+        mediaLoadData.trackFormat != null ? mediaLoadData.trackFormat.bitrate : Format.NO_VALUE,
+        packSize(mediaLoadData.trackFormat), null);
+
+    Format format = mediaLoadData.trackFormat;
+
+    if (format == null) {
+      return;
+    }
+
+    // Downstream formats run ahead of playback by the buffer, the timeline follows the decoder
+    if (mediaLoadData.trackType == C.TRACK_TYPE_VIDEO
+        || mediaLoadData.trackType == C.TRACK_TYPE_DEFAULT) {
+      loadedVideoBitrate = format.bitrate;
+      loadedVideoSelectionReason = mediaLoadData.trackSelectionReason;
+    }
+
+    testFairyBridge.onFormatSwitch(mediaLoadData.trackType, format.bitrate, format.width,
+        format.height, mediaLoadData.trackSelectionReason);
   }
 
   @Override
   public void onUpstreamDiscarded(EventTime eventTime,
       MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_UPSTREAM_DISCARDED,
+        eventTime.realtimeMs, mediaLoadData.dataType, mediaLoadData.mediaStartTimeMs,
+        mediaLoadData.mediaEndTimeMs, null);
+
+    long mediaDurationMs = mediaLoadData.mediaStartTimeMs != C.TIME_UNSET
+        && mediaLoadData.mediaEndTimeMs != C.TIME_UNSET
+        ? mediaLoadData.mediaEndTimeMs - mediaLoadData.mediaStartTimeMs : 0;
+
+    segmentLoads.onUpstreamDiscarded(eventTime.realtimeMs, toLoadType(mediaLoadData.dataType),
+        mediaDurationMs);
+  }
+
+  private static int toLoadType(int dataType) {
+    switch (dataType) {
+      case C.DATA_TYPE_MEDIA:
+      case C.DATA_TYPE_MEDIA_PROGRESSIVE_LIVE:
+        return TestFairySegmentLoadStats.TYPE_MEDIA;
+      case C.DATA_TYPE_MEDIA_INITIALIZATION:
+        return TestFairySegmentLoadStats.TYPE_INITIALIZATION;
+      case C.DATA_TYPE_MANIFEST:
+        return TestFairySegmentLoadStats.TYPE_MANIFEST;
+      case C.DATA_TYPE_DRM:
+        return TestFairySegmentLoadStats.TYPE_DRM;
+      default:
+        return TestFairySegmentLoadStats.TYPE_OTHER;
+    }
+  }
+
+  // Trace arguments
+  private static int getResponseCode(@Nullable IOException error) {
+    return error instanceof HttpDataSource.InvalidResponseCodeException
+        ? ((HttpDataSource.InvalidResponseCodeException) error).responseCode
+        : TestFairyErrorAggregator.NO_RESPONSE_CODE;
+  }
+
+  private static long packSize(@Nullable Format format) {
+    return format != null ? ((long) format.width << 32) | (format.height & 0xFFFFFFFFL) : 0;
+  }
+
+  // Host the data was loaded from, after redirects when known
+  private static String getHost(MediaSourceEventListener.LoadEventInfo loadEventInfo) {
+    Uri uri = loadEventInfo.uri;
+    if (uri == null && loadEventInfo.dataSpec != null) {
+      uri = loadEventInfo.dataSpec.uri;
+    }
+
+    return uri != null ? uri.getHost() : null;
+  }
+
+  // Host a request was sent to, before redirects. Player errors only know the request, so load
+  // and player errors are both fingerprinted by it. A fatal load failure is counted by onLoadError
+  // only, onPlayerError skips the exception it was last given.
+  private static String getRequestHost(@Nullable DataSpec dataSpec) {
+    return dataSpec != null && dataSpec.uri != null ? dataSpec.uri.getHost() : null;
   }
 
   @Override
   public void onMediaPeriodCreated(EventTime eventTime) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_MEDIA_PERIOD_CREATED,
+        eventTime.realtimeMs, 0, 0, 0, null);
+
+    startupTracer.mark(TestFairyStartupTracer.PHASE_MEDIA_PERIOD_CREATED, eventTime.realtimeMs);
   }
 
   @Override
   public void onMediaPeriodReleased(EventTime eventTime) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_MEDIA_PERIOD_RELEASED,
+        eventTime.realtimeMs, 0, 0, 0, null);
   }
 
   @Override
   public void onReadingStarted(EventTime eventTime) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_READING_STARTED,
+        eventTime.realtimeMs, 0, 0, 0, null);
+
+    startupTracer.mark(TestFairyStartupTracer.PHASE_READING_STARTED, eventTime.realtimeMs);
   }
 
   @Override
   public void onBandwidthEstimate(EventTime eventTime, int totalLoadTimeMs,
       long totalBytesLoaded, long bitrateEstimate) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_BANDWIDTH_ESTIMATE,
+        eventTime.realtimeMs, totalLoadTimeMs, totalBytesLoaded, bitrateEstimate, null);
+
+    bandwidthLoadTimes.record(totalLoadTimeMs);
+    qoeMetrics.onBandwidthEstimate(bitrateEstimate);
+
+    long[] bands = pendingBandwidthBands.getAndSet(null);
+    if (bands != null) {
+      throughputMeter.setBands(bands);
+    }
+
+    int band = throughputMeter.onBandwidthSample(totalLoadTimeMs, totalBytesLoaded, bitrateEstimate);
+    if (band != TestFairyThroughputMeter.NO_BAND) {
+      testFairyBridge.onBandwidthBand(throughputMeter.getBandLowerBound(band),
+          throughputMeter.getSmoothedThroughput());
+    }
+    testFairyBridge.onBandwidthEstimate(totalLoadTimeMs, totalBytesLoaded, bitrateEstimate);
   }
 
   @Override
   public void onSurfaceSizeChanged(EventTime eventTime, int width, int height) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_SURFACE_SIZE_CHANGED,
+        eventTime.realtimeMs, width, height, 0, null);
   }
 
   @Override
   public void onMetadata(EventTime eventTime, Metadata metadata) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_METADATA, eventTime.realtimeMs,
+        0, 0, 0, null);
   }
 
   @Override
   public void onDecoderEnabled(EventTime eventTime, int trackType,
       DecoderCounters decoderCounters) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DECODER_ENABLED,
+        eventTime.realtimeMs, trackType, 0, 0, null);
+
+    TestFairyDecoderProfile profile = getDecoderProfile(trackType);
+    if (profile != null) {
+      profile.onEnabled(decoderCounters, eventTime.realtimeMs);
+    }
   }
 
   @Override
   public void onDecoderInitialized(EventTime eventTime, int trackType, String decoderName,
       long initializationDurationMs) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DECODER_INITIALIZED,
+        eventTime.realtimeMs, trackType, initializationDurationMs, 0, decoderName);
+
+    decoderInitDurations.record(initializationDurationMs);
+    startupTracer.mark(TestFairyStartupTracer.PHASE_DECODER_INITIALIZED, eventTime.realtimeMs);
+    testFairyBridge.onDecoderInitialized(trackType, initializationDurationMs);
+
+    TestFairyDecoderProfile profile = getDecoderProfile(trackType);
+    if (profile != null) {
+      profile.onInitialized(decoderName, initializationDurationMs);
+    }
   }
 
   @Override
   public void onDecoderInputFormatChanged(EventTime eventTime, int trackType, Format format) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DECODER_INPUT_FORMAT_CHANGED,
+        eventTime.realtimeMs, trackType, format != null ? format.bitrate : Format.NO_VALUE,
+        packSize(format), null);
+
+    TestFairyDecoderProfile profile = getDecoderProfile(trackType);
+    if (profile != null) {
+      profile.onInputFormat(format);
+    }
+
+    if (trackType == C.TRACK_TYPE_VIDEO && format != null) {
+      int selectionReason = format.bitrate == loadedVideoBitrate
+          ? loadedVideoSelectionReason : TestFairyFormatTimeline.NO_VALUE;
+      formatTimeline.onFormat(eventTime.realtimeMs, format.bitrate, format.width, format.height,
+          selectionReason);
+      if (format.bitrate != Format.NO_VALUE) {
+        qoeMetrics.onBitrateChanged(eventTime.realtimeMs, format.bitrate);
+      }
+      jankAnalyzer.onFormat(format.width, format.height, format.bitrate, format.frameRate);
+    }
   }
 
   @Override
   public void onDecoderDisabled(EventTime eventTime, int trackType,
       DecoderCounters decoderCounters) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DECODER_DISABLED,
+        eventTime.realtimeMs, trackType, 0, 0, null);
+
+    TestFairyDecoderProfile profile = getDecoderProfile(trackType);
+    if (profile == null) {
+      return;
+    }
+
+    TestFairyDecoderProfile.Summary summary = profile.onDisabled(decoderCounters,
+        eventTime.realtimeMs);
+    if (summary != null) {
+      testFairyBridge.onSummary(TestFairyMediaPlayerGlue.TestFairyBridgeV2.SUMMARY_DECODER_PROFILE,
+          trackType, summary);
+    }
+  }
+
+  private TestFairyDecoderProfile getDecoderProfile(int trackType) {
+    return trackType >= 0 && trackType < decoderProfiles.length ? decoderProfiles[trackType] : null;
   }
 
   @Override
   public void onAudioSessionId(EventTime eventTime, int audioSessionId) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_AUDIO_SESSION_ID,
+        eventTime.realtimeMs, audioSessionId, 0, 0, null);
   }
 
   @Override
   public void onAudioAttributesChanged(EventTime eventTime, AudioAttributes audioAttributes) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_AUDIO_ATTRIBUTES_CHANGED,
+        eventTime.realtimeMs, 0, 0, 0, null);
   }
 
   @Override
   public void onVolumeChanged(EventTime eventTime, float volume) {
-    TestFairy.addEvent(String.format(Locale.ENGLISH, "Volume level has changed to %s",
-        Float.valueOf(volume * 100f).intValue()));
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_VOLUME_CHANGED,
+        eventTime.realtimeMs, Float.floatToIntBits(volume), 0, 0, null);
+
+    testFairyBridge.onVolumeChange((int) (volume * 100f));
   }
 
   @Override
   public void onAudioUnderrun(EventTime eventTime, int bufferSize, long bufferSizeMs,
       long elapsedSinceLastFeedMs) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_AUDIO_UNDERRUN,
+        eventTime.realtimeMs, bufferSize, bufferSizeMs, elapsedSinceLastFeedMs, null);
+
+    audioUnderrunGaps.record(elapsedSinceLastFeedMs);
+    jankAnalyzer.onAudioUnderrun(eventTime.realtimeMs);
+    testFairyBridge.onAudioUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
   }
 
   @Override
   public void onDroppedVideoFrames(EventTime eventTime, int droppedFrames, long elapsedMs) {
-    TestFairy.addEvent(
-        String.format(Locale.ENGLISH, "Video has dropped %d frames in %dms", droppedFrames,
-            elapsedMs));
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DROPPED_VIDEO_FRAMES,
+        eventTime.realtimeMs, droppedFrames, elapsedMs, 0, null);
+
+    qoeMetrics.onDroppedFrames(droppedFrames);
+    jankAnalyzer.onDroppedFrames(eventTime.realtimeMs, droppedFrames, elapsedMs);
+    testFairyBridge.onDroppedFrames(droppedFrames, elapsedMs);
   }
 
   @Override
   public void onVideoSizeChanged(EventTime eventTime, int width, int height,
       int unappliedRotationDegrees, float pixelWidthHeightRatio) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_VIDEO_SIZE_CHANGED,
+        eventTime.realtimeMs, width, height, unappliedRotationDegrees, null);
+
+    formatTimeline.onFormat(eventTime.realtimeMs, TestFairyFormatTimeline.NO_VALUE, width, height,
+        TestFairyFormatTimeline.NO_VALUE);
+    jankAnalyzer.onFormat(width, height, Format.NO_VALUE, Format.NO_VALUE);
   }
 
   @Override
   public void onRenderedFirstFrame(EventTime eventTime, @Nullable Surface surface) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_RENDERED_FIRST_FRAME,
+        eventTime.realtimeMs, 0, 0, 0, null);
+
+    qoeMetrics.onFirstFrame(eventTime.realtimeMs);
+    decoderProfiles[C.TRACK_TYPE_VIDEO].onFirstFrame(eventTime.realtimeMs);
+
+    startupTracer.mark(TestFairyStartupTracer.PHASE_FIRST_FRAME, eventTime.realtimeMs);
+    finishStartup(eventTime.realtimeMs);
   }
 
   @Override
   public void onDrmSessionAcquired(EventTime eventTime) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DRM_SESSION_ACQUIRED,
+        eventTime.realtimeMs, 0, 0, 0, null);
+
+    testFairyBridge.onDrmEvent(TestFairyMediaPlayerGlue.TestFairyBridgeV2.DRM_SESSION_ACQUIRED);
   }
 
   @Override
   public void onDrmKeysLoaded(EventTime eventTime) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DRM_KEYS_LOADED,
+        eventTime.realtimeMs, 0, 0, 0, null);
+
+    startupTracer.mark(TestFairyStartupTracer.PHASE_DRM_KEYS_LOADED, eventTime.realtimeMs);
+    testFairyBridge.onDrmEvent(TestFairyMediaPlayerGlue.TestFairyBridgeV2.DRM_KEYS_LOADED);
   }
 
   @Override
   public void onDrmSessionManagerError(EventTime eventTime, Exception error) {
-    TestFairy.addEvent("Drm session manager error occured");
-    TestFairy.logThrowable(error);
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DRM_SESSION_MANAGER_ERROR,
+        eventTime.realtimeMs, 0, 0, 0, error);
+
+    if (isNew(TestFairyEvent.Code.DRM_ERROR, 0, eventTime.realtimeMs)) {
+      testFairyBridge.onDrmEvent(TestFairyMediaPlayerGlue.TestFairyBridgeV2.DRM_SESSION_ERROR);
+    }
+
+    logThrowable(error, TestFairyErrorAggregator.KIND_DRM,
+        TestFairyErrorAggregator.NO_RESPONSE_CODE, null, eventTime.realtimeMs);
   }
 
   @Override
   public void onDrmKeysRestored(EventTime eventTime) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DRM_KEYS_RESTORED,
+        eventTime.realtimeMs, 0, 0, 0, null);
+
+    testFairyBridge.onDrmEvent(TestFairyMediaPlayerGlue.TestFairyBridgeV2.DRM_KEYS_RESTORED);
   }
 
   @Override
   public void onDrmKeysRemoved(EventTime eventTime) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DRM_KEYS_REMOVED,
+        eventTime.realtimeMs, 0, 0, 0, null);
+
+    testFairyBridge.onDrmEvent(TestFairyMediaPlayerGlue.TestFairyBridgeV2.DRM_KEYS_REMOVED);
   }
 
   @Override
   public void onDrmSessionReleased(EventTime eventTime) {
+    TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DRM_SESSION_RELEASED,
+        eventTime.realtimeMs, 0, 0, 0, null);
+
+    testFairyBridge.onDrmEvent(TestFairyMediaPlayerGlue.TestFairyBridgeV2.DRM_SESSION_RELEASED);
   }
 }
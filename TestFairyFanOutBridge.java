@@ -0,0 +1,296 @@
+package com.testfairy.tvtest.testfairy;
+
+import android.util.Log;
+import java.util.concurrent.locks.LockSupport;
+
+// A TestFairyBridge that forwards every event to several sinks, for example the default TestFairy bridge, an in-house
+// telemetry bridge and a logcat bridge. Each sink gets its own bounded queue and worker thread, so a slow or blocked
+// sink only ever drops its own events and never delays playback callbacks or the other sinks. Idle workers park until
+// the next event arrives instead of polling.
+//
+// Every TestFairyBridgeV2 event is forwarded. Sinks that only implement TestFairyBridge receive the events it has
+// methods for.
+//
+// Example usage:
+//
+//   TestFairyFanOutBridge fanOut = new TestFairyFanOutBridge(wrapper.getTestFairyBridge(), myTelemetryBridge);
+//   wrapper.setTestFairyBridge(fanOut);
+//
+public final class TestFairyFanOutBridge implements TestFairyMediaPlayerGlue.TestFairyBridgeV2 {
+
+    private static final String TAG = "TestFairyFanOutBridge";
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int BATCH_SIZE = 32;
+
+    // State
+    private final Sink[] sinks;
+    private volatile boolean closed = false;
+    //////////////////////////////////////////////////////////////
+
+    public TestFairyFanOutBridge(TestFairyMediaPlayerGlue.TestFairyBridge... bridges) {
+        this(DEFAULT_CAPACITY, TestFairyEventOverflowPolicy.DROP_OLDEST, bridges);
+    }
+
+    // Capacity is per sink and must be a power of two
+    public TestFairyFanOutBridge(int capacity, TestFairyEventOverflowPolicy overflowPolicy,
+                                 TestFairyMediaPlayerGlue.TestFairyBridge... bridges) {
+        if (bridges.length == 0) {
+            throw new IllegalArgumentException("At least one sink is required.");
+        }
+
+        this.sinks = new Sink[bridges.length];
+
+        for (int i = 0; i < bridges.length; i++) {
+            if (bridges[i] == null) {
+                throw new NullPointerException("Sink bridges cannot be null.");
+            }
+
+            sinks[i] = new Sink(bridges[i], new TestFairyEventQueue(capacity, overflowPolicy));
+            sinks[i].worker.start();
+        }
+    }
+
+    // Bridge
+    @Override
+    public void onBufferingUpdate(int percent) {
+        offer(TestFairyEvent.Code.VIDEO_BUFFERING, percent, 0, 0, null);
+    }
+
+    @Override
+    public void onPlaybackStateChange(boolean isPlaying) {
+        offer(TestFairyEvent.Code.VIDEO_STATE, isPlaying ? 1 : 0, 0, 0, null);
+    }
+
+    @Override
+    public void onPlaybackPositionUpdate(int percent) {
+        offer(TestFairyEvent.Code.VIDEO_POSITION, percent, 0, 0, null);
+    }
+
+    @Override
+    public void onComplete() {
+        offer(TestFairyEvent.Code.VIDEO_COMPLETE, 0, 0, 0, null);
+    }
+
+    @Override
+    public void onError(int reason, Object extra) {
+        offer(TestFairyEvent.Code.VIDEO_ERROR, reason, 0, 0, extra);
+    }
+
+    // TestFairyBridgeV2
+    @Override
+    public void onBufferingStateChange(boolean isBuffering) {
+        offer(TestFairyEvent.Code.BUFFERING_STATE, isBuffering ? 1 : 0, 0, 0, null);
+    }
+
+    @Override
+    public void onSeek(int percent) {
+        offer(TestFairyEvent.Code.PLAYBACK_SEEK, percent, 0, 0, null);
+    }
+
+    @Override
+    public void onDiscontinuity(int reason) {
+        offer(TestFairyEvent.Code.DISCONTINUITY, reason, 0, 0, null);
+    }
+
+    @Override
+    public void onRepeatModeChange(int repeatMode) {
+        offer(TestFairyEvent.Code.REPEAT_MODE, repeatMode, 0, 0, null);
+    }
+
+    @Override
+    public void onShuffleModeChange(boolean isEnabled) {
+        offer(TestFairyEvent.Code.SHUFFLE_MODE, isEnabled ? 1 : 0, 0, 0, null);
+    }
+
+    @Override
+    public void onNewMedia() {
+        offer(TestFairyEvent.Code.NEW_VIDEO, 0, 0, 0, null);
+    }
+
+    @Override
+    public void onVolumeChange(int percent) {
+        offer(TestFairyEvent.Code.VOLUME, percent, 0, 0, null);
+    }
+
+    @Override
+    public void onFormatSwitch(int trackType, int bitrate, int width, int height, int selectionReason) {
+        offer(TestFairyEvent.Code.FORMAT_SWITCH, TestFairyEvent.pack(trackType, selectionReason), bitrate,
+                TestFairyEvent.pack(width, height), null);
+    }
+
+    @Override
+    public void onBandwidthEstimate(int totalLoadTimeMs, long totalBytesLoaded, long bitrateEstimate) {
+        offer(TestFairyEvent.Code.BANDWIDTH_ESTIMATE, totalLoadTimeMs, totalBytesLoaded, bitrateEstimate, null);
+    }
+
+    @Override
+    public void onDroppedFrames(int droppedFrames, long elapsedMs) {
+        offer(TestFairyEvent.Code.DROPPED_FRAMES, droppedFrames, elapsedMs, 0, null);
+    }
+
+    @Override
+    public void onDecoderInitialized(int trackType, long initializationDurationMs) {
+        offer(TestFairyEvent.Code.DECODER_INITIALIZED, trackType, initializationDurationMs, 0, null);
+    }
+
+    @Override
+    public void onAudioUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        offer(TestFairyEvent.Code.AUDIO_UNDERRUN, bufferSize, bufferSizeMs, elapsedSinceLastFeedMs, null);
+    }
+
+    @Override
+    public void onHttpError(int responseCode) {
+        offer(TestFairyEvent.Code.HTTP_ERROR, responseCode, 0, 0, null);
+    }
+
+    @Override
+    public void onLoadError() {
+        offer(TestFairyEvent.Code.LOAD_ERROR, 0, 0, 0, null);
+    }
+
+    @Override
+    public void onDrmEvent(int drmEvent) {
+        offer(TestFairyEvent.Code.DRM_EVENT, drmEvent, 0, 0, null);
+    }
+
+    @Override
+    public void onErrorRepeats(int repeats, long windowMs, String fingerprint) {
+        offer(TestFairyEvent.Code.ERROR_REPEATS, repeats, windowMs, 0, fingerprint);
+    }
+
+    @Override
+    public void onRetryStorm(int errors, long spanMs, String fingerprint) {
+        offer(TestFairyEvent.Code.RETRY_STORM, errors, spanMs, 0, fingerprint);
+    }
+
+    @Override
+    public void onBandwidthBand(long bandLowerBound, long bitrateEstimate) {
+        offer(TestFairyEvent.Code.BANDWIDTH_BAND, bandLowerBound, bitrateEstimate, 0, null);
+    }
+
+    @Override
+    public void onNetworkAtStall(long bitrateEstimate, long lastLoadBitrate) {
+        offer(TestFairyEvent.Code.NETWORK_AT_STALL, bitrateEstimate, lastLoadBitrate, 0, null);
+    }
+
+    @Override
+    public void onStall(int stallCause, long durationMs) {
+        offer(TestFairyEvent.Code.STALL, stallCause, durationMs, 0, null);
+    }
+
+    @Override
+    public void onJank(int jankSeverity, long durationMs, Object episode) {
+        offer(TestFairyEvent.Code.JANK, jankSeverity, durationMs, 0, episode);
+    }
+
+    @Override
+    public void onStartup(long firstFrameMs, long tracedMs, Object waterfall) {
+        offer(TestFairyEvent.Code.STARTUP, firstFrameMs, tracedMs, 0, waterfall);
+    }
+
+    @Override
+    public void onSummary(int summaryType, int trackType, Object summary) {
+        offer(TestFairyEventDispatcher.getSummaryCode(summaryType), trackType, 0, 0, summary);
+    }
+
+    private void offer(TestFairyEvent.Code code, long arg0, long arg1, long arg2, Object extra) {
+        for (Sink sink : sinks) {
+            // Serialized per sink so that its queue always sees a single producer
+            synchronized (sink) {
+                sink.queue.offer(code, arg0, arg1, arg2, extra);
+            }
+
+            if (sink.parked) {
+                LockSupport.unpark(sink.worker);
+            }
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Metrics, sinks are indexed in constructor order
+    public int getSinkCount() {
+        return sinks.length;
+    }
+
+    // Events queued but not yet delivered to the sink
+    public int getLag(int sink) {
+        return sinks[sink].queue.size();
+    }
+
+    public long getDroppedCount(int sink) {
+        return sinks[sink].queue.getDroppedCount();
+    }
+
+    public long getDeliveredCount(int sink) {
+        return sinks[sink].queue.getConsumedCount();
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Stops all workers, events still queued are discarded
+    public void close() {
+        closed = true;
+
+        for (Sink sink : sinks) {
+            LockSupport.unpark(sink.worker);
+        }
+    }
+
+    // Sinks
+    private final class Sink implements Runnable {
+        private final TestFairyMediaPlayerGlue.TestFairyBridge bridge;
+        private final TestFairyEventQueue queue;
+        private final Thread worker;
+        private final TestFairyEvent[] batch = new TestFairyEvent[BATCH_SIZE];
+        private volatile boolean parked = false;
+
+        private Sink(TestFairyMediaPlayerGlue.TestFairyBridge bridge, TestFairyEventQueue queue) {
+            this.bridge = bridge;
+            this.queue = queue;
+            this.worker = new Thread(this, TAG + "-" + bridge.getClass().getSimpleName());
+            this.worker.setDaemon(true);
+
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batch[i] = new TestFairyEvent();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                final int count = queue.drain(batch);
+
+                if (count == 0) {
+                    // Events held back by TestFairyEventOverflowPolicy.COALESCE would otherwise wait for the next offer
+                    synchronized (this) {
+                        if (queue.hasCoalesced()) {
+                            queue.publishCoalesced();
+                            continue;
+                        }
+                    }
+
+                    // Announce before checking again, an offer after the check sees the flag and unparks us
+                    parked = true;
+                    final boolean idle;
+                    synchronized (this) {
+                        idle = queue.size() == 0 && !queue.hasCoalesced();
+                    }
+                    if (idle && !closed) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                    continue;
+                }
+
+                for (int i = 0; i < count; i++) {
+                    try {
+                        TestFairyEventDispatcher.dispatch(batch[i], bridge);
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Sink " + bridge + " failed to handle an event", e);
+                    }
+                    batch[i].clear();
+                }
+            }
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,218 @@
+package com.testfairy.tvtest.testfairy;
+
+import android.util.Base64;
+import java.util.zip.Deflater;
+
+// Per-session timeline of video format switches, kept small enough to send as a single event when the session ends.
+//
+// Every switch is appended to a byte array as: varint time delta in ms, then zigzag varint deltas of bitrate, width
+// and height, then a zigzag varint selection reason. The first entry is relative to NO_VALUE. Consecutive switches
+// rarely change more than one field, so most entries take 4 to 7 bytes and an evening of adaptive streaming fits in a
+// few KB. Bitrate is treated as a step function between entries to get the time weighted average and the number of
+// up and down switches.
+//
+// Formats are reported from the playback thread only. Values of NO_VALUE keep what the previous entry had, which
+// lets callbacks that only know the resolution or only the bitrate update the same timeline.
+//
+// All timestamps are on the SystemClock.elapsedRealtime() clock.
+final class TestFairyFormatTimeline {
+
+    static final int NO_VALUE = -1;
+
+    private static final int MAX_BYTES = 64 * 1024;
+
+    // Encoded entries
+    private byte[] buffer = new byte[256];
+    private int length = 0;
+    private int entryCount = 0;
+    private int truncatedCount = 0;
+    //////////////////////////////////////////////////////////////
+
+    // Last entry, also the base for the next delta
+    private long startMs = -1;
+    private long lastTimeMs;
+    private int bitrate = NO_VALUE;
+    private int width = NO_VALUE;
+    private int height = NO_VALUE;
+    private int reason = NO_VALUE;
+    //////////////////////////////////////////////////////////////
+
+    // Aggregates
+    private long bitrateWeightedSum;
+    private long bitrateWeightMs;
+    private int upshiftCount;
+    private int downshiftCount;
+    //////////////////////////////////////////////////////////////
+
+    void onFormat(long nowMs, int newBitrate, int newWidth, int newHeight, int newReason) {
+        final int nextBitrate = newBitrate > 0 ? newBitrate : bitrate;
+        final int nextWidth = newWidth > 0 ? newWidth : width;
+        final int nextHeight = newHeight > 0 ? newHeight : height;
+        final int nextReason = newReason >= 0 ? newReason : reason;
+
+        if (nextBitrate <= 0 && nextWidth <= 0 && nextHeight <= 0) {
+            return;
+        }
+
+        if (startMs >= 0 && nextBitrate == bitrate && nextWidth == width && nextHeight == height) {
+            return;
+        }
+
+        if (startMs < 0) {
+            startMs = nowMs;
+            lastTimeMs = nowMs;
+        } else if (bitrate > 0 && nextBitrate > 0 && nextBitrate != bitrate) {
+            if (nextBitrate > bitrate) {
+                upshiftCount++;
+            } else {
+                downshiftCount++;
+            }
+        }
+
+        // Taken before accumulate() moves lastTimeMs up to now
+        final long deltaMs = Math.max(0, nowMs - lastTimeMs);
+        accumulate(nowMs);
+        append(deltaMs, nextBitrate, nextWidth, nextHeight, nextReason);
+
+        lastTimeMs = nowMs;
+        bitrate = nextBitrate;
+        width = nextWidth;
+        height = nextHeight;
+        reason = nextReason;
+    }
+
+    // Ends the session, returns null if no format was reported
+    Summary end(long nowMs) {
+        if (startMs < 0) {
+            return null;
+        }
+
+        accumulate(nowMs);
+
+        final Summary summary = new Summary();
+        summary.durationMs = Math.max(0, nowMs - startMs);
+        summary.entryCount = entryCount;
+        summary.truncatedCount = truncatedCount;
+        summary.averageBitrate = bitrateWeightMs > 0 ? bitrateWeightedSum / bitrateWeightMs : bitrate;
+        summary.upshiftCount = upshiftCount;
+        summary.downshiftCount = downshiftCount;
+        summary.encoded = new byte[length];
+        System.arraycopy(buffer, 0, summary.encoded, 0, length);
+
+        reset();
+        return summary;
+    }
+
+    boolean isActive() {
+        return startMs >= 0;
+    }
+
+    private void reset() {
+        length = 0;
+        entryCount = 0;
+        truncatedCount = 0;
+        startMs = -1;
+        bitrate = NO_VALUE;
+        width = NO_VALUE;
+        height = NO_VALUE;
+        reason = NO_VALUE;
+        bitrateWeightedSum = 0;
+        bitrateWeightMs = 0;
+        upshiftCount = 0;
+        downshiftCount = 0;
+    }
+
+    private void accumulate(long nowMs) {
+        final long elapsed = nowMs - lastTimeMs;
+
+        if (bitrate > 0 && elapsed > 0) {
+            bitrateWeightedSum += bitrate * elapsed;
+            bitrateWeightMs += elapsed;
+        }
+
+        lastTimeMs = Math.max(lastTimeMs, nowMs);
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Encoding
+    private void append(long deltaMs, int nextBitrate, int nextWidth, int nextHeight, int nextReason) {
+        // Worst case size of one entry
+        final int needed = 10 + 4 * 5;
+        if (length + needed > MAX_BYTES) {
+            truncatedCount++;
+            return;
+        }
+
+        if (length + needed > buffer.length) {
+            final byte[] grown = new byte[Math.min(MAX_BYTES, Math.max(length + needed, buffer.length * 2))];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+
+        writeVarLong(deltaMs);
+        writeVarLong(TestFairyTraceRecorder.zigZag((long) nextBitrate - bitrate));
+        writeVarLong(TestFairyTraceRecorder.zigZag((long) nextWidth - width));
+        writeVarLong(TestFairyTraceRecorder.zigZag((long) nextHeight - height));
+        writeVarLong(TestFairyTraceRecorder.zigZag(nextReason));
+        entryCount++;
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Summary, the encoded timeline is deflated and Base64 encoded only when formatted
+    static final class Summary {
+        long durationMs;
+        int entryCount;
+        int truncatedCount;
+        long averageBitrate;
+        int upshiftCount;
+        int downshiftCount;
+        byte[] encoded;
+
+        byte[] compress() {
+            final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            final byte[] out = new byte[encoded.length + 64];
+            int size = 0;
+
+            try {
+                deflater.setInput(encoded);
+                deflater.finish();
+
+                while (!deflater.finished() && size < out.length) {
+                    size += deflater.deflate(out, size, out.length - size);
+                }
+            } finally {
+                deflater.end();
+            }
+
+            final byte[] result = new byte[size];
+            System.arraycopy(out, 0, result, 0, size);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder out = new StringBuilder(128 + encoded.length);
+
+            out.append("switches ").append(entryCount > 0 ? entryCount - 1 : 0);
+            out.append(" (").append(upshiftCount).append(" up, ").append(downshiftCount).append(" down)");
+            out.append(", avg bitrate ").append(averageBitrate < 0 ? -1 : averageBitrate / 1000).append("kbps");
+            out.append(", over ").append(durationMs / 1000).append('s');
+
+            if (truncatedCount > 0) {
+                out.append(", truncated ").append(truncatedCount);
+            }
+
+            out.append(", timeline ").append(Base64.encodeToString(compress(), Base64.NO_WRAP));
+            return out.toString();
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
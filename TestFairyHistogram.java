@@ -0,0 +1,161 @@
+package com.testfairy.tvtest.testfairy;
+
+// Fixed-memory, log-linear histogram for latency-type values such as durations in milliseconds.
+//
+// Values below 16 get their own bucket, larger values are grouped by power of two with 16 linear sub-buckets each,
+// which keeps the relative error under 7% up to MAX_VALUE in about 5 KB. Recording is a couple of shifts and an
+// array increment with no boxing, so it is cheap enough for the playback thread.
+//
+// Recording must happen on a single thread. Readers on other threads may run at any time without locking and see a
+// slightly stale view.
+public final class TestFairyHistogram {
+
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    // State
+    private final String name;
+    private final long[] counts;
+    private volatile long totalCount = 0;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue = 0;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyHistogram(String name) {
+        this.name = name;
+        this.counts = new long[BUCKET_COUNT];
+    }
+
+    private TestFairyHistogram(TestFairyHistogram other) {
+        this.name = other.name;
+        this.counts = other.counts.clone();
+        this.totalCount = other.totalCount;
+        this.minValue = other.minValue;
+        this.maxValue = other.maxValue;
+    }
+
+    // Recording, single writer
+    void record(long value) {
+        if (value < 0) {
+            return;
+        }
+
+        final long clamped = Math.min(value, MAX_VALUE);
+        counts[bucketIndex(clamped)]++;
+
+        if (clamped < minValue) {
+            minValue = clamped;
+        }
+
+        if (clamped > maxValue) {
+            maxValue = clamped;
+        }
+
+        // Volatile write publishes the bucket update to readers
+        totalCount = totalCount + 1;
+    }
+
+    void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+        totalCount = 0;
+    }
+
+    // Adds the counts of another histogram into this one
+    void merge(TestFairyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+        totalCount = totalCount + other.totalCount;
+    }
+
+    // Independent copy, safe to hand to another thread
+    TestFairyHistogram snapshot() {
+        return new TestFairyHistogram(this);
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Queries
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return totalCount == 0 ? 0 : maxValue;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : minValue;
+    }
+
+    // Approximate value at the given percentile (0 - 100), or 0 if nothing has been recorded
+    public long getPercentile(double percentile) {
+        final long total = totalCount;
+
+        if (total == 0) {
+            return 0;
+        }
+
+        if (percentile >= 100) {
+            return maxValue;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+
+            if (seen >= rank) {
+                return Math.min(maxValue, Math.max(minValue, bucketMidpoint(i)));
+            }
+        }
+
+        return maxValue;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": n=" + getCount() + ", p50=" + getPercentile(50) + "ms, p95=" + getPercentile(95)
+                + "ms, p99=" + getPercentile(99) + "ms, max=" + getMax() + "ms";
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Bucket math
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketMidpoint(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        final long lowest = (1L << exponent) + subBucket * width;
+        return lowest + width / 2;
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,348 @@
+package com.testfairy.tvtest.testfairy;
+
+// Finds jank episodes in dropped video frame and audio underrun reports.
+//
+// Dropped frames are counted per second over the last DROP_WINDOW_SECONDS and underruns per UNDERRUN_SLOT_MS over the
+// last minute, both in fixed circular buffers, so memory does not grow with the session. ExoPlayer reports dropped
+// frames in batches together with the time they accumulated over, and a batch is spread evenly over that time: fifty
+// frames over five minutes are a trickle, fifty frames over one second are a burst.
+//
+// Drop rates are compared with the frame rate of the current format, and an episode starts once either rate crosses
+// the mild threshold, dated back to the first report still in the window that crossed it. It ends when both rates
+// fall back below it, and is reported once through onEpisode with its peak severity, totals and the format that was
+// playing when it started. While an episode is open the analyzer checks
+// itself on TestFairyTickScheduler, so episodes also end when the reports stop.
+//
+// Reports come from the analytics listener on the player's application looper, with SystemClock.elapsedRealtime()
+// timestamps that checks read from the scheduler's timer. The analyzer is not synchronized: it binds to the
+// TestFairyTickScheduler of the looper it is first used on, so checks run on that same thread, and any use from
+// another thread fails fast.
+abstract class TestFairyJankAnalyzer extends TestFairyTickScheduler.Task {
+
+    // Same values as TestFairyBridgeConstants.JANK_*
+    static final int SEVERITY_NONE = 0;
+    static final int SEVERITY_MILD = 1;
+    static final int SEVERITY_MODERATE = 2;
+    static final int SEVERITY_SEVERE = 3;
+
+    static final int DROP_WINDOW_SECONDS = 5;
+    static final long UNDERRUN_SLOT_MS = 5000;
+    static final int UNDERRUN_SLOTS = 12;
+
+    // Used until a format with a frame rate is known
+    static final float DEFAULT_FRAME_RATE = 30f;
+
+    // Thresholds per severity, dropped frames are in percent of the frame rate
+    private static final int[] DROP_PERCENT_THRESHOLDS = {0, 5, 15, 30};
+    private static final int[] UNDERRUNS_PER_MINUTE_THRESHOLDS = {0, 2, 5, 10};
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    // Rolling windows
+    private final RollingCounter droppedFrames = new RollingCounter(DROP_WINDOW_SECONDS, 1000);
+    private final RollingCounter underruns = new RollingCounter(UNDERRUN_SLOTS, UNDERRUN_SLOT_MS);
+    //////////////////////////////////////////////////////////////
+
+    // Current format
+    private int width = -1;
+    private int height = -1;
+    private int bitrate = -1;
+    private float frameRate = -1;
+    //////////////////////////////////////////////////////////////
+
+    // Open episode, null if there is none
+    private Episode episode;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyJankAnalyzer() {
+    }
+
+    TestFairyJankAnalyzer(TestFairyTickScheduler scheduler) {
+        super(scheduler);
+    }
+
+    // Episode callback, called on the thread that reports frames and underruns
+    protected abstract void onEpisode(Episode episode);
+
+    // Reports
+    final void onDroppedFrames(long nowMs, int count, long elapsedMs) {
+        if (count <= 0) {
+            return;
+        }
+
+        droppedFrames.addSpread(nowMs, elapsedMs, count);
+
+        // New episodes start with the window totals, reports that close an episode are not part of it
+        final Episode open = episode;
+        check(nowMs, nowMs - Math.min(Math.max(0, elapsedMs), DROP_WINDOW_SECONDS * 1000L));
+        if (open != null && open == episode) {
+            open.droppedFrames += count;
+        }
+    }
+
+    final void onAudioUnderrun(long nowMs) {
+        underruns.addSpread(nowMs, 0, 1);
+
+        final Episode open = episode;
+        check(nowMs, nowMs);
+        if (open != null && open == episode) {
+            open.underruns++;
+        }
+    }
+
+    // Any argument can be -1 when unknown, known values are kept
+    final void onFormat(int width, int height, int bitrate, float frameRate) {
+        boolean changed = false;
+
+        if (width > 0 && height > 0 && (width != this.width || height != this.height)) {
+            this.width = width;
+            this.height = height;
+            changed = true;
+        }
+
+        if (bitrate > 0 && bitrate != this.bitrate) {
+            this.bitrate = bitrate;
+            changed = true;
+        }
+
+        if (frameRate > 0 && frameRate != this.frameRate) {
+            this.frameRate = frameRate;
+            changed = true;
+        }
+
+        if (changed && episode != null) {
+            episode.formatChanges++;
+        }
+    }
+
+    // Closes an open episode and forgets the session
+    final void end(long nowMs) {
+        getScheduler().cancel(this);
+
+        if (episode != null) {
+            closeEpisode();
+        }
+
+        droppedFrames.clear();
+        underruns.clear();
+    }
+
+    @Override
+    protected final void onTick() {
+        check(getScheduler().elapsedRealtime(), -1);
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Episodes
+    // jankSinceMs is when the reported jank began, or -1 when checking without a new report
+    private void check(long nowMs, long jankSinceMs) {
+        final long dropped = droppedFrames.sum(nowMs);
+        final int dropsPerSecond = (int) (dropped / DROP_WINDOW_SECONDS);
+        final int underrunsPerMinute = (int) underruns.sum(nowMs);
+
+        final float knownFrameRate = frameRate > 0 ? frameRate : DEFAULT_FRAME_RATE;
+        final int dropPercent = (int) (dropped * 100 / (knownFrameRate * DROP_WINDOW_SECONDS));
+
+        final int dropSeverity = severityOf(dropPercent, DROP_PERCENT_THRESHOLDS);
+        final int underrunSeverity = severityOf(underrunsPerMinute, UNDERRUNS_PER_MINUTE_THRESHOLDS);
+        final int severity = Math.max(dropSeverity, underrunSeverity);
+
+        if (severity == SEVERITY_NONE || (episode == null && jankSinceMs < 0)) {
+            if (episode != null) {
+                getScheduler().cancel(this);
+                closeEpisode();
+            }
+
+            return;
+        }
+
+        if (episode == null) {
+            // The jank began with the oldest report in the window that crossed a threshold, not with this one
+            long startMs = jankSinceMs;
+            if (dropSeverity > SEVERITY_NONE) {
+                startMs = Math.min(startMs, droppedFrames.firstTime(nowMs));
+            }
+            if (underrunSeverity > SEVERITY_NONE) {
+                startMs = Math.min(startMs, underruns.firstTime(nowMs));
+            }
+
+            episode = new Episode();
+            episode.startMs = startMs;
+            episode.width = width;
+            episode.height = height;
+            episode.bitrate = bitrate;
+            episode.frameRate = frameRate;
+            episode.droppedFrames = dropped;
+            episode.underruns = (int) underruns.sum(nowMs);
+        }
+
+        episode.severity = Math.max(episode.severity, severity);
+        episode.peakDropsPerSecond = Math.max(episode.peakDropsPerSecond, dropsPerSecond);
+        episode.peakUnderrunsPerMinute = Math.max(episode.peakUnderrunsPerMinute, underrunsPerMinute);
+        if (jankSinceMs >= 0) {
+            episode.lastJankMs = nowMs;
+        }
+
+        getScheduler().schedule(this, CHECK_INTERVAL_MS);
+    }
+
+    private void closeEpisode() {
+        final Episode closed = episode;
+        episode = null;
+
+        closed.durationMs = Math.max(0, closed.lastJankMs - closed.startMs);
+        onEpisode(closed);
+    }
+
+    private static int severityOf(int value, int[] thresholds) {
+        for (int severity = SEVERITY_SEVERE; severity > SEVERITY_NONE; severity--) {
+            if (value >= thresholds[severity]) {
+                return severity;
+            }
+        }
+
+        return SEVERITY_NONE;
+    }
+
+    static String severityName(int severity) {
+        switch (severity) {
+            case SEVERITY_MILD:
+                return "mild";
+            case SEVERITY_MODERATE:
+                return "moderate";
+            case SEVERITY_SEVERE:
+                return "severe";
+            default:
+                return "none";
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Counts per fixed time slot in a circular buffer, slots are reused once they fall out of the window. Every slot
+    // also keeps the earliest time it counted something at.
+    private static final class RollingCounter {
+        private final long slotMs;
+        private final long[] counts;
+        private final long[] slotIndices;
+        private final long[] firstTimes;
+
+        RollingCounter(int slots, long slotMs) {
+            this.slotMs = slotMs;
+            this.counts = new long[slots];
+            this.slotIndices = new long[slots];
+            this.firstTimes = new long[slots];
+            clear();
+        }
+
+        // Spreads count evenly over the slots of the spanMs ending at nowMs, the share of slots that already left the
+        // window is dropped
+        void addSpread(long nowMs, long spanMs, long count) {
+            final long spanStartMs = Math.max(0, nowMs - spanMs);
+            final long last = nowMs / slotMs;
+            final long spanFirst = spanStartMs / slotMs;
+            final long slots = last - spanFirst + 1;
+
+            for (long index = Math.max(spanFirst, last - counts.length + 1); index <= last; index++) {
+                final long offset = index - spanFirst;
+                final long share = count * (offset + 1) / slots - count * offset / slots;
+                add(index, share, Math.max(spanStartMs, index * slotMs));
+            }
+        }
+
+        private void add(long index, long count, long timeMs) {
+            if (count <= 0) {
+                return;
+            }
+
+            final int slot = (int) (index % counts.length);
+
+            if (slotIndices[slot] != index) {
+                slotIndices[slot] = index;
+                counts[slot] = 0;
+                firstTimes[slot] = timeMs;
+            }
+
+            counts[slot] += count;
+            firstTimes[slot] = Math.min(firstTimes[slot], timeMs);
+        }
+
+        long sum(long nowMs) {
+            final long last = nowMs / slotMs;
+            long sum = 0;
+
+            for (int slot = 0; slot < counts.length; slot++) {
+                if (last - slotIndices[slot] < counts.length) {
+                    sum += counts[slot];
+                }
+            }
+
+            return sum;
+        }
+
+        // Earliest time counted in the window, Long.MAX_VALUE if the window is empty
+        long firstTime(long nowMs) {
+            final long last = nowMs / slotMs;
+            long first = Long.MAX_VALUE;
+
+            for (int slot = 0; slot < counts.length; slot++) {
+                if (last - slotIndices[slot] < counts.length && counts[slot] > 0) {
+                    first = Math.min(first, firstTimes[slot]);
+                }
+            }
+
+            return first;
+        }
+
+        void clear() {
+            for (int slot = 0; slot < counts.length; slot++) {
+                counts[slot] = 0;
+                slotIndices[slot] = Long.MIN_VALUE / 2;
+            }
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Formatted lazily when the event is sent
+    static final class Episode {
+        long startMs;
+        long lastJankMs;
+        long durationMs;
+        int severity;
+        long droppedFrames;
+        int underruns;
+        int peakDropsPerSecond;
+        int peakUnderrunsPerMinute;
+        int formatChanges;
+        int width;
+        int height;
+        int bitrate;
+        float frameRate;
+
+        @Override
+        public String toString() {
+            final StringBuilder out = new StringBuilder(160);
+
+            out.append(severityName(severity));
+            out.append(" for ").append(durationMs).append("ms");
+            out.append(", dropped frames ").append(droppedFrames);
+            out.append(" (peak ").append(peakDropsPerSecond).append("/s)");
+            out.append(", underruns ").append(underruns);
+            out.append(" (peak ").append(peakUnderrunsPerMinute).append("/min)");
+            out.append(", format ");
+            if (width > 0) {
+                out.append(width).append('x').append(height);
+            } else {
+                out.append("unknown");
+            }
+            if (frameRate > 0) {
+                out.append('@').append(Math.round(frameRate));
+            }
+            if (bitrate > 0) {
+                out.append(' ').append(bitrate / 1000).append("kbps");
+            }
+            out.append(", format changes ").append(formatChanges);
+            return out.toString();
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
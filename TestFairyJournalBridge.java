@@ -0,0 +1,334 @@
+package com.testfairy.tvtest.testfairy;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.testfairy.TestFairy;
+import java.io.File;
+import java.io.IOException;
+
+// A TestFairyBridge that keeps events captured before TestFairy.begin(), or while there is no session, in an on-disk
+// journal instead of losing them. A background thread maps journal segments ahead of time and checks for a session
+// every SESSION_POLL_MS. Once a session exists, it replays the journal into the delegate bridge and later events are
+// passed straight through.
+//
+// Every TestFairyBridgeV2 event is journaled. Objects such as summaries are kept as text of at most 24 bytes, so
+// bridges that need them in full should sit in front of the journal bridge rather than behind it.
+//
+// Example usage:
+//
+//   TestFairyMediaPlayerGlue.PlayerWrapper wrapper = TestFairyMediaPlayerGlue.createByWrapping(myMediaPlayer);
+//   wrapper.setTestFairyBridge(new TestFairyJournalBridge(new File(context.getFilesDir(), "testfairy-journal"),
+//           wrapper.getTestFairyBridge()));
+//
+public final class TestFairyJournalBridge implements TestFairyMediaPlayerGlue.TestFairyBridgeV2 {
+
+    private static final String TAG = "TestFairyJournalBridge";
+    private static final int DEFAULT_MAX_SEGMENTS = 8;
+    private static final int REPLAY_CHUNK_SIZE = 256;
+    private static final long REPLAY_CHUNK_PAUSE_MS = 50;
+    private static final long SESSION_POLL_MS = 1000;
+
+    // State
+    private final TestFairyEventJournal journal;
+    private final TestFairyMediaPlayerGlue.TestFairyBridgeV2 delegate;
+    private final Object lock = new Object();
+    private volatile boolean passThrough = false;
+    //////////////////////////////////////////////////////////////
+
+    public TestFairyJournalBridge(File directory, TestFairyMediaPlayerGlue.TestFairyBridge delegate) throws IOException {
+        this(directory, DEFAULT_MAX_SEGMENTS, delegate);
+    }
+
+    // The journal holds at most maxSegments * 256 KB plus one spare segment, oldest events are dropped first
+    public TestFairyJournalBridge(File directory, int maxSegments, TestFairyMediaPlayerGlue.TestFairyBridge delegate) throws IOException {
+        if (delegate == null) {
+            throw new NullPointerException("Delegate bridge cannot be null.");
+        }
+
+        this.journal = new TestFairyEventJournal(directory, maxSegments);
+        this.delegate = TestFairyMediaPlayerGlue.upgradeBridge(delegate);
+
+        startBackgroundThread();
+    }
+
+    // Bridge
+    @Override
+    public void onBufferingUpdate(int percent) {
+        if (!journal(TestFairyEvent.Code.VIDEO_BUFFERING, percent, 0, 0, null)) {
+            delegate.onBufferingUpdate(percent);
+        }
+    }
+
+    @Override
+    public void onPlaybackStateChange(boolean isPlaying) {
+        if (!journal(TestFairyEvent.Code.VIDEO_STATE, isPlaying ? 1 : 0, 0, 0, null)) {
+            delegate.onPlaybackStateChange(isPlaying);
+        }
+    }
+
+    @Override
+    public void onPlaybackPositionUpdate(int percent) {
+        if (!journal(TestFairyEvent.Code.VIDEO_POSITION, percent, 0, 0, null)) {
+            delegate.onPlaybackPositionUpdate(percent);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (!journal(TestFairyEvent.Code.VIDEO_COMPLETE, 0, 0, 0, null)) {
+            delegate.onComplete();
+        }
+    }
+
+    @Override
+    public void onError(int reason, Object extra) {
+        if (!journal(TestFairyEvent.Code.VIDEO_ERROR, reason, 0, 0, extra)) {
+            delegate.onError(reason, extra);
+        }
+    }
+
+    // TestFairyBridgeV2
+    @Override
+    public void onBufferingStateChange(boolean isBuffering) {
+        if (!journal(TestFairyEvent.Code.BUFFERING_STATE, isBuffering ? 1 : 0, 0, 0, null)) {
+            delegate.onBufferingStateChange(isBuffering);
+        }
+    }
+
+    @Override
+    public void onSeek(int percent) {
+        if (!journal(TestFairyEvent.Code.PLAYBACK_SEEK, percent, 0, 0, null)) {
+            delegate.onSeek(percent);
+        }
+    }
+
+    @Override
+    public void onDiscontinuity(int reason) {
+        if (!journal(TestFairyEvent.Code.DISCONTINUITY, reason, 0, 0, null)) {
+            delegate.onDiscontinuity(reason);
+        }
+    }
+
+    @Override
+    public void onRepeatModeChange(int repeatMode) {
+        if (!journal(TestFairyEvent.Code.REPEAT_MODE, repeatMode, 0, 0, null)) {
+            delegate.onRepeatModeChange(repeatMode);
+        }
+    }
+
+    @Override
+    public void onShuffleModeChange(boolean isEnabled) {
+        if (!journal(TestFairyEvent.Code.SHUFFLE_MODE, isEnabled ? 1 : 0, 0, 0, null)) {
+            delegate.onShuffleModeChange(isEnabled);
+        }
+    }
+
+    @Override
+    public void onNewMedia() {
+        if (!journal(TestFairyEvent.Code.NEW_VIDEO, 0, 0, 0, null)) {
+            delegate.onNewMedia();
+        }
+    }
+
+    @Override
+    public void onVolumeChange(int percent) {
+        if (!journal(TestFairyEvent.Code.VOLUME, percent, 0, 0, null)) {
+            delegate.onVolumeChange(percent);
+        }
+    }
+
+    @Override
+    public void onFormatSwitch(int trackType, int bitrate, int width, int height, int selectionReason) {
+        if (!journal(TestFairyEvent.Code.FORMAT_SWITCH, TestFairyEvent.pack(trackType, selectionReason),
+                bitrate, TestFairyEvent.pack(width, height), null)) {
+            delegate.onFormatSwitch(trackType, bitrate, width, height, selectionReason);
+        }
+    }
+
+    @Override
+    public void onBandwidthEstimate(int totalLoadTimeMs, long totalBytesLoaded, long bitrateEstimate) {
+        if (!journal(TestFairyEvent.Code.BANDWIDTH_ESTIMATE, totalLoadTimeMs, totalBytesLoaded,
+                bitrateEstimate, null)) {
+            delegate.onBandwidthEstimate(totalLoadTimeMs, totalBytesLoaded, bitrateEstimate);
+        }
+    }
+
+    @Override
+    public void onDroppedFrames(int droppedFrames, long elapsedMs) {
+        if (!journal(TestFairyEvent.Code.DROPPED_FRAMES, droppedFrames, elapsedMs, 0, null)) {
+            delegate.onDroppedFrames(droppedFrames, elapsedMs);
+        }
+    }
+
+    @Override
+    public void onDecoderInitialized(int trackType, long initializationDurationMs) {
+        if (!journal(TestFairyEvent.Code.DECODER_INITIALIZED, trackType, initializationDurationMs, 0, null)) {
+            delegate.onDecoderInitialized(trackType, initializationDurationMs);
+        }
+    }
+
+    @Override
+    public void onAudioUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        if (!journal(TestFairyEvent.Code.AUDIO_UNDERRUN, bufferSize, bufferSizeMs, elapsedSinceLastFeedMs, null)) {
+            delegate.onAudioUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
+        }
+    }
+
+    @Override
+    public void onHttpError(int responseCode) {
+        if (!journal(TestFairyEvent.Code.HTTP_ERROR, responseCode, 0, 0, null)) {
+            delegate.onHttpError(responseCode);
+        }
+    }
+
+    @Override
+    public void onLoadError() {
+        if (!journal(TestFairyEvent.Code.LOAD_ERROR, 0, 0, 0, null)) {
+            delegate.onLoadError();
+        }
+    }
+
+    @Override
+    public void onDrmEvent(int drmEvent) {
+        if (!journal(TestFairyEvent.Code.DRM_EVENT, drmEvent, 0, 0, null)) {
+            delegate.onDrmEvent(drmEvent);
+        }
+    }
+
+    @Override
+    public void onErrorRepeats(int repeats, long windowMs, String fingerprint) {
+        if (!journal(TestFairyEvent.Code.ERROR_REPEATS, repeats, windowMs, 0, fingerprint)) {
+            delegate.onErrorRepeats(repeats, windowMs, fingerprint);
+        }
+    }
+
+    @Override
+    public void onRetryStorm(int errors, long spanMs, String fingerprint) {
+        if (!journal(TestFairyEvent.Code.RETRY_STORM, errors, spanMs, 0, fingerprint)) {
+            delegate.onRetryStorm(errors, spanMs, fingerprint);
+        }
+    }
+
+    @Override
+    public void onBandwidthBand(long bandLowerBound, long bitrateEstimate) {
+        if (!journal(TestFairyEvent.Code.BANDWIDTH_BAND, bandLowerBound, bitrateEstimate, 0, null)) {
+            delegate.onBandwidthBand(bandLowerBound, bitrateEstimate);
+        }
+    }
+
+    @Override
+    public void onNetworkAtStall(long bitrateEstimate, long lastLoadBitrate) {
+        if (!journal(TestFairyEvent.Code.NETWORK_AT_STALL, bitrateEstimate, lastLoadBitrate, 0, null)) {
+            delegate.onNetworkAtStall(bitrateEstimate, lastLoadBitrate);
+        }
+    }
+
+    @Override
+    public void onStall(int stallCause, long durationMs) {
+        if (!journal(TestFairyEvent.Code.STALL, stallCause, durationMs, 0, null)) {
+            delegate.onStall(stallCause, durationMs);
+        }
+    }
+
+    @Override
+    public void onJank(int jankSeverity, long durationMs, Object episode) {
+        if (!journal(TestFairyEvent.Code.JANK, jankSeverity, durationMs, 0, episode)) {
+            delegate.onJank(jankSeverity, durationMs, episode);
+        }
+    }
+
+    @Override
+    public void onStartup(long firstFrameMs, long tracedMs, Object waterfall) {
+        if (!journal(TestFairyEvent.Code.STARTUP, firstFrameMs, tracedMs, 0, waterfall)) {
+            delegate.onStartup(firstFrameMs, tracedMs, waterfall);
+        }
+    }
+
+    @Override
+    public void onSummary(int summaryType, int trackType, Object summary) {
+        if (!journal(TestFairyEventDispatcher.getSummaryCode(summaryType), trackType, 0, 0, summary)) {
+            delegate.onSummary(summaryType, trackType, summary);
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Returns false if the event should go straight to the delegate
+    private boolean journal(TestFairyEvent.Code code, long arg0, long arg1, long arg2, Object extra) {
+        if (passThrough) {
+            return false;
+        }
+
+        synchronized (lock) {
+            if (passThrough) {
+                return false;
+            }
+
+            journal.append(SystemClock.elapsedRealtime(), code, arg0, arg1, arg2, extra);
+
+            // Wakes the background thread early when the spare segment was used up
+            if (journal.needsMaintenance()) {
+                lock.notifyAll();
+            }
+        }
+
+        return true;
+    }
+
+    private void startBackgroundThread() {
+        final Thread thread = new Thread(new Runnable() {
+            private final TestFairyEventJournal.Consumer consumer = new TestFairyEventJournal.Consumer() {
+                @Override
+                public void accept(TestFairyEvent event, long timeMs) {
+                    TestFairyEventDispatcher.dispatch(event, delegate);
+                }
+            };
+
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        journal.maintain();
+
+                        if (TestFairy.getSessionUrl() == null) {
+                            synchronized (lock) {
+                                lock.wait(SESSION_POLL_MS);
+                            }
+                            continue;
+                        }
+
+                        // Events keep landing in the journal while we replay, so drain until it stays empty
+                        synchronized (lock) {
+                            if (journal.isEmpty()) {
+                                passThrough = true;
+                                return;
+                            }
+                        }
+
+                        journal.drain(consumer, REPLAY_CHUNK_SIZE);
+
+                        // Gives the event log time to flush so that the replay does not overflow it
+                        Thread.sleep(REPLAY_CHUNK_PAUSE_MS);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot use event journal, sending events directly", e);
+                    passThrough = true;
+                } catch (InterruptedException e) {
+                    passThrough = true;
+                }
+            }
+        }, TAG);
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+    //////////////////////////////////////////////////////////////
+
+    public long getDroppedSegmentCount() {
+        return journal.getDroppedSegmentCount();
+    }
+
+    // Events dropped because the journal's next segment was not ready yet
+    public long getDroppedEventCount() {
+        return journal.getDroppedRecordCount();
+    }
+}
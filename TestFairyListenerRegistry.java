@@ -0,0 +1,91 @@
+package com.testfairy.tvtest.testfairy;
+
+import java.util.Arrays;
+
+// Copy-on-write set of listeners for one callback.
+//
+// Registration happens rarely and from any thread, so it copies the array under a lock. Dispatch happens on every
+// player callback, so it reads the volatile array once and iterates over it without locking or allocating. A
+// dispatch that races with a registration sees either the old or the new array, never a partially updated one.
+//
+//   for (MediaPlayer.OnCompletionListener listener : registry.get()) {
+//       listener.onCompletion(mp);
+//   }
+//
+final class TestFairyListenerRegistry<T> {
+
+    private final T[] empty;
+    private volatile T[] listeners;
+
+    // The empty array fixes the element type of snapshots
+    TestFairyListenerRegistry(T[] empty) {
+        if (empty.length != 0) {
+            throw new IllegalArgumentException("Expected an empty array.");
+        }
+
+        this.empty = empty;
+        this.listeners = empty;
+    }
+
+    // Current listeners, must not be modified
+    T[] get() {
+        return listeners;
+    }
+
+    // Replaces every listener, null clears the registry
+    synchronized void set(T listener) {
+        if (listener == null) {
+            listeners = empty;
+        } else {
+            final T[] single = Arrays.copyOf(empty, 1);
+            single[0] = listener;
+            listeners = single;
+        }
+    }
+
+    // Returns false if the listener was already registered
+    synchronized boolean add(T listener) {
+        if (listener == null) {
+            throw new NullPointerException("Listener cannot be null.");
+        }
+
+        final T[] current = listeners;
+        if (indexOf(current, listener) >= 0) {
+            return false;
+        }
+
+        final T[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = listener;
+        listeners = grown;
+        return true;
+    }
+
+    synchronized boolean remove(T listener) {
+        final T[] current = listeners;
+        final int index = indexOf(current, listener);
+        if (index < 0) {
+            return false;
+        }
+
+        if (current.length == 1) {
+            listeners = empty;
+            return true;
+        }
+
+        final T[] shrunk = Arrays.copyOf(empty, current.length - 1);
+        System.arraycopy(current, 0, shrunk, 0, index);
+        System.arraycopy(current, index + 1, shrunk, index, current.length - index - 1);
+        listeners = shrunk;
+        return true;
+    }
+
+    private static int indexOf(Object[] array, Object value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
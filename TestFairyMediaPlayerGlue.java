@@ -2,12 +2,14 @@ package com.testfairy.tvtest.testfairy;
 
 import android.media.MediaPlayer;
 import android.media.MediaTimestamp;
-import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v17.leanback.media.MediaPlayerAdapter;
 import android.support.v17.leanback.media.PlayerAdapter;
 import android.util.Log;
 import com.testfairy.TestFairy;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // A glue class that can gather events from most commonly used media player libraries in Android. Gathered events are
 // by default sent to TestFairy if a session is found.
@@ -30,43 +32,80 @@ import com.testfairy.TestFairy;
 // Returned wrappers are able to assign additional listeners for all captured events without breaking the internal
 // functionality and the TestFairy bridge.
 //
+// Wrap a MediaPlayer on the looper thread that created it, usually the main thread. Its callbacks arrive on that
+// looper, and the position tracker runs there too so that it never races with them.
+//
 public final class TestFairyMediaPlayerGlue {
 
     // State
     private final CreatedFrom createdFrom;
-    private TestFairyBridge testFairyBridge;
+    private final TestFairyPlayerSnapshot playerSnapshot;
+    private volatile TestFairyBridgeV2 testFairyBridge;
+    private volatile TestFairyEventSampler eventSampler = TestFairyEventSampler.createDefault();
+    private volatile TestFairyEventDeduplicator eventDeduplicator = TestFairyEventDeduplicator.createDefault();
+    private final TestFairyQoeMetrics qoeMetrics = new TestFairyQoeMetrics();
+    private final TestFairyWatchedRanges watchedRanges = new TestFairyWatchedRanges();
+    private final TestFairyStartupTracer startupTracer = new TestFairyStartupTracer();
+    private final TestFairyStallDetector stallDetector = new TestFairyStallDetector() {
+        @Override
+        protected void onStall(int cause, long durationMs) {
+            final TestFairyBridgeV2 bridge = testFairyBridge;
+            if (bridge != null) {
+                bridge.onStall(cause, durationMs);
+            }
+        }
+
+        @Override
+        protected void onStateChanged(int state, int cause, long nowMs) {
+            qoeMetrics.onPlaybackState(state, cause, nowMs);
+        }
+    };
     //////////////////////////////////////////////////////////////
 
     // Private constructor for internal use, includes bridging logic
-    private TestFairyMediaPlayerGlue(CreatedFrom createdFrom) {
+    private TestFairyMediaPlayerGlue(CreatedFrom createdFrom, TestFairyPlayerSnapshot playerSnapshot) {
         // Source of creation (player or adapter or some other creation mechanism)
         this.createdFrom = createdFrom;
 
-        // Default bridge, can be overridden with a setter
-        this.testFairyBridge = new TestFairyBridge() {
+        // Cached player getters shared by the wrapper callbacks and the position tracker
+        this.playerSnapshot = playerSnapshot;
+
+        // Default bridge, can be overridden with a setter. Position updates are not sent one by one, they are
+        // summarized by WATCHED_RANGES when the session ends.
+        this.testFairyBridge = new BaseTestFairyBridgeV2() {
             @Override
             public void onBufferingUpdate(int percent) {
-                TestFairy.addEvent(String.format("Video Buffering: %d%%", percent));
+                eventSampler.add(TestFairyEvent.Code.VIDEO_BUFFERING, percent);
             }
 
             @Override
             public void onPlaybackStateChange(boolean isPlaying) {
-                TestFairy.addEvent(String.format("Video is %s", isPlaying ? "playing" : "paused"));
+                eventSampler.add(TestFairyEvent.Code.VIDEO_STATE, isPlaying ? 1 : 0);
+            }
+
+            @Override
+            public void onComplete() {
+                eventSampler.add(TestFairyEvent.Code.VIDEO_COMPLETE);
             }
 
             @Override
-            public void onPlaybackPositionUpdate(int percent) {
-                TestFairy.addEvent(String.format("Video Position: %d%%", percent));
+            public void onError(int reason, Object extra) {
+                eventSampler.add(TestFairyEvent.Code.VIDEO_ERROR, reason, 0, extra);
             }
 
             @Override
-            public void onComplete() {
-                TestFairy.addEvent("Video complete");
+            public void onStall(int stallCause, long durationMs) {
+                eventSampler.add(TestFairyEvent.Code.STALL, stallCause, durationMs);
             }
 
             @Override
-            public void onError(int reason, Object extra) {
-                TestFairy.addEvent(String.format("Video error: Reason: %d - Extra: %s", reason, extra != null ? extra.toString() : "null"));
+            public void onStartup(long firstFrameMs, long tracedMs, Object waterfall) {
+                eventSampler.add(TestFairyEvent.Code.STARTUP, firstFrameMs, tracedMs, waterfall);
+            }
+
+            @Override
+            public void onSummary(int summaryType, int trackType, Object summary) {
+                eventSampler.add(TestFairyEventDispatcher.getSummaryCode(summaryType), trackType, 0, summary);
             }
         };
     }
@@ -79,42 +118,54 @@ public final class TestFairyMediaPlayerGlue {
         }
 
         final TestFairyMediaPlayerGlue listener = new TestFairyMediaPlayerGlue(new CreatedFrom.FromMediaPlayer() {
-            private final Handler handler = new Handler();
-            private Runnable currentPositionTracker;
+            private TestFairyPositionTracker currentPositionTracker;
 
             @Override
-            protected void registerCurrentPositionTracker(final Runnable runnable) {
+            protected void registerCurrentPositionTracker(final TestFairyPositionTracker tracker) {
                 unRegisterCurrentPositionTracker();
 
-                currentPositionTracker = new Runnable() {
-                    @Override
-                    public void run() {
-                        runnable.run();
-                        handler.postDelayed(currentPositionTracker, 100);
-                    }
-                };
-
-                handler.postDelayed(currentPositionTracker, 100);
+                currentPositionTracker = tracker;
+                currentPositionTracker.start();
             }
 
             @Override
             protected void unRegisterCurrentPositionTracker() {
                 if (currentPositionTracker != null) {
-                    handler.removeCallbacks(currentPositionTracker);
+                    currentPositionTracker.stop();
                     currentPositionTracker = null;
                 }
             }
 
+            @Override
+            protected TestFairyPositionTracker getCurrentPositionTracker() {
+                return currentPositionTracker;
+            }
+
             @Override
             protected MediaPlayer getMediaPlayer() {
                 return mediaPlayer;
             }
+        }, new TestFairyPlayerSnapshot() {
+            @Override
+            protected long readDuration() {
+                return mediaPlayer.getDuration();
+            }
+
+            @Override
+            protected long readCurrentPosition() {
+                return mediaPlayer.getCurrentPosition();
+            }
+
+            @Override
+            protected boolean readIsPlaying() {
+                return mediaPlayer.isPlaying();
+            }
         });
 
         final CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) listener.createdFrom;
-        castedCreationMethod.registerCurrentPositionTracker(CreatedFrom.FromMediaPlayer.createPositionTracker(mediaPlayer, listener));
+        castedCreationMethod.registerCurrentPositionTracker(CreatedFrom.FromMediaPlayer.createPositionTracker(listener));
 
-        final PlayerWrapperImpl playerWrapper = listener.createPlayerWrapper();
+        final PlayerWrapperImpl playerWrapper = listener.createPlayerWrapper(castedCreationMethod);
 
         mediaPlayer.setOnBufferingUpdateListener(playerWrapper);
         mediaPlayer.setOnCompletionListener(playerWrapper);
@@ -122,6 +173,10 @@ public final class TestFairyMediaPlayerGlue {
         mediaPlayer.setOnMediaTimeDiscontinuityListener(playerWrapper);
         mediaPlayer.setOnSeekCompleteListener(playerWrapper);
 
+        // Info and prepared listeners the app may have set on the player are only replaced on request, see
+        // PlayerWrapper.traceStartupAndStalls(). Until then the wrapper sees neither the play intent nor buffering.
+        listener.qoeMetrics.setStartupAndStallsTraced(false);
+
         if (TestFairy.getSessionUrl() == null) {
             Log.w("TestFairyMediaPlayerGlue", "Media player events will not be sent unless you call TestFairy.begin()");
         }
@@ -136,7 +191,7 @@ public final class TestFairyMediaPlayerGlue {
 
         final TestFairyMediaPlayerGlue listener = new TestFairyMediaPlayerGlue(new CreatedFrom.FromMediaPlayerAdapter() {
             @Override
-            protected void registerCurrentPositionTracker(Runnable _) {
+            protected void registerCurrentPositionTracker(TestFairyPositionTracker ignored) {
                 unRegisterCurrentPositionTracker();
                 playerAdapter.setProgressUpdatingEnabled(true);
             }
@@ -145,9 +200,40 @@ public final class TestFairyMediaPlayerGlue {
             protected void unRegisterCurrentPositionTracker() {
                 playerAdapter.setProgressUpdatingEnabled(false);
             }
+
+            @Override
+            protected PlayerAdapter getPlayerAdapter() {
+                return playerAdapter;
+            }
+        }, new TestFairyPlayerSnapshot() {
+            @Override
+            protected long readDuration() {
+                return playerAdapter.getDuration();
+            }
+
+            @Override
+            protected long readCurrentPosition() {
+                return playerAdapter.getCurrentPosition();
+            }
+
+            @Override
+            protected long readBufferedPosition() {
+                return playerAdapter.getBufferedPosition();
+            }
+
+            @Override
+            protected boolean readIsPlaying() {
+                return playerAdapter.isPlaying();
+            }
         });
 
-        final PlayerAdapterWrapperImpl callbacksWrapper = listener.createPlayerAdapterCallbacksWrapper(playerAdapter.getCallback());
+        final CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) listener.createdFrom;
+        final PlayerAdapterWrapperImpl callbacksWrapper = listener.createPlayerAdapterCallbacksWrapper(castedCreationMethod, playerAdapter.getCallback());
+
+        listener.startStartup(SystemClock.elapsedRealtime());
+
+        // PlayerAdapter has no seek callback
+        listener.watchedRanges.inferSeeksFromJumps();
 
         playerAdapter.setCallback(callbacksWrapper);
 
@@ -159,376 +245,799 @@ public final class TestFairyMediaPlayerGlue {
     }
     //////////////////////////////////////////////////////////////
 
+    private void setSampler(TestFairyEventSampler sampler) {
+        if (sampler == null) {
+            throw new NullPointerException("TestFairyEventSampler cannot be null.");
+        }
+
+        eventSampler.flush();
+        eventSampler = sampler;
+    }
+
+    private void setDeduplicator(TestFairyEventDeduplicator deduplicator) {
+        if (deduplicator == null) {
+            throw new NullPointerException("TestFairyEventDeduplicator cannot be null.");
+        }
+
+        eventDeduplicator = deduplicator;
+    }
+
+    // Returns false if the event repeats what the bridge was just told
+    private boolean isNew(TestFairyEvent.Code code, long arg0) {
+        return eventDeduplicator.accept(code, arg0, 0, SystemClock.elapsedRealtime());
+    }
+
+    private void finishStartup(long nowMs) {
+        final TestFairyStartupTracer.Waterfall waterfall = startupTracer.finish(nowMs);
+
+        final TestFairyBridgeV2 bridge = testFairyBridge;
+        if (waterfall != null && bridge != null) {
+            bridge.onStartup(waterfall.getFirstFrameMs(), waterfall.totalMs, waterfall);
+        }
+    }
+
+    // The play intent of a session is where its first startup trace starts, the same point in every integration
+    private void startStartup(long nowMs) {
+        qoeMetrics.onPlayIntent(nowMs);
+        startupTracer.start(nowMs);
+    }
+
+    // Reports the start of the previous media if it was still in progress
+    private void restartStartup(long nowMs) {
+        qoeMetrics.onPlayIntent(nowMs);
+        final TestFairyStartupTracer.Waterfall waterfall = startupTracer.restart(nowMs);
+
+        final TestFairyBridgeV2 bridge = testFairyBridge;
+        if (waterfall != null && bridge != null) {
+            bridge.onStartup(waterfall.getFirstFrameMs(), waterfall.totalMs, waterfall);
+        }
+    }
+
+    private void endPlaybackSession() {
+        final long now = SystemClock.elapsedRealtime();
+        stallDetector.end(now);
+        eventDeduplicator.reset();
+
+        // Sessions that end before the first frame still report how far startup got
+        finishStartup(now);
+        startupTracer.reset();
+
+        final TestFairyQoeMetrics.Summary summary = qoeMetrics.end(now);
+        final TestFairyBridgeV2 bridge = testFairyBridge;
+
+        if (summary != null) {
+            eventSampler.flush();
+        }
+        if (summary != null && bridge != null) {
+            bridge.onSummary(TestFairyBridgeV2.SUMMARY_QOE, TestFairyBridgeV2.TRACK_TYPE_UNKNOWN, summary);
+        }
+
+        final TestFairyWatchedRanges.Summary watched = watchedRanges.end();
+        if (watched != null && bridge != null) {
+            bridge.onSummary(TestFairyBridgeV2.SUMMARY_WATCHED_RANGES, TestFairyBridgeV2.TRACK_TYPE_UNKNOWN,
+                    watched);
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
     // Wrapper creation
     private static abstract class PlayerWrapperImpl implements PlayerWrapper, MediaPlayer.OnBufferingUpdateListener, MediaPlayer.OnCompletionListener,
-            MediaPlayer.OnErrorListener, MediaPlayer.OnMediaTimeDiscontinuityListener, MediaPlayer.OnSeekCompleteListener {
+            MediaPlayer.OnErrorListener, MediaPlayer.OnMediaTimeDiscontinuityListener, MediaPlayer.OnSeekCompleteListener,
+            MediaPlayer.OnInfoListener, MediaPlayer.OnPreparedListener, TestFairyTraceReplayer.Target {
     }
 
-    private PlayerWrapperImpl createPlayerWrapper() {
+    private PlayerWrapperImpl createPlayerWrapper(final CreatedFrom.FromMediaPlayer fromMediaPlayer) {
         return new PlayerWrapperImpl() {
 
-            private int lastKnownBufferingPercent = -1;
-
             @Override
             public void onBufferingUpdate(MediaPlayer mp, int percent) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.MP_BUFFERING_UPDATE, SystemClock.elapsedRealtime(),
+                        percent, 0, 0, null);
 
-                    if (castedCreationMethod.onBufferingUpdateListener != null) {
-                        castedCreationMethod.onBufferingUpdateListener.onBufferingUpdate(mp, percent);
-                    }
+                for (MediaPlayer.OnBufferingUpdateListener listener : fromMediaPlayer.onBufferingUpdateListener.get()) {
+                    listener.onBufferingUpdate(mp, percent);
                 }
 
-                if (lastKnownBufferingPercent != percent && testFairyBridge != null) {
-                    testFairyBridge.onBufferingUpdate(percent);
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (isNew(TestFairyEvent.Code.VIDEO_BUFFERING, percent) && bridge != null) {
+                    bridge.onBufferingUpdate(percent);
                 }
-                lastKnownBufferingPercent = percent;
             }
 
             @Override
             public void onCompletion(MediaPlayer mp) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.MP_COMPLETION, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
 
-                    if (castedCreationMethod.onCompletionListener != null) {
-                        castedCreationMethod.onCompletionListener.onCompletion(mp);
-                    }
+                for (MediaPlayer.OnCompletionListener listener : fromMediaPlayer.onCompletionListener.get()) {
+                    listener.onCompletion(mp);
                 }
 
-                if (testFairyBridge != null) {
-                    testFairyBridge.onComplete();
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (bridge != null) {
+                    bridge.onComplete();
                 }
+
+                // The next media may have another duration
+                playerSnapshot.invalidateDuration();
+
+                endPlaybackSession();
             }
 
             @Override
             public boolean onError(MediaPlayer mp, int what, int extra) {
-                boolean onErrorResult = false;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.MP_ERROR, SystemClock.elapsedRealtime(),
+                        what, extra, 0, null);
 
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                boolean onErrorResult = false;
 
-                    if (castedCreationMethod.onErrorListener != null) {
-                        onErrorResult = castedCreationMethod.onErrorListener.onError(mp, what, extra);
-                    }
+                for (MediaPlayer.OnErrorListener listener : fromMediaPlayer.onErrorListener.get()) {
+                    onErrorResult |= listener.onError(mp, what, extra);
                 }
 
-                if (testFairyBridge != null) {
-                    testFairyBridge.onError(what, extra);
+                qoeMetrics.onError();
+
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (bridge != null) {
+                    bridge.onError(what, extra);
                 }
 
                 return onErrorResult;
             }
 
-            private boolean lastKnownPlaybackStateIsPlaying = false;
-
             @Override
             public void onMediaTimeDiscontinuity(MediaPlayer mp, MediaTimestamp mts) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.MP_MEDIA_TIME_DISCONTINUITY,
+                        SystemClock.elapsedRealtime(), mts.getAnchorMediaTimeUs(), mts.getAnchorSytemNanoTime(),
+                        Float.floatToIntBits(mts.getMediaClockRate()), null);
 
-                    if (castedCreationMethod.onMediaTimeDiscontinuityListener != null) {
-                        castedCreationMethod.onMediaTimeDiscontinuityListener.onMediaTimeDiscontinuity(mp, mts);
-                    }
+                for (MediaPlayer.OnMediaTimeDiscontinuityListener listener : fromMediaPlayer.onMediaTimeDiscontinuityListener.get()) {
+                    listener.onMediaTimeDiscontinuity(mp, mts);
+                }
+
+                onMediaClockRateChanged(mts.getMediaClockRate());
+            }
+
+            // Play, pause and rate changes all show up as a new media clock rate
+            private void onMediaClockRateChanged(float clockRate) {
+                final TestFairyPositionTracker positionTracker = fromMediaPlayer.getCurrentPositionTracker();
+                if (positionTracker != null) {
+                    positionTracker.setPlaybackSpeed(clockRate);
                 }
 
-                if (mp.isPlaying() != lastKnownPlaybackStateIsPlaying && testFairyBridge != null) {
-                    testFairyBridge.onPlaybackStateChange(mp.isPlaying());
+                // The prepared listener is only ours once startup tracing is enabled, so new media after reset(),
+                // setDataSource() and prepare() is otherwise first noticed here, when it starts playing
+                playerSnapshot.invalidateDuration();
+                playerSnapshot.invalidate();
+                final boolean isPlaying = playerSnapshot.isPlaying();
+
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (isNew(TestFairyEvent.Code.VIDEO_STATE, isPlaying ? 1 : 0) && bridge != null) {
+                    bridge.onPlaybackStateChange(isPlaying);
+                }
+
+                final long now = SystemClock.elapsedRealtime();
+                if (isPlaying) {
+                    stallDetector.onPlaying(now);
+                    startupTracer.mark(TestFairyStartupTracer.PHASE_PLAYBACK_STARTED, now);
+                } else {
+                    stallDetector.onPaused(now);
                 }
-                lastKnownPlaybackStateIsPlaying = mp.isPlaying();
+            }
+
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.MP_PREPARED, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
+
+                for (MediaPlayer.OnPreparedListener listener : fromMediaPlayer.onPreparedListener.get()) {
+                    listener.onPrepared(mp);
+                }
+
+                playerSnapshot.invalidateDuration();
+
+                // Prepare after the end of a session, after the first frame or after another prepare is new media
+                final long now = SystemClock.elapsedRealtime();
+                if (!startupTracer.isTracing() || startupTracer.hasReached(TestFairyStartupTracer.PHASE_PREPARED)) {
+                    restartStartup(now);
+                }
+                startupTracer.mark(TestFairyStartupTracer.PHASE_PREPARED, now);
+            }
+
+            @Override
+            public boolean onInfo(MediaPlayer mp, int what, int extra) {
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.MP_INFO, SystemClock.elapsedRealtime(),
+                        what, extra, 0, null);
+
+                boolean onInfoResult = false;
+
+                for (MediaPlayer.OnInfoListener listener : fromMediaPlayer.onInfoListener.get()) {
+                    onInfoResult |= listener.onInfo(mp, what, extra);
+                }
+
+                playerSnapshot.invalidate();
+
+                final long now = SystemClock.elapsedRealtime();
+                if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+                    stallDetector.onBufferingStarted(now);
+                } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+                    stallDetector.onBufferingEnded(now, playerSnapshot.isPlaying());
+                } else if (what == MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START) {
+                    qoeMetrics.onFirstFrame(now);
+                    startupTracer.mark(TestFairyStartupTracer.PHASE_FIRST_FRAME, now);
+                    finishStartup(now);
+                }
+
+                return onInfoResult;
             }
 
             @Override
             public void onSeekComplete(MediaPlayer mp) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.MP_SEEK_COMPLETE, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
 
-                    if (castedCreationMethod.onSeekCompleteListener != null) {
-                        castedCreationMethod.onSeekCompleteListener.onSeekComplete(mp);
-                    }
+                for (MediaPlayer.OnSeekCompleteListener listener : fromMediaPlayer.onSeekCompleteListener.get()) {
+                    listener.onSeekComplete(mp);
+                }
+
+                // The resync sample tells where the seek went
+                watchedRanges.onSeek();
+
+                final TestFairyPositionTracker positionTracker = fromMediaPlayer.getCurrentPositionTracker();
+                if (positionTracker != null) {
+                    positionTracker.resync();
+                }
+
+                stallDetector.onSeek(SystemClock.elapsedRealtime());
+
+                playerSnapshot.invalidate();
+                final int percent = playerSnapshot.getPositionPercent();
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (percent >= 0 && bridge != null) {
+                    bridge.onSeek(percent);
+                }
+            }
+
+            @Override
+            public boolean onCallback(int callbackId, long arg0, long arg1, long arg2, String text) {
+                final MediaPlayer mp = fromMediaPlayer.getMediaPlayer();
+
+                switch (callbackId) {
+                    case TestFairyTraceRecorder.MP_BUFFERING_UPDATE:
+                        onBufferingUpdate(mp, (int) arg0);
+                        return true;
+                    case TestFairyTraceRecorder.MP_COMPLETION:
+                        onCompletion(mp);
+                        return true;
+                    case TestFairyTraceRecorder.MP_ERROR:
+                        onError(mp, (int) arg0, (int) arg1);
+                        return true;
+                    case TestFairyTraceRecorder.MP_MEDIA_TIME_DISCONTINUITY:
+                        onMediaClockRateChanged(Float.intBitsToFloat((int) arg2));
+                        return true;
+                    case TestFairyTraceRecorder.MP_SEEK_COMPLETE:
+                        onSeekComplete(mp);
+                        return true;
+                    case TestFairyTraceRecorder.MP_INFO:
+                        onInfo(mp, (int) arg0, (int) arg1);
+                        return true;
+                    case TestFairyTraceRecorder.MP_PREPARED:
+                        onPrepared(mp);
+                        return true;
+                    default:
+                        return false;
                 }
             }
 
             @Override
             public void setOnBufferingUpdateListener(MediaPlayer.OnBufferingUpdateListener onBufferingUpdateListener) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                fromMediaPlayer.onBufferingUpdateListener.set(onBufferingUpdateListener);
+            }
 
-                    castedCreationMethod.onBufferingUpdateListener = onBufferingUpdateListener;
-                }
+            @Override
+            public void addOnBufferingUpdateListener(MediaPlayer.OnBufferingUpdateListener onBufferingUpdateListener) {
+                fromMediaPlayer.onBufferingUpdateListener.add(onBufferingUpdateListener);
+            }
+
+            @Override
+            public void removeOnBufferingUpdateListener(MediaPlayer.OnBufferingUpdateListener onBufferingUpdateListener) {
+                fromMediaPlayer.onBufferingUpdateListener.remove(onBufferingUpdateListener);
             }
 
             @Override
             public void setOnCompletionListener(MediaPlayer.OnCompletionListener onCompletionListener) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                fromMediaPlayer.onCompletionListener.set(onCompletionListener);
+            }
 
-                    castedCreationMethod.onCompletionListener = onCompletionListener;
-                }
+            @Override
+            public void addOnCompletionListener(MediaPlayer.OnCompletionListener onCompletionListener) {
+                fromMediaPlayer.onCompletionListener.add(onCompletionListener);
+            }
+
+            @Override
+            public void removeOnCompletionListener(MediaPlayer.OnCompletionListener onCompletionListener) {
+                fromMediaPlayer.onCompletionListener.remove(onCompletionListener);
             }
 
             @Override
             public void setOnErrorListener(MediaPlayer.OnErrorListener onErrorListener) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                fromMediaPlayer.onErrorListener.set(onErrorListener);
+            }
 
-                    castedCreationMethod.onErrorListener = onErrorListener;
-                }
+            @Override
+            public void addOnErrorListener(MediaPlayer.OnErrorListener onErrorListener) {
+                fromMediaPlayer.onErrorListener.add(onErrorListener);
+            }
+
+            @Override
+            public void removeOnErrorListener(MediaPlayer.OnErrorListener onErrorListener) {
+                fromMediaPlayer.onErrorListener.remove(onErrorListener);
             }
 
             @Override
             public void setOnMediaTimeDiscontinuityListener(MediaPlayer.OnMediaTimeDiscontinuityListener onMediaTimeDiscontinuityListener) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                fromMediaPlayer.onMediaTimeDiscontinuityListener.set(onMediaTimeDiscontinuityListener);
+            }
 
-                    castedCreationMethod.onMediaTimeDiscontinuityListener = onMediaTimeDiscontinuityListener;
-                }
+            @Override
+            public void addOnMediaTimeDiscontinuityListener(MediaPlayer.OnMediaTimeDiscontinuityListener onMediaTimeDiscontinuityListener) {
+                fromMediaPlayer.onMediaTimeDiscontinuityListener.add(onMediaTimeDiscontinuityListener);
+            }
+
+            @Override
+            public void removeOnMediaTimeDiscontinuityListener(MediaPlayer.OnMediaTimeDiscontinuityListener onMediaTimeDiscontinuityListener) {
+                fromMediaPlayer.onMediaTimeDiscontinuityListener.remove(onMediaTimeDiscontinuityListener);
             }
 
             @Override
             public void setOnSeekCompleteListener(MediaPlayer.OnSeekCompleteListener onSeekCompleteListener) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+                fromMediaPlayer.onSeekCompleteListener.set(onSeekCompleteListener);
+            }
 
-                    castedCreationMethod.onSeekCompleteListener = onSeekCompleteListener;
-                }
+            @Override
+            public void addOnSeekCompleteListener(MediaPlayer.OnSeekCompleteListener onSeekCompleteListener) {
+                fromMediaPlayer.onSeekCompleteListener.add(onSeekCompleteListener);
             }
 
             @Override
-            public void trackPlaybackPosition() {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayer) {
-                    CreatedFrom.FromMediaPlayer castedCreationMethod = (CreatedFrom.FromMediaPlayer) createdFrom;
+            public void removeOnSeekCompleteListener(MediaPlayer.OnSeekCompleteListener onSeekCompleteListener) {
+                fromMediaPlayer.onSeekCompleteListener.remove(onSeekCompleteListener);
+            }
+
+            @Override
+            public void setOnInfoListener(MediaPlayer.OnInfoListener onInfoListener) {
+                fromMediaPlayer.onInfoListener.set(onInfoListener);
+                traceStartupAndStalls();
+            }
+
+            @Override
+            public void addOnInfoListener(MediaPlayer.OnInfoListener onInfoListener) {
+                fromMediaPlayer.onInfoListener.add(onInfoListener);
+                traceStartupAndStalls();
+            }
+
+            @Override
+            public void removeOnInfoListener(MediaPlayer.OnInfoListener onInfoListener) {
+                fromMediaPlayer.onInfoListener.remove(onInfoListener);
+            }
+
+            @Override
+            public void setOnPreparedListener(MediaPlayer.OnPreparedListener onPreparedListener) {
+                fromMediaPlayer.onPreparedListener.set(onPreparedListener);
+                traceStartupAndStalls();
+            }
 
-                    TestFairyMediaPlayerGlue.this.createdFrom.registerCurrentPositionTracker(
-                            CreatedFrom.FromMediaPlayer.createPositionTracker(
-                                    castedCreationMethod.getMediaPlayer(),
-                                    TestFairyMediaPlayerGlue.this
-                            )
-                    );
+            @Override
+            public void addOnPreparedListener(MediaPlayer.OnPreparedListener onPreparedListener) {
+                fromMediaPlayer.onPreparedListener.add(onPreparedListener);
+                traceStartupAndStalls();
+            }
+
+            @Override
+            public void removeOnPreparedListener(MediaPlayer.OnPreparedListener onPreparedListener) {
+                fromMediaPlayer.onPreparedListener.remove(onPreparedListener);
+            }
+
+            // Listeners set on the wrapper are only called back once the wrapper listens to the player
+            @Override
+            public void traceStartupAndStalls() {
+                if (fromMediaPlayer.takeOverInfoAndPreparedListeners()) {
+                    qoeMetrics.setStartupAndStallsTraced(true);
+                    startStartup(SystemClock.elapsedRealtime());
+
+                    final MediaPlayer mp = fromMediaPlayer.getMediaPlayer();
+                    mp.setOnInfoListener(this);
+                    mp.setOnPreparedListener(this);
                 }
             }
 
+            @Override
+            public void trackPlaybackPosition() {
+                fromMediaPlayer.registerCurrentPositionTracker(
+                        CreatedFrom.FromMediaPlayer.createPositionTracker(TestFairyMediaPlayerGlue.this)
+                );
+            }
+
             @Override
             public void untrackPlaybackPosition() {
-                TestFairyMediaPlayerGlue.this.createdFrom.unRegisterCurrentPositionTracker();
+                fromMediaPlayer.unRegisterCurrentPositionTracker();
             }
 
             @Override
             public void setTestFairyBridge(TestFairyBridge bridge) {
-                testFairyBridge = bridge;
+                testFairyBridge = upgradeBridge(bridge);
             }
 
             @Override
             public TestFairyBridge getTestFairyBridge() {
-                return testFairyBridge;
+                return downgradeBridge(testFairyBridge);
+            }
+
+            @Override
+            public void setEventSampler(TestFairyEventSampler sampler) {
+                setSampler(sampler);
+            }
+
+            @Override
+            public TestFairyEventSampler getEventSampler() {
+                return eventSampler;
+            }
+
+            @Override
+            public void setEventDeduplicator(TestFairyEventDeduplicator deduplicator) {
+                setDeduplicator(deduplicator);
+            }
+
+            @Override
+            public TestFairyEventDeduplicator getEventDeduplicator() {
+                return eventDeduplicator;
+            }
+
+            @Override
+            public void endPlaybackSession() {
+                TestFairyMediaPlayerGlue.this.endPlaybackSession();
+            }
+
+            @Override
+            public long getPlayerReadCount() {
+                return playerSnapshot.getReadCount();
+            }
+
+            @Override
+            public long getPlayerCallCount() {
+                return playerSnapshot.getPlayerCallCount();
             }
         };
     }
 
-    private static abstract class PlayerAdapterWrapperImpl extends PlayerAdapter.Callback implements PlayerAdapterWrapper {
+    private static abstract class PlayerAdapterWrapperImpl extends PlayerAdapter.Callback implements PlayerAdapterWrapper,
+            TestFairyTraceReplayer.Target {
     }
 
-    private PlayerAdapterWrapperImpl createPlayerAdapterCallbacksWrapper(final PlayerAdapter.Callback originalCallbacks) {
+    private PlayerAdapterWrapperImpl createPlayerAdapterCallbacksWrapper(final CreatedFrom.FromMediaPlayerAdapter fromMediaPlayerAdapter,
+                                                                           final PlayerAdapter.Callback originalCallbacks) {
         return new PlayerAdapterWrapperImpl() {
 
-            private boolean lastKnownPlaybackStateIsPlaying = false;
-
             @Override
             public void onPlayStateChanged(PlayerAdapter adapter) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_PLAY_STATE_CHANGED, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onPlayStateChanged(adapter);
-                    }
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onPlayStateChanged(adapter);
+                }
+
+                originalCallbacks.onPlayStateChanged(adapter);
 
-                    originalCallbacks.onPlayStateChanged(adapter);
+                playerSnapshot.invalidate();
+                final boolean isPlaying = playerSnapshot.isPlaying();
+
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (isNew(TestFairyEvent.Code.VIDEO_STATE, isPlaying ? 1 : 0) && bridge != null) {
+                    bridge.onPlaybackStateChange(isPlaying);
                 }
 
+                final long now = SystemClock.elapsedRealtime();
+                if (isPlaying) {
+                    stallDetector.onPlaying(now);
 
-                if (adapter.isPlaying() != lastKnownPlaybackStateIsPlaying && testFairyBridge != null) {
-                    testFairyBridge.onPlaybackStateChange(adapter.isPlaying());
+                    // Adapters do not report the first frame, playback start is as close as it gets
+                    startupTracer.mark(TestFairyStartupTracer.PHASE_PLAYBACK_STARTED, now);
+                    finishStartup(now);
+                } else {
+                    stallDetector.onPaused(now);
                 }
-                lastKnownPlaybackStateIsPlaying = adapter.isPlaying();
             }
 
             @Override
             public void onPreparedStateChanged(PlayerAdapter adapter) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_PREPARED_STATE_CHANGED, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onPreparedStateChanged(adapter);
-                    }
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onPreparedStateChanged(adapter);
+                }
+
+                originalCallbacks.onPreparedStateChanged(adapter);
+
+                playerSnapshot.invalidateDuration();
 
-                    originalCallbacks.onPreparedStateChanged(adapter);
+                final long now = SystemClock.elapsedRealtime();
+                if (adapter.isPrepared()) {
+                    startupTracer.mark(TestFairyStartupTracer.PHASE_PREPARED, now);
+                } else {
+                    // A new data source
+                    restartStartup(now);
                 }
             }
 
             @Override
             public void onPlayCompleted(PlayerAdapter adapter) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_PLAY_COMPLETED, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onPlayCompleted(adapter);
-                    }
-
-                    originalCallbacks.onPlayCompleted(adapter);
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onPlayCompleted(adapter);
                 }
 
-                if (testFairyBridge != null) {
-                    testFairyBridge.onComplete();
+                originalCallbacks.onPlayCompleted(adapter);
+
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (bridge != null) {
+                    bridge.onComplete();
                 }
+
+                // The next media may have another duration
+                playerSnapshot.invalidateDuration();
+
+                endPlaybackSession();
             }
 
-            private int lastKnownPlaybackPercent = -1;
             @Override
             public void onCurrentPositionChanged(PlayerAdapter adapter) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
-
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onCurrentPositionChanged(adapter);
-                    }
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_CURRENT_POSITION_CHANGED, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
 
-                    originalCallbacks.onCurrentPositionChanged(adapter);
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onCurrentPositionChanged(adapter);
                 }
 
-                if (adapter.getDuration() != 0) {
-                    long currentPosition = adapter.getCurrentPosition();
-                    long percent = (currentPosition * 100) / adapter.getDuration();
+                originalCallbacks.onCurrentPositionChanged(adapter);
 
-                    if (lastKnownPlaybackPercent != percent && testFairyBridge != null) {
-                        testFairyBridge.onPlaybackPositionUpdate((int) percent);
+                final long duration = playerSnapshot.getDuration();
+                if (duration > 0) {
+                    long currentPosition = playerSnapshot.getCurrentPosition();
+                    long percent = (currentPosition * 100) / duration;
+
+                    watchedRanges.onPosition(currentPosition, duration, SystemClock.elapsedRealtime());
+
+                    final TestFairyBridgeV2 bridge = testFairyBridge;
+                    if (isNew(TestFairyEvent.Code.VIDEO_POSITION, percent) && bridge != null) {
+                        bridge.onPlaybackPositionUpdate((int) percent);
                     }
-                    lastKnownPlaybackPercent = (int) percent;
                 }
             }
 
-            private int lastKnownBufferingPercent = -1;
-
             @Override
             public void onBufferedPositionChanged(PlayerAdapter adapter) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_BUFFERED_POSITION_CHANGED, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onBufferedPositionChanged(adapter);
-                    }
-
-                    originalCallbacks.onBufferedPositionChanged(adapter);
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onBufferedPositionChanged(adapter);
                 }
 
-                if (adapter.getDuration() != 0) {
-                    long currentPosition = adapter.getBufferedPosition();
-                    long percent = (currentPosition * 100) / adapter.getDuration();
+                originalCallbacks.onBufferedPositionChanged(adapter);
+
+                final long duration = playerSnapshot.getDuration();
+                if (duration > 0) {
+                    long currentPosition = playerSnapshot.getBufferedPosition();
+                    long percent = (currentPosition * 100) / duration;
 
-                    if (lastKnownBufferingPercent != percent && testFairyBridge != null) {
-                        testFairyBridge.onBufferingUpdate((int) percent);
+                    final TestFairyBridgeV2 bridge = testFairyBridge;
+                    if (isNew(TestFairyEvent.Code.VIDEO_BUFFERING, percent) && bridge != null) {
+                        bridge.onBufferingUpdate((int) percent);
                     }
-                    lastKnownBufferingPercent = (int) percent;
                 }
             }
 
             @Override
             public void onDurationChanged(PlayerAdapter adapter) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_DURATION_CHANGED, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onDurationChanged(adapter);
-                    }
-
-                    originalCallbacks.onDurationChanged(adapter);
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onDurationChanged(adapter);
                 }
+
+                originalCallbacks.onDurationChanged(adapter);
+
+                playerSnapshot.invalidateDuration();
             }
 
             @Override
             public void onVideoSizeChanged(PlayerAdapter adapter, int width, int height) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_VIDEO_SIZE_CHANGED, SystemClock.elapsedRealtime(),
+                        width, height, 0, null);
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onVideoSizeChanged(adapter, width, height);
-                    }
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onVideoSizeChanged(adapter, width, height);
+                }
+
+                originalCallbacks.onVideoSizeChanged(adapter, width, height);
 
-                    originalCallbacks.onVideoSizeChanged(adapter, width, height);
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (bridge != null) {
+                    bridge.onFormatSwitch(TestFairyBridgeV2.TRACK_TYPE_VIDEO, TestFairyBridgeV2.NO_VALUE, width, height, 0);
                 }
             }
 
             @Override
             public void onError(PlayerAdapter adapter, int errorCode, String errorMessage) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_ERROR, SystemClock.elapsedRealtime(),
+                        errorCode, 0, 0, errorMessage);
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onError(adapter, errorCode, errorMessage);
-                    }
-
-                    originalCallbacks.onError(adapter, errorCode, errorMessage);
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onError(adapter, errorCode, errorMessage);
                 }
 
-                if (testFairyBridge != null) {
-                    testFairyBridge.onError(errorCode, errorMessage);
+                originalCallbacks.onError(adapter, errorCode, errorMessage);
+
+                qoeMetrics.onError();
+
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (bridge != null) {
+                    bridge.onError(errorCode, errorMessage);
                 }
 
             }
 
             @Override
             public void onBufferingStateChanged(PlayerAdapter adapter, boolean start) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_BUFFERING_STATE_CHANGED, SystemClock.elapsedRealtime(),
+                        start ? 1 : 0, 0, 0, null);
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onBufferingStateChanged(adapter, start);
-                    }
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onBufferingStateChanged(adapter, start);
+                }
+
+                originalCallbacks.onBufferingStateChanged(adapter, start);
 
-                    originalCallbacks.onBufferingStateChanged(adapter, start);
+                final TestFairyBridgeV2 bridge = testFairyBridge;
+                if (bridge != null) {
+                    bridge.onBufferingStateChange(start);
+                }
+
+                playerSnapshot.invalidate();
+
+                final long now = SystemClock.elapsedRealtime();
+                if (start) {
+                    stallDetector.onBufferingStarted(now);
+                } else {
+                    stallDetector.onBufferingEnded(now, playerSnapshot.isPlaying());
                 }
             }
 
             @Override
             public void onMetadataChanged(PlayerAdapter adapter) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.ADAPTER_METADATA_CHANGED, SystemClock.elapsedRealtime(),
+                        0, 0, 0, null);
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks.onMetadataChanged(adapter);
-                    }
+                for (PlayerAdapter.Callback callbacks : fromMediaPlayerAdapter.playerAdapterListenerCallbacks.get()) {
+                    callbacks.onMetadataChanged(adapter);
+                }
+
+                originalCallbacks.onMetadataChanged(adapter);
+            }
 
-                    originalCallbacks.onMetadataChanged(adapter);
+            @Override
+            public boolean onCallback(int callbackId, long arg0, long arg1, long arg2, String text) {
+                final PlayerAdapter adapter = fromMediaPlayerAdapter.getPlayerAdapter();
+
+                switch (callbackId) {
+                    case TestFairyTraceRecorder.ADAPTER_PLAY_STATE_CHANGED:
+                        onPlayStateChanged(adapter);
+                        return true;
+                    case TestFairyTraceRecorder.ADAPTER_PREPARED_STATE_CHANGED:
+                        onPreparedStateChanged(adapter);
+                        return true;
+                    case TestFairyTraceRecorder.ADAPTER_PLAY_COMPLETED:
+                        onPlayCompleted(adapter);
+                        return true;
+                    case TestFairyTraceRecorder.ADAPTER_CURRENT_POSITION_CHANGED:
+                        onCurrentPositionChanged(adapter);
+                        return true;
+                    case TestFairyTraceRecorder.ADAPTER_BUFFERED_POSITION_CHANGED:
+                        onBufferedPositionChanged(adapter);
+                        return true;
+                    case TestFairyTraceRecorder.ADAPTER_DURATION_CHANGED:
+                        onDurationChanged(adapter);
+                        return true;
+                    case TestFairyTraceRecorder.ADAPTER_VIDEO_SIZE_CHANGED:
+                        onVideoSizeChanged(adapter, (int) arg0, (int) arg1);
+                        return true;
+                    case TestFairyTraceRecorder.ADAPTER_ERROR:
+                        onError(adapter, (int) arg0, text);
+                        return true;
+                    case TestFairyTraceRecorder.ADAPTER_BUFFERING_STATE_CHANGED:
+                        onBufferingStateChanged(adapter, arg0 != 0);
+                        return true;
+                    case TestFairyTraceRecorder.ADAPTER_METADATA_CHANGED:
+                        onMetadataChanged(adapter);
+                        return true;
+                    default:
+                        return false;
                 }
             }
 
             @Override
             public void setCallbacks(PlayerAdapter.Callback callbacks) {
-                if (createdFrom instanceof CreatedFrom.FromMediaPlayerAdapter) {
-                    CreatedFrom.FromMediaPlayerAdapter castedCreationMethod = (CreatedFrom.FromMediaPlayerAdapter) createdFrom;
+                fromMediaPlayerAdapter.playerAdapterListenerCallbacks.set(callbacks);
+            }
 
-                    if (castedCreationMethod.playerAdapterListenerCallbacks != null) {
-                        castedCreationMethod.playerAdapterListenerCallbacks = callbacks;
-                    }
-                }
+            @Override
+            public void addCallbacks(PlayerAdapter.Callback callbacks) {
+                fromMediaPlayerAdapter.playerAdapterListenerCallbacks.add(callbacks);
+            }
+
+            @Override
+            public void removeCallbacks(PlayerAdapter.Callback callbacks) {
+                fromMediaPlayerAdapter.playerAdapterListenerCallbacks.remove(callbacks);
             }
 
             @Override
             public void trackPlaybackPosition() {
-                TestFairyMediaPlayerGlue.this.createdFrom.registerCurrentPositionTracker(null);
+                fromMediaPlayerAdapter.registerCurrentPositionTracker(null);
             }
 
             @Override
             public void untrackPlaybackPosition() {
-                TestFairyMediaPlayerGlue.this.createdFrom.unRegisterCurrentPositionTracker();
+                fromMediaPlayerAdapter.unRegisterCurrentPositionTracker();
             }
 
             @Override
             public void setTestFairyBridge(TestFairyBridge bridge) {
-                testFairyBridge = bridge;
+                testFairyBridge = upgradeBridge(bridge);
             }
 
             @Override
             public TestFairyBridge getTestFairyBridge() {
-                return testFairyBridge;
+                return downgradeBridge(testFairyBridge);
+            }
+
+            @Override
+            public void setEventSampler(TestFairyEventSampler sampler) {
+                setSampler(sampler);
+            }
+
+            @Override
+            public TestFairyEventSampler getEventSampler() {
+                return eventSampler;
+            }
+
+            @Override
+            public void setEventDeduplicator(TestFairyEventDeduplicator deduplicator) {
+                setDeduplicator(deduplicator);
+            }
+
+            @Override
+            public TestFairyEventDeduplicator getEventDeduplicator() {
+                return eventDeduplicator;
+            }
+
+            @Override
+            public void endPlaybackSession() {
+                TestFairyMediaPlayerGlue.this.endPlaybackSession();
+            }
+
+            @Override
+            public long getPlayerReadCount() {
+                return playerSnapshot.getReadCount();
+            }
+
+            @Override
+            public long getPlayerCallCount() {
+                return playerSnapshot.getPlayerCallCount();
             }
         };
     }
@@ -536,45 +1045,117 @@ public final class TestFairyMediaPlayerGlue {
 
     // Creation state
     private static abstract class CreatedFrom {
-        protected abstract void registerCurrentPositionTracker(final Runnable runnable);
+        protected abstract void registerCurrentPositionTracker(final TestFairyPositionTracker tracker);
 
         protected abstract void unRegisterCurrentPositionTracker();
 
         private abstract static class FromMediaPlayer extends CreatedFrom {
-            private MediaPlayer.OnBufferingUpdateListener onBufferingUpdateListener;
-            private MediaPlayer.OnCompletionListener onCompletionListener;
-            private MediaPlayer.OnErrorListener onErrorListener;
-            private MediaPlayer.OnMediaTimeDiscontinuityListener onMediaTimeDiscontinuityListener;
-            private MediaPlayer.OnSeekCompleteListener onSeekCompleteListener;
+            private final TestFairyListenerRegistry<MediaPlayer.OnBufferingUpdateListener> onBufferingUpdateListener =
+                    new TestFairyListenerRegistry<>(new MediaPlayer.OnBufferingUpdateListener[0]);
+            private final TestFairyListenerRegistry<MediaPlayer.OnCompletionListener> onCompletionListener =
+                    new TestFairyListenerRegistry<>(new MediaPlayer.OnCompletionListener[0]);
+            private final TestFairyListenerRegistry<MediaPlayer.OnErrorListener> onErrorListener =
+                    new TestFairyListenerRegistry<>(new MediaPlayer.OnErrorListener[0]);
+            private final TestFairyListenerRegistry<MediaPlayer.OnMediaTimeDiscontinuityListener> onMediaTimeDiscontinuityListener =
+                    new TestFairyListenerRegistry<>(new MediaPlayer.OnMediaTimeDiscontinuityListener[0]);
+            private final TestFairyListenerRegistry<MediaPlayer.OnSeekCompleteListener> onSeekCompleteListener =
+                    new TestFairyListenerRegistry<>(new MediaPlayer.OnSeekCompleteListener[0]);
+            private final TestFairyListenerRegistry<MediaPlayer.OnInfoListener> onInfoListener =
+                    new TestFairyListenerRegistry<>(new MediaPlayer.OnInfoListener[0]);
+            private final TestFairyListenerRegistry<MediaPlayer.OnPreparedListener> onPreparedListener =
+                    new TestFairyListenerRegistry<>(new MediaPlayer.OnPreparedListener[0]);
+            private final AtomicBoolean tookOverInfoAndPreparedListeners = new AtomicBoolean();
+
+            // True only for the first caller
+            private boolean takeOverInfoAndPreparedListeners() {
+                return tookOverInfoAndPreparedListeners.compareAndSet(false, true);
+            }
 
-            private static Runnable createPositionTracker(final MediaPlayer mediaPlayer, final TestFairyMediaPlayerGlue listener) {
-                return new Runnable() {
-                    private int lastKnownPlaybackPercent = -1;
+            private static TestFairyPositionTracker createPositionTracker(final TestFairyMediaPlayerGlue listener) {
+                return new TestFairyPositionTracker() {
+                    @Override
+                    protected long getDuration() {
+                        return listener.playerSnapshot.getDuration();
+                    }
 
                     @Override
-                    public void run() {
-                        if (mediaPlayer.getDuration() != 0) {
-                            int currentPosition = mediaPlayer.getCurrentPosition();
-                            int percent = (currentPosition * 100) / mediaPlayer.getDuration();
-
-                            if (lastKnownPlaybackPercent != percent && listener.testFairyBridge != null) {
-                                listener.testFairyBridge.onPlaybackPositionUpdate(percent);
-                            }
-                            lastKnownPlaybackPercent = percent;
+                    protected long getCurrentPosition() {
+                        return listener.playerSnapshot.getCurrentPosition();
+                    }
+
+                    @Override
+                    protected boolean isPlaying() {
+                        return listener.playerSnapshot.isPlaying();
+                    }
+
+                    @Override
+                    protected void onPositionSampled(long position, long duration) {
+                        listener.watchedRanges.onPosition(position, duration, SystemClock.elapsedRealtime());
+                    }
+
+                    @Override
+                    protected void onPositionPercentChanged(int percent) {
+                        final TestFairyBridgeV2 bridge = listener.testFairyBridge;
+                        if (listener.isNew(TestFairyEvent.Code.VIDEO_POSITION, percent) && bridge != null) {
+                            bridge.onPlaybackPositionUpdate(percent);
                         }
                     }
                 };
             }
 
             protected abstract MediaPlayer getMediaPlayer();
+
+            protected abstract TestFairyPositionTracker getCurrentPositionTracker();
         }
 
         private abstract static class FromMediaPlayerAdapter extends CreatedFrom {
-            private PlayerAdapter.Callback playerAdapterListenerCallbacks;
+            private final TestFairyListenerRegistry<PlayerAdapter.Callback> playerAdapterListenerCallbacks =
+                    new TestFairyListenerRegistry<>(new PlayerAdapter.Callback[0]);
+
+            protected abstract PlayerAdapter getPlayerAdapter();
         }
     }
     //////////////////////////////////////////////////////////////
 
+    // Event dispatching, shared by every wrapper and TestFairyExoPlayerAnalyticsListener
+    public static void setEventOverflowPolicy(@NonNull TestFairyEventOverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new NullPointerException("Overflow policy cannot be null.");
+        }
+
+        TestFairyEventLog.setOverflowPolicy(overflowPolicy);
+    }
+
+    public static long getDroppedEventCount() {
+        return TestFairyEventLog.getDroppedCount();
+    }
+
+    public static long getFlushedEventCount() {
+        return TestFairyEventLog.getFlushedCount();
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Trace replay, returns the number of callbacks the wrapper handled. Lives here so that the replayer does not
+    // depend on the glue.
+    public static int replayTrace(@NonNull TestFairyTraceReplayer replayer, @NonNull PlayerWrapper wrapper)
+            throws IOException, InterruptedException {
+        return replayer.replayInto(asTraceTarget(wrapper));
+    }
+
+    public static int replayTrace(@NonNull TestFairyTraceReplayer replayer, @NonNull PlayerAdapterWrapper wrapper)
+            throws IOException, InterruptedException {
+        return replayer.replayInto(asTraceTarget(wrapper));
+    }
+
+    private static TestFairyTraceReplayer.Target asTraceTarget(Object wrapper) {
+        if (!(wrapper instanceof TestFairyTraceReplayer.Target)) {
+            throw new IllegalArgumentException("Only wrappers created by TestFairyMediaPlayerGlue can be replayed into.");
+        }
+
+        return (TestFairyTraceReplayer.Target) wrapper;
+    }
+    //////////////////////////////////////////////////////////////
+
     // TestFairy Bridge
     public interface TestFairyBridge {
         void onBufferingUpdate(int percent);
@@ -587,20 +1168,290 @@ public final class TestFairyMediaPlayerGlue {
 
         void onError(int reason, Object extra);
     }
+
+    // Typed bridge covering every event the MediaPlayer, PlayerAdapter and ExoPlayer integrations capture. All
+    // arguments are primitives, so implementations can filter, batch or sample without parsing strings. Bridges that
+    // only implement TestFairyBridge keep working and simply do not see the additional events.
+    //
+    // Argument values are declared in TestFairyBridgeConstants. Summaries and other objects are only meant for their
+    // toString(), and arrive as text after going through TestFairyJournalBridge.
+    //
+    // The wrappers and the ExoPlayer listener all accept a null bridge in setTestFairyBridge(). It turns off every
+    // event the integration would send, summaries included, and getTestFairyBridge() then returns null.
+    public interface TestFairyBridgeV2 extends TestFairyBridge, TestFairyBridgeConstants {
+        // Playback
+        void onBufferingStateChange(boolean isBuffering);
+
+        void onSeek(int percent);
+
+        void onDiscontinuity(int reason);
+
+        void onRepeatModeChange(int repeatMode);
+
+        void onShuffleModeChange(boolean isEnabled);
+
+        void onNewMedia();
+
+        void onVolumeChange(int percent);
+
+        // Quality
+        void onFormatSwitch(int trackType, int bitrate, int width, int height, int selectionReason);
+
+        void onBandwidthEstimate(int totalLoadTimeMs, long totalBytesLoaded, long bitrateEstimate);
+
+        void onDroppedFrames(int droppedFrames, long elapsedMs);
+
+        void onDecoderInitialized(int trackType, long initializationDurationMs);
+
+        void onAudioUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs);
+
+        // Errors, a response code of NO_VALUE means the request failed before a response arrived
+        void onHttpError(int responseCode);
+
+        void onLoadError();
+
+        void onDrmEvent(int drmEvent);
+
+        void onErrorRepeats(int repeats, long windowMs, String fingerprint);
+
+        void onRetryStorm(int errors, long spanMs, String fingerprint);
+
+        // Network, bitrates in bits per second, NO_VALUE when unknown
+        void onBandwidthBand(long bandLowerBound, long bitrateEstimate);
+
+        void onNetworkAtStall(long bitrateEstimate, long lastLoadBitrate);
+
+        // Playback health
+        void onStall(int stallCause, long durationMs);
+
+        void onJank(int jankSeverity, long durationMs, Object episode);
+
+        // First frame ms is NO_VALUE if startup ended before the first frame
+        void onStartup(long firstFrameMs, long tracedMs, Object waterfall);
+
+        // Sent when a playback session ends, the track type is only set for SUMMARY_DECODER_PROFILE
+        void onSummary(int summaryType, int trackType, Object summary);
+    }
+
+    // No-op TestFairyBridgeV2, extend it to override only the events you need
+    public static class BaseTestFairyBridgeV2 implements TestFairyBridgeV2 {
+        @Override
+        public void onBufferingUpdate(int percent) {
+        }
+
+        @Override
+        public void onPlaybackStateChange(boolean isPlaying) {
+        }
+
+        @Override
+        public void onPlaybackPositionUpdate(int percent) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public void onError(int reason, Object extra) {
+        }
+
+        @Override
+        public void onBufferingStateChange(boolean isBuffering) {
+        }
+
+        @Override
+        public void onSeek(int percent) {
+        }
+
+        @Override
+        public void onDiscontinuity(int reason) {
+        }
+
+        @Override
+        public void onRepeatModeChange(int repeatMode) {
+        }
+
+        @Override
+        public void onShuffleModeChange(boolean isEnabled) {
+        }
+
+        @Override
+        public void onNewMedia() {
+        }
+
+        @Override
+        public void onVolumeChange(int percent) {
+        }
+
+        @Override
+        public void onFormatSwitch(int trackType, int bitrate, int width, int height, int selectionReason) {
+        }
+
+        @Override
+        public void onBandwidthEstimate(int totalLoadTimeMs, long totalBytesLoaded, long bitrateEstimate) {
+        }
+
+        @Override
+        public void onDroppedFrames(int droppedFrames, long elapsedMs) {
+        }
+
+        @Override
+        public void onDecoderInitialized(int trackType, long initializationDurationMs) {
+        }
+
+        @Override
+        public void onAudioUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        }
+
+        @Override
+        public void onHttpError(int responseCode) {
+        }
+
+        @Override
+        public void onLoadError() {
+        }
+
+        @Override
+        public void onDrmEvent(int drmEvent) {
+        }
+
+        @Override
+        public void onErrorRepeats(int repeats, long windowMs, String fingerprint) {
+        }
+
+        @Override
+        public void onRetryStorm(int errors, long spanMs, String fingerprint) {
+        }
+
+        @Override
+        public void onBandwidthBand(long bandLowerBound, long bitrateEstimate) {
+        }
+
+        @Override
+        public void onNetworkAtStall(long bitrateEstimate, long lastLoadBitrate) {
+        }
+
+        @Override
+        public void onStall(int stallCause, long durationMs) {
+        }
+
+        @Override
+        public void onJank(int jankSeverity, long durationMs, Object episode) {
+        }
+
+        @Override
+        public void onStartup(long firstFrameMs, long tracedMs, Object waterfall) {
+        }
+
+        @Override
+        public void onSummary(int summaryType, int trackType, Object summary) {
+        }
+    }
+
+    // Lets integrations talk to every bridge through TestFairyBridgeV2
+    static TestFairyBridgeV2 upgradeBridge(TestFairyBridge bridge) {
+        if (bridge == null || bridge instanceof TestFairyBridgeV2) {
+            return (TestFairyBridgeV2) bridge;
+        }
+
+        return new TestFairyBridgeV1Adapter(bridge);
+    }
+
+    // Returns the bridge as it was set by the user
+    static TestFairyBridge downgradeBridge(TestFairyBridgeV2 bridge) {
+        if (bridge instanceof TestFairyBridgeV1Adapter) {
+            return ((TestFairyBridgeV1Adapter) bridge).bridge;
+        }
+
+        return bridge;
+    }
+
+    private static final class TestFairyBridgeV1Adapter extends BaseTestFairyBridgeV2 {
+        private final TestFairyBridge bridge;
+
+        private TestFairyBridgeV1Adapter(TestFairyBridge bridge) {
+            this.bridge = bridge;
+        }
+
+        @Override
+        public void onBufferingUpdate(int percent) {
+            bridge.onBufferingUpdate(percent);
+        }
+
+        @Override
+        public void onPlaybackStateChange(boolean isPlaying) {
+            bridge.onPlaybackStateChange(isPlaying);
+        }
+
+        @Override
+        public void onPlaybackPositionUpdate(int percent) {
+            bridge.onPlaybackPositionUpdate(percent);
+        }
+
+        @Override
+        public void onComplete() {
+            bridge.onComplete();
+        }
+
+        @Override
+        public void onError(int reason, Object extra) {
+            bridge.onError(reason, extra);
+        }
+    }
     //////////////////////////////////////////////////////////////
 
     // Public Wrapper Interfaces
+    //
+    // set* replaces every listener of a callback, add* and remove* let several listeners share it. Listeners and
+    // bridges can be changed from any thread while the player is running.
     public interface PlayerWrapper {
         void setOnBufferingUpdateListener(MediaPlayer.OnBufferingUpdateListener onBufferingUpdateListener);
 
+        void addOnBufferingUpdateListener(MediaPlayer.OnBufferingUpdateListener onBufferingUpdateListener);
+
+        void removeOnBufferingUpdateListener(MediaPlayer.OnBufferingUpdateListener onBufferingUpdateListener);
+
         void setOnCompletionListener(MediaPlayer.OnCompletionListener onCompletionListener);
 
+        void addOnCompletionListener(MediaPlayer.OnCompletionListener onCompletionListener);
+
+        void removeOnCompletionListener(MediaPlayer.OnCompletionListener onCompletionListener);
+
         void setOnErrorListener(MediaPlayer.OnErrorListener onErrorListener);
 
+        void addOnErrorListener(MediaPlayer.OnErrorListener onErrorListener);
+
+        void removeOnErrorListener(MediaPlayer.OnErrorListener onErrorListener);
+
         void setOnMediaTimeDiscontinuityListener(MediaPlayer.OnMediaTimeDiscontinuityListener onMediaTimeDiscontinuityListener);
 
+        void addOnMediaTimeDiscontinuityListener(MediaPlayer.OnMediaTimeDiscontinuityListener onMediaTimeDiscontinuityListener);
+
+        void removeOnMediaTimeDiscontinuityListener(MediaPlayer.OnMediaTimeDiscontinuityListener onMediaTimeDiscontinuityListener);
+
         void setOnSeekCompleteListener(MediaPlayer.OnSeekCompleteListener onSeekCompleteListener);
 
+        void addOnSeekCompleteListener(MediaPlayer.OnSeekCompleteListener onSeekCompleteListener);
+
+        void removeOnSeekCompleteListener(MediaPlayer.OnSeekCompleteListener onSeekCompleteListener);
+
+        void setOnInfoListener(MediaPlayer.OnInfoListener onInfoListener);
+
+        void addOnInfoListener(MediaPlayer.OnInfoListener onInfoListener);
+
+        void removeOnInfoListener(MediaPlayer.OnInfoListener onInfoListener);
+
+        void setOnPreparedListener(MediaPlayer.OnPreparedListener onPreparedListener);
+
+        void addOnPreparedListener(MediaPlayer.OnPreparedListener onPreparedListener);
+
+        void removeOnPreparedListener(MediaPlayer.OnPreparedListener onPreparedListener);
+
+        // Replaces the player's info and prepared listeners to trace startup and detect stalls. Call it before prepare
+        // and move listeners already set on the player to the wrapper. Setting either listener on the wrapper implies it.
+        void traceStartupAndStalls();
+
+        // Call these on the thread the player calls back on, the position tracker runs there
         void trackPlaybackPosition();
 
         void untrackPlaybackPosition();
@@ -608,11 +1459,34 @@ public final class TestFairyMediaPlayerGlue {
         TestFairyBridge getTestFairyBridge();
 
         void setTestFairyBridge(TestFairyBridge bridge);
+
+        // Rate limits and coalesces events sent by the default bridge, see TestFairyEventSampler.createDefault()
+        TestFairyEventSampler getEventSampler();
+
+        void setEventSampler(TestFairyEventSampler sampler);
+
+        // Drops repeated events before they reach the bridge, see TestFairyEventDeduplicator.createDefault()
+        TestFairyEventDeduplicator getEventDeduplicator();
+
+        void setEventDeduplicator(TestFairyEventDeduplicator deduplicator);
+
+        // Sends the quality-of-experience summary of the current session, sessions also end on completion. Call it on
+        // the thread the player calls back on.
+        void endPlaybackSession();
+
+        // Player getter reads requested by the glue, and how many of them actually called into the player
+        long getPlayerReadCount();
+
+        long getPlayerCallCount();
     }
 
     public interface PlayerAdapterWrapper {
         void setCallbacks(PlayerAdapter.Callback callbacks);
 
+        void addCallbacks(PlayerAdapter.Callback callbacks);
+
+        void removeCallbacks(PlayerAdapter.Callback callbacks);
+
         void trackPlaybackPosition();
 
         void untrackPlaybackPosition();
@@ -620,6 +1494,25 @@ public final class TestFairyMediaPlayerGlue {
         TestFairyBridge getTestFairyBridge();
 
         void setTestFairyBridge(TestFairyBridge bridge);
+
+        // Rate limits and coalesces events sent by the default bridge, see TestFairyEventSampler.createDefault()
+        TestFairyEventSampler getEventSampler();
+
+        void setEventSampler(TestFairyEventSampler sampler);
+
+        // Drops repeated events before they reach the bridge, see TestFairyEventDeduplicator.createDefault()
+        TestFairyEventDeduplicator getEventDeduplicator();
+
+        void setEventDeduplicator(TestFairyEventDeduplicator deduplicator);
+
+        // Sends the quality-of-experience summary of the current session, sessions also end on completion. Call it on
+        // the thread the player calls back on.
+        void endPlaybackSession();
+
+        // Player getter reads requested by the glue, and how many of them actually called into the player
+        long getPlayerReadCount();
+
+        long getPlayerCallCount();
     }
     //////////////////////////////////////////////////////////////
 }
@@ -0,0 +1,145 @@
+package com.testfairy.tvtest.testfairy;
+
+import android.os.SystemClock;
+
+// Cached view of the player getters used by the integrations. Most of them are binder or JNI round trips, and the
+// position tracker, wrapper callbacks and listeners often ask for the same values within a few milliseconds.
+//
+// Duration only changes with the media, so it is kept until invalidateDuration() is called from a duration, track,
+// prepare or play state callback. Position, buffered position and play state are cached by age, not per tick or per
+// callback: a value read less than MAX_AGE_MS ago is returned to every caller, so it can be up to that much stale, and
+// a burst of callbacks that straddles the age limit reads the player twice. invalidate() forces a fresh read after a
+// state change callback.
+//
+// The cache is not synchronized. Every read and invalidation happens on the thread the player calls back on: the
+// wrapper and listener callbacks run there, and TestFairyTickScheduler confines the position tracker to the same
+// looper. Counters can be read from any thread.
+abstract class TestFairyPlayerSnapshot {
+
+    static final long MAX_AGE_MS = 10;
+
+    private static final long NEVER = -MAX_AGE_MS;
+
+    // Cached values
+    private long duration = -1;
+    private long position;
+    private long positionReadMs = NEVER;
+    private long bufferedPosition;
+    private long bufferedPositionReadMs = NEVER;
+    private boolean playing;
+    private long playingReadMs = NEVER;
+    //////////////////////////////////////////////////////////////
+
+    // Counters
+    private volatile long readCount = 0;
+    private volatile long playerCallCount = 0;
+    //////////////////////////////////////////////////////////////
+
+    // Player getters
+    protected abstract long readDuration();
+
+    protected abstract long readCurrentPosition();
+
+    protected abstract boolean readIsPlaying();
+
+    protected long readBufferedPosition() {
+        return -1;
+    }
+
+    // Clock deciding when a cached value is too old
+    protected long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Cached reads, duration is in ms and 0 or less while unknown
+    final long getDuration() {
+        readCount = readCount + 1;
+
+        if (duration <= 0) {
+            duration = readDuration();
+            playerCallCount = playerCallCount + 1;
+        }
+
+        return duration;
+    }
+
+    final long getCurrentPosition() {
+        readCount = readCount + 1;
+
+        final long now = uptimeMillis();
+        if (now - positionReadMs >= MAX_AGE_MS) {
+            position = readCurrentPosition();
+            positionReadMs = now;
+            playerCallCount = playerCallCount + 1;
+
+            // Playing past the known end means the media changed without us hearing about it
+            if (duration > 0 && position > duration) {
+                duration = -1;
+            }
+        }
+
+        return position;
+    }
+
+    final long getBufferedPosition() {
+        readCount = readCount + 1;
+
+        final long now = uptimeMillis();
+        if (now - bufferedPositionReadMs >= MAX_AGE_MS) {
+            bufferedPosition = readBufferedPosition();
+            bufferedPositionReadMs = now;
+            playerCallCount = playerCallCount + 1;
+        }
+
+        return bufferedPosition;
+    }
+
+    final boolean isPlaying() {
+        readCount = readCount + 1;
+
+        final long now = uptimeMillis();
+        if (now - playingReadMs >= MAX_AGE_MS) {
+            playing = readIsPlaying();
+            playingReadMs = now;
+            playerCallCount = playerCallCount + 1;
+        }
+
+        return playing;
+    }
+
+    // Percent of the duration, -1 while the duration is unknown
+    final int getPositionPercent() {
+        final long knownDuration = getDuration();
+        return knownDuration > 0 ? (int) (getCurrentPosition() * 100 / knownDuration) : -1;
+    }
+
+    // Percent of the duration that is buffered, -1 while the duration is unknown
+    final int getBufferedPercent() {
+        final long knownDuration = getDuration();
+        return knownDuration > 0 ? (int) Math.max(0, Math.min(100, getBufferedPosition() * 100 / knownDuration)) : -1;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Invalidation
+    final void invalidateDuration() {
+        duration = -1;
+    }
+
+    final void invalidate() {
+        positionReadMs = NEVER;
+        bufferedPositionReadMs = NEVER;
+        playingReadMs = NEVER;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Reads requested by the integrations, and how many of them reached the player
+    final long getReadCount() {
+        return readCount;
+    }
+
+    final long getPlayerCallCount() {
+        return playerCallCount;
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,130 @@
+package com.testfairy.tvtest.testfairy;
+
+// Reports whole-percent playback position changes without polling at a fixed rate. After each sample, the time until
+// the next percent boundary is worked out from duration, position and playback speed, and the tracker sleeps until
+// then. A two hour movie needs a few hundred wakeups instead of one every 100 ms.
+//
+// Trackers of every player on the same looper share its TestFairyTickScheduler. A tracker is bound to the looper it is
+// started on, which must be the one the player calls back on, so samples never race with the player's callbacks. The
+// tracker parks itself while the player is paused and must be resynced on seek, rate change or resume.
+abstract class TestFairyPositionTracker extends TestFairyTickScheduler.Task {
+
+    static final long MIN_DELAY_MS = 100;
+    static final long MAX_DELAY_MS = 60000;
+    static final long UNKNOWN_DURATION_DELAY_MS = 1000;
+
+    // Wake up slightly after the boundary so that player clock jitter does not cost an extra sample
+    private static final long BOUNDARY_SLACK_MS = 20;
+
+    // State
+    private boolean running = false;
+    private float playbackSpeed = 1f;
+    private int lastKnownPercent = -1;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyPositionTracker() {
+    }
+
+    TestFairyPositionTracker(TestFairyTickScheduler scheduler) {
+        super(scheduler);
+    }
+
+    // Player access
+    protected abstract long getDuration();
+
+    protected abstract long getCurrentPosition();
+
+    protected boolean isPlaying() {
+        return true;
+    }
+
+    protected abstract void onPositionPercentChanged(int percent);
+
+    // Every position read, whether or not the percent changed
+    protected void onPositionSampled(long position, long duration) {
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Lifecycle, the first sample is taken MIN_DELAY_MS after start so that a player that was just created or is still
+    // preparing is not read right away
+    final void start() {
+        running = true;
+        getScheduler().schedule(this, MIN_DELAY_MS);
+    }
+
+    final void stop() {
+        if (running) {
+            running = false;
+            getScheduler().cancel(this);
+        }
+    }
+
+    final boolean isRunning() {
+        return running;
+    }
+
+    // Samples right away and reschedules, called on seek, resume or any other jump in playback time
+    final void resync() {
+        if (running) {
+            getScheduler().cancel(this);
+            sample();
+        }
+    }
+
+    final void setPlaybackSpeed(float playbackSpeed) {
+        this.playbackSpeed = playbackSpeed;
+        resync();
+    }
+
+    final void setLastKnownPercent(int percent) {
+        this.lastKnownPercent = percent;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Scheduling
+    @Override
+    protected final void onTick() {
+        if (running) {
+            sample();
+        }
+    }
+
+    private void sample() {
+        final long duration = getDuration();
+        long delay = UNKNOWN_DURATION_DELAY_MS;
+
+        if (duration > 0) {
+            final long position = getCurrentPosition();
+            final int percent = (int) ((position * 100) / duration);
+
+            onPositionSampled(position, duration);
+
+            if (lastKnownPercent != percent) {
+                lastKnownPercent = percent;
+                onPositionPercentChanged(percent);
+            }
+
+            if (playbackSpeed <= 0f || !isPlaying()) {
+                // Parked until the next resync
+                return;
+            }
+
+            delay = computeDelayMs(position, duration, playbackSpeed);
+        }
+
+        // The percent callback may have stopped the tracker
+        if (running) {
+            getScheduler().schedule(this, delay);
+        }
+    }
+
+    // Time until playback reaches the next whole-percent boundary
+    static long computeDelayMs(long position, long duration, float playbackSpeed) {
+        final long percent = (position * 100) / duration;
+        final long boundary = ((percent + 1) * duration + 99) / 100;
+        final long delay = (long) ((boundary - position) / playbackSpeed) + BOUNDARY_SLACK_MS;
+
+        return Math.max(MIN_DELAY_MS, Math.min(MAX_DELAY_MS, delay));
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,279 @@
+package com.testfairy.tvtest.testfairy;
+
+// Incremental quality-of-experience statistics for a single playback session. Player integrations report state
+// changes as they happen and the aggregator keeps a handful of counters, so memory stays constant no matter how long
+// the session runs. When the session ends, one compact summary replaces the raw event stream.
+//
+// Playing, paused and stalled come from TestFairyStallDetector through onPlaybackState, so stalls are classified the
+// same way everywhere. Only rebuffers count towards the rebuffer ratio, stalls caused by seeks are kept apart and
+// buffering before the first playback is part of startup.
+//
+// Every integration stamps the play intent where its startup trace starts, so startup times compare across players.
+// An integration that cannot see the play intent and buffering clears setStartupAndStallsTraced(), and the summary
+// then leaves startup and stalls out instead of reporting them as zero.
+//
+// All timestamps are on the SystemClock.elapsedRealtime() clock.
+final class TestFairyQoeMetrics {
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_STARTING = 1;
+    private static final int STATE_PLAYING = 2;
+    private static final int STATE_STALLED = 3;
+    private static final int STATE_PAUSED = 4;
+
+    // Session state
+    private int state = STATE_IDLE;
+    private long stateSinceMs;
+    private long sessionStartMs;
+
+    private long startupMs = -1;
+    private long firstFrameMs = -1;
+    private long playingMs;
+    private long stalledMs;
+    private long pausedMs;
+    private int stallCount;
+    private long seekStalledMs;
+    private int seekStallCount;
+    private int stallCause;
+
+    // Time weighted bitrate, only accumulated while playing
+    private long bitrate = -1;
+    private long bitrateWeightedSum;
+    private long bitrateWeightMs;
+
+    private long bandwidthSum;
+    private int bandwidthSamples;
+    private long droppedFrames;
+    private int errorCount;
+
+    // Set from the app's thread when tracing is enabled
+    private volatile boolean startupAndStallsTraced = true;
+    //////////////////////////////////////////////////////////////
+
+    void setStartupAndStallsTraced(boolean traced) {
+        startupAndStallsTraced = traced;
+    }
+
+    // Player state
+    void onPlayIntent(long nowMs) {
+        if (state == STATE_IDLE) {
+            reset();
+            sessionStartMs = nowMs;
+            enter(STATE_STARTING, nowMs);
+        }
+    }
+
+    void onPlaying(long nowMs) {
+        onPlayIntent(nowMs);
+
+        if (startupMs < 0) {
+            startupMs = nowMs - sessionStartMs;
+        }
+
+        enter(STATE_PLAYING, nowMs);
+    }
+
+    // Stalls are counted when they end, a stall's cause can still change from rebuffer to seek until then
+    void onStalled(int cause, long nowMs) {
+        onPlayIntent(nowMs);
+
+        // Buffering before the first playback is part of startup, not a rebuffer
+        if (cause == TestFairyStallDetector.CAUSE_INITIAL_LOAD) {
+            return;
+        }
+
+        if (state != STATE_STALLED) {
+            enter(STATE_STALLED, nowMs);
+        }
+
+        stallCause = cause;
+    }
+
+    void onPaused(long nowMs) {
+        if (state != STATE_IDLE) {
+            enter(STATE_PAUSED, nowMs);
+        }
+    }
+
+    // Follows TestFairyStallDetector.onStateChanged, the session itself ends through end()
+    void onPlaybackState(int detectorState, int stallCause, long nowMs) {
+        switch (detectorState) {
+            case TestFairyStallDetector.STATE_PLAYING:
+                onPlaying(nowMs);
+                break;
+            case TestFairyStallDetector.STATE_PAUSED:
+                onPaused(nowMs);
+                break;
+            case TestFairyStallDetector.STATE_STALLED:
+                onStalled(stallCause, nowMs);
+                break;
+        }
+    }
+
+    void onFirstFrame(long nowMs) {
+        if (state != STATE_IDLE && firstFrameMs < 0) {
+            firstFrameMs = nowMs - sessionStartMs;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Quality signals
+    void onBitrateChanged(long nowMs, long bitrate) {
+        // Re-entering the state closes the interval played at the old bitrate
+        if (state == STATE_PLAYING) {
+            enter(STATE_PLAYING, nowMs);
+        }
+
+        this.bitrate = bitrate;
+    }
+
+    void onBandwidthEstimate(long bitrateEstimate) {
+        if (state != STATE_IDLE) {
+            bandwidthSum += bitrateEstimate;
+            bandwidthSamples++;
+        }
+    }
+
+    void onDroppedFrames(int count) {
+        if (state != STATE_IDLE) {
+            droppedFrames += count;
+        }
+    }
+
+    void onError() {
+        if (state != STATE_IDLE) {
+            errorCount++;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Ends the session and returns its summary, or null if there was no session
+    Summary end(long nowMs) {
+        if (state == STATE_IDLE) {
+            return null;
+        }
+
+        enter(STATE_IDLE, nowMs);
+
+        final Summary summary = new Summary();
+        summary.durationMs = nowMs - sessionStartMs;
+        summary.startupMs = startupMs;
+        summary.firstFrameMs = firstFrameMs;
+        summary.playingMs = playingMs;
+        summary.stalledMs = stalledMs;
+        summary.pausedMs = pausedMs;
+        summary.stallCount = stallCount;
+        summary.seekStalledMs = seekStalledMs;
+        summary.seekStallCount = seekStallCount;
+        summary.averageBitrate = bitrateWeightMs > 0 ? bitrateWeightedSum / bitrateWeightMs : -1;
+        summary.averageBandwidth = bandwidthSamples > 0 ? bandwidthSum / bandwidthSamples : -1;
+        summary.droppedFrames = droppedFrames;
+        summary.errorCount = errorCount;
+        summary.startupAndStallsTraced = startupAndStallsTraced;
+        return summary;
+    }
+
+    boolean isActive() {
+        return state != STATE_IDLE;
+    }
+
+    private void enter(int newState, long nowMs) {
+        final long elapsed = Math.max(0, nowMs - stateSinceMs);
+
+        switch (state) {
+            case STATE_PLAYING:
+                playingMs += elapsed;
+                accumulateBitrate(elapsed);
+                break;
+            case STATE_STALLED:
+                if (stallCause == TestFairyStallDetector.CAUSE_SEEK) {
+                    seekStalledMs += elapsed;
+                    seekStallCount++;
+                } else {
+                    stalledMs += elapsed;
+                    stallCount++;
+                }
+                break;
+            case STATE_PAUSED:
+                pausedMs += elapsed;
+                break;
+        }
+
+        state = newState;
+        stateSinceMs = nowMs;
+    }
+
+    private void accumulateBitrate(long elapsedMs) {
+        if (bitrate > 0 && elapsedMs > 0) {
+            bitrateWeightedSum += bitrate * elapsedMs;
+            bitrateWeightMs += elapsedMs;
+        }
+    }
+
+    private void reset() {
+        startupMs = -1;
+        firstFrameMs = -1;
+        playingMs = 0;
+        stalledMs = 0;
+        pausedMs = 0;
+        stallCount = 0;
+        seekStalledMs = 0;
+        seekStallCount = 0;
+        bitrateWeightedSum = 0;
+        bitrateWeightMs = 0;
+        bandwidthSum = 0;
+        bandwidthSamples = 0;
+        droppedFrames = 0;
+        errorCount = 0;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Summary, formatted lazily when the event is sent
+    static final class Summary {
+        long durationMs;
+        long startupMs;
+        long firstFrameMs;
+        long playingMs;
+        long stalledMs;
+        long pausedMs;
+        int stallCount;
+        long seekStalledMs;
+        int seekStallCount;
+        long averageBitrate;
+        long averageBandwidth;
+        long droppedFrames;
+        int errorCount;
+        boolean startupAndStallsTraced;
+
+        // Share of watch time spent rebuffering, in hundredths of a percent
+        long getRebufferRatioBasisPoints() {
+            final long watchedMs = playingMs + stalledMs;
+            return watchedMs > 0 ? stalledMs * 10000 / watchedMs : 0;
+        }
+
+        @Override
+        public String toString() {
+            final long ratio = getRebufferRatioBasisPoints();
+            final StringBuilder out = new StringBuilder(192);
+
+            if (startupAndStallsTraced) {
+                out.append("startup ").append(startupMs).append("ms");
+                out.append(", first frame ").append(firstFrameMs).append("ms, ");
+            }
+            out.append("played ").append(playingMs / 1000).append('s');
+            out.append(", paused ").append(pausedMs / 1000).append('s');
+            if (startupAndStallsTraced) {
+                out.append(", rebuffers ").append(stallCount).append(" (").append(stalledMs).append("ms, ratio ")
+                        .append(ratio / 100).append('.').append(ratio % 100 < 10 ? "0" : "").append(ratio % 100)
+                        .append("%)");
+                out.append(", seek stalls ").append(seekStallCount).append(" (").append(seekStalledMs).append("ms)");
+            }
+            out.append(", avg bitrate ").append(averageBitrate < 0 ? -1 : averageBitrate / 1000).append("kbps");
+            out.append(", avg bandwidth ").append(averageBandwidth < 0 ? -1 : averageBandwidth / 1000).append("kbps");
+            out.append(", dropped frames ").append(droppedFrames);
+            out.append(", errors ").append(errorCount);
+            return out.toString();
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,294 @@
+package com.testfairy.tvtest.testfairy;
+
+// Rolls up media loads per data type and per host between two flushes.
+//
+// Every load updates a couple of counters and a TestFairyHistogram of load durations, both for its data type and for
+// its host. Hosts are kept in a small LRU of MAX_HOSTS entries; when a new host pushes out the least recently used
+// one, the evicted counts are folded into an "other hosts" row so that totals stay exact. Memory is fixed no matter
+// how many loads or hosts a session sees.
+//
+// flush() hands the rollup over as one event and starts a new period, so a slow CDN shows up in one event per
+// FLUSH_INTERVAL_MS instead of one event per segment.
+//
+// Loads are reported from the analytics listener's thread.
+final class TestFairySegmentLoadStats {
+
+    static final int TYPE_MEDIA = 0;
+    static final int TYPE_INITIALIZATION = 1;
+    static final int TYPE_MANIFEST = 2;
+    static final int TYPE_DRM = 3;
+    static final int TYPE_OTHER = 4;
+
+    static final int MAX_HOSTS = 8;
+    static final long FLUSH_INTERVAL_MS = 60000;
+
+    private static final String[] TYPE_NAMES = {"media", "init", "manifest", "drm", "other"};
+    private static final String OTHER_HOSTS = "other hosts";
+    private static final String UNKNOWN_HOST = "unknown host";
+
+    // Rows
+    private final Row[] types = new Row[TYPE_NAMES.length];
+    private final Row[] hosts = new Row[MAX_HOSTS];
+    private final Row otherHosts = new Row();
+    private long accessCount = 0;
+    private long periodStartMs = -1;
+    //////////////////////////////////////////////////////////////
+
+    TestFairySegmentLoadStats() {
+        for (int i = 0; i < types.length; i++) {
+            types[i] = new Row();
+            types[i].name = TYPE_NAMES[i];
+        }
+
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = new Row();
+        }
+
+        otherHosts.name = OTHER_HOSTS;
+    }
+
+    // Loads
+    void onLoadCompleted(long nowMs, int type, String host, long bytes, long durationMs) {
+        startPeriod(nowMs);
+
+        types[type].addLoad(bytes, durationMs);
+        hostRow(host).addLoad(bytes, durationMs);
+    }
+
+    void onLoadCanceled(long nowMs, int type, String host) {
+        startPeriod(nowMs);
+
+        types[type].canceled++;
+        hostRow(host).canceled++;
+    }
+
+    void onLoadError(long nowMs, int type, String host) {
+        startPeriod(nowMs);
+
+        types[type].errors++;
+        hostRow(host).errors++;
+    }
+
+    // Media that was loaded but thrown away before playing, only known per type
+    void onUpstreamDiscarded(long nowMs, int type, long mediaDurationMs) {
+        startPeriod(nowMs);
+
+        types[type].discarded++;
+        types[type].discardedMediaMs += Math.max(0, mediaDurationMs);
+    }
+
+    boolean isFlushDue(long nowMs) {
+        return periodStartMs >= 0 && nowMs - periodStartMs >= FLUSH_INTERVAL_MS;
+    }
+
+    private void startPeriod(long nowMs) {
+        if (periodStartMs < 0) {
+            periodStartMs = nowMs;
+        }
+    }
+
+    // Least recently used host is folded into the other hosts row when a new host needs its slot
+    private Row hostRow(String host) {
+        final String name = host != null ? host : UNKNOWN_HOST;
+        Row oldest = hosts[0];
+
+        for (Row row : hosts) {
+            if (name.equals(row.name)) {
+                row.lastAccess = ++accessCount;
+                return row;
+            }
+
+            if (row.lastAccess < oldest.lastAccess) {
+                oldest = row;
+            }
+        }
+
+        if (oldest.name != null) {
+            otherHosts.merge(oldest);
+            oldest.clear();
+        }
+
+        oldest.name = name;
+        oldest.lastAccess = ++accessCount;
+        return oldest;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Ends the period, returns null if nothing was loaded. Hosts keep their LRU slots across periods.
+    Rollup flush(long nowMs) {
+        if (periodStartMs < 0) {
+            return null;
+        }
+
+        final Rollup rollup = new Rollup();
+        rollup.periodMs = nowMs - periodStartMs;
+        rollup.types = lines(types, null);
+        rollup.hosts = lines(hosts, otherHosts);
+
+        for (Row row : types) {
+            row.clear();
+        }
+
+        for (Row row : hosts) {
+            row.clear();
+        }
+
+        otherHosts.clear();
+        periodStartMs = -1;
+        return rollup;
+    }
+
+    private static Line[] lines(Row[] rows, Row extra) {
+        int count = 0;
+        for (Row row : rows) {
+            if (row.isUsed()) {
+                count++;
+            }
+        }
+
+        final boolean withExtra = extra != null && extra.isUsed();
+        final Line[] lines = new Line[count + (withExtra ? 1 : 0)];
+        int next = 0;
+
+        for (Row row : rows) {
+            if (row.isUsed()) {
+                lines[next++] = row.toLine();
+            }
+        }
+
+        if (withExtra) {
+            lines[next] = extra.toLine();
+        }
+
+        return lines;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Counters of one data type or host
+    private static final class Row {
+        String name;
+        long lastAccess;
+        long loads;
+        long bytes;
+        long durationMs;
+        long canceled;
+        long errors;
+        long discarded;
+        long discardedMediaMs;
+        final TestFairyHistogram durations = new TestFairyHistogram("load");
+
+        void addLoad(long bytes, long durationMs) {
+            loads++;
+            this.bytes += Math.max(0, bytes);
+            this.durationMs += Math.max(0, durationMs);
+            durations.record(durationMs);
+        }
+
+        void merge(Row other) {
+            loads += other.loads;
+            bytes += other.bytes;
+            durationMs += other.durationMs;
+            canceled += other.canceled;
+            errors += other.errors;
+            discarded += other.discarded;
+            discardedMediaMs += other.discardedMediaMs;
+            durations.merge(other.durations);
+        }
+
+        boolean isUsed() {
+            return loads > 0 || canceled > 0 || errors > 0 || discarded > 0;
+        }
+
+        // Counters only, the name and LRU position stay
+        void clear() {
+            loads = 0;
+            bytes = 0;
+            durationMs = 0;
+            canceled = 0;
+            errors = 0;
+            discarded = 0;
+            discardedMediaMs = 0;
+            durations.reset();
+        }
+
+        Line toLine() {
+            final Line line = new Line();
+            line.name = name;
+            line.loads = loads;
+            line.bytes = bytes;
+            line.throughput = durationMs > 0 ? bytes * 8000 / durationMs : -1;
+            line.p50 = durations.getPercentile(50);
+            line.p95 = durations.getPercentile(95);
+            line.max = durations.getMax();
+            line.canceled = canceled;
+            line.errors = errors;
+            line.discarded = discarded;
+            line.discardedMediaMs = discardedMediaMs;
+            return line;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Formatted lazily when the event is sent
+    static final class Rollup {
+        long periodMs;
+        Line[] types;
+        Line[] hosts;
+
+        @Override
+        public String toString() {
+            final StringBuilder out = new StringBuilder(128 * (types.length + hosts.length));
+
+            out.append("last ").append(periodMs / 1000).append('s');
+            for (Line line : types) {
+                line.appendTo(out.append(", "));
+            }
+
+            out.append(", hosts:");
+            for (int i = 0; i < hosts.length; i++) {
+                hosts[i].appendTo(out.append(i == 0 ? " " : ", "));
+            }
+
+            return out.toString();
+        }
+    }
+
+    static final class Line {
+        String name;
+        long loads;
+        long bytes;
+        long throughput;
+        long p50;
+        long p95;
+        long max;
+        long canceled;
+        long errors;
+        long discarded;
+        long discardedMediaMs;
+
+        void appendTo(StringBuilder out) {
+            out.append(name).append(' ').append(loads).append(" loads");
+
+            if (loads > 0) {
+                out.append(' ').append(bytes / 1024).append("KB");
+                out.append(" at ").append(throughput < 0 ? -1 : throughput / 1000).append("kbps");
+                out.append(" p50 ").append(p50).append("ms");
+                out.append(" p95 ").append(p95).append("ms");
+                out.append(" max ").append(max).append("ms");
+            }
+
+            if (canceled > 0) {
+                out.append(", ").append(canceled).append(" canceled");
+            }
+
+            if (errors > 0) {
+                out.append(", ").append(errors).append(" failed");
+            }
+
+            if (discarded > 0) {
+                out.append(", ").append(discarded).append(" discarded (").append(discardedMediaMs).append("ms)");
+            }
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,123 @@
+package com.testfairy.tvtest.testfairy;
+
+// Playback state machine shared by the MediaPlayer, PlayerAdapter and ExoPlayer integrations. It is the only place
+// that turns player callbacks into playing, paused and stalled, and the QoE metrics follow it through onStateChanged.
+//
+// A stall starts when the player reports buffering and ends when buffering ends, the user pauses or the session ends.
+// Every stall is reported once through onStall with its duration and cause:
+//
+//   CAUSE_INITIAL_LOAD  buffering before the first frame was played
+//   CAUSE_SEEK          buffering caused by a seek, including seeks reported while already buffering
+//   CAUSE_REBUFFER      buffering in the middle of playback, the one users complain about
+//
+// Integrations feed transitions from the playback thread with SystemClock.elapsedRealtime() timestamps.
+abstract class TestFairyStallDetector {
+
+    // Same values as TestFairyBridgeConstants.STALL_*
+    static final int CAUSE_INITIAL_LOAD = 0;
+    static final int CAUSE_SEEK = 1;
+    static final int CAUSE_REBUFFER = 2;
+
+    static final int STATE_IDLE = 0;
+    static final int STATE_PLAYING = 1;
+    static final int STATE_PAUSED = 2;
+    static final int STATE_STALLED = 3;
+
+    // State
+    private int state = STATE_IDLE;
+    private boolean hasPlayed = false;
+    private boolean seekPending = false;
+    private int stallCause;
+    private long stallStartMs;
+    //////////////////////////////////////////////////////////////
+
+    // Callbacks, called on the thread that reported the transition
+    protected abstract void onStall(int cause, long durationMs);
+
+    // Called whenever the state changes, and again for an ongoing stall whose cause turns out to be a seek. The cause
+    // is only meaningful for STATE_STALLED.
+    protected void onStateChanged(int state, int cause, long nowMs) {
+    }
+
+    // Transitions
+    final void onBufferingStarted(long nowMs) {
+        if (state == STATE_STALLED) {
+            return;
+        }
+
+        if (!hasPlayed) {
+            stallCause = CAUSE_INITIAL_LOAD;
+        } else if (seekPending) {
+            stallCause = CAUSE_SEEK;
+        } else {
+            stallCause = CAUSE_REBUFFER;
+        }
+
+        stallStartMs = nowMs;
+        enter(STATE_STALLED, nowMs);
+    }
+
+    final void onBufferingEnded(long nowMs, boolean isPlaying) {
+        if (state == STATE_STALLED) {
+            endStall(nowMs);
+        }
+
+        hasPlayed = true;
+        seekPending = false;
+        enter(isPlaying ? STATE_PLAYING : STATE_PAUSED, nowMs);
+    }
+
+    final void onPlaying(long nowMs) {
+        // Some players report play state changes in the middle of buffering, only buffering end closes a stall
+        if (state != STATE_STALLED) {
+            hasPlayed = true;
+            seekPending = false;
+            enter(STATE_PLAYING, nowMs);
+        }
+    }
+
+    final void onPaused(long nowMs) {
+        if (state == STATE_STALLED) {
+            endStall(nowMs);
+        }
+
+        enter(STATE_PAUSED, nowMs);
+    }
+
+    final void onSeek(long nowMs) {
+        seekPending = true;
+
+        // Players that report the seek late still get the stall attributed to it, unless it is the first load
+        if (state == STATE_STALLED && stallCause == CAUSE_REBUFFER) {
+            stallCause = CAUSE_SEEK;
+            onStateChanged(STATE_STALLED, stallCause, nowMs);
+        }
+    }
+
+    // Closes an ongoing stall and forgets the session
+    final void end(long nowMs) {
+        if (state == STATE_STALLED) {
+            endStall(nowMs);
+        }
+
+        hasPlayed = false;
+        seekPending = false;
+        enter(STATE_IDLE, nowMs);
+    }
+
+    final boolean isStalled() {
+        return state == STATE_STALLED;
+    }
+
+    private void endStall(long nowMs) {
+        onStall(stallCause, Math.max(0, nowMs - stallStartMs));
+    }
+
+    private void enter(int newState, long nowMs) {
+        if (state != newState) {
+            state = newState;
+            onStateChanged(newState, stallCause, nowMs);
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
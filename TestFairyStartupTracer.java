@@ -0,0 +1,171 @@
+package com.testfairy.tvtest.testfairy;
+
+// Breaks the time from a play intent to the first rendered frame down into phases.
+//
+// A trace starts at the first sign of a new playback (prepare, the first load, the first play request) and every
+// phase is stamped once, relative to that start, the first time it is reached. Phases that do not apply to a player or
+// to the media, DRM license for clear content for example, are simply never stamped. The trace ends on the first frame,
+// or early when the session ends before it, and is reported as a single waterfall. New media in the same session, a
+// new data source or the next playlist item, restarts the trace.
+//
+// Integrations mark phases from the player's callback thread with SystemClock.elapsedRealtime() timestamps.
+final class TestFairyStartupTracer {
+
+    static final int PHASE_PREPARED = 0;
+    static final int PHASE_MANIFEST_LOADED = 1;
+    static final int PHASE_TRACKS_SELECTED = 2;
+    static final int PHASE_MEDIA_PERIOD_CREATED = 3;
+    static final int PHASE_FIRST_SEGMENT_LOADED = 4;
+    static final int PHASE_DRM_KEYS_LOADED = 5;
+    static final int PHASE_DECODER_INITIALIZED = 6;
+    static final int PHASE_READING_STARTED = 7;
+    static final int PHASE_READY = 8;
+    static final int PHASE_PLAYBACK_STARTED = 9;
+    static final int PHASE_FIRST_FRAME = 10;
+
+    private static final String[] PHASE_NAMES = {
+            "prepared",
+            "manifest",
+            "tracks",
+            "media period",
+            "first segment",
+            "drm keys",
+            "decoder",
+            "reading",
+            "ready",
+            "playing",
+            "first frame"
+    };
+
+    private static final int STATE_ARMED = 0;
+    private static final int STATE_TRACING = 1;
+    private static final int STATE_DONE = 2;
+
+    // Trace, offsets are -1 until a phase is reached
+    private final long[] offsets = new long[PHASE_NAMES.length];
+    private int state = STATE_ARMED;
+    private long startMs;
+    //////////////////////////////////////////////////////////////
+
+    // Tracing
+    // Starts a trace unless one was already started since the last reset
+    void start(long nowMs) {
+        if (state != STATE_ARMED) {
+            return;
+        }
+
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = -1;
+        }
+
+        startMs = nowMs;
+        state = STATE_TRACING;
+    }
+
+    // Starts a trace for new media, returns the trace in progress if it got anywhere so that it can still be reported
+    Waterfall restart(long nowMs) {
+        final Waterfall previous = state == STATE_TRACING && hasReachedAnyPhase() ? finish(nowMs) : null;
+
+        state = STATE_ARMED;
+        start(nowMs);
+        return previous;
+    }
+
+    void mark(int phase, long nowMs) {
+        if (state == STATE_TRACING && offsets[phase] < 0) {
+            offsets[phase] = Math.max(0, nowMs - startMs);
+        }
+    }
+
+    boolean isArmed() {
+        return state == STATE_ARMED;
+    }
+
+    boolean isTracing() {
+        return state == STATE_TRACING;
+    }
+
+    // Whether the current or last trace stamped the phase
+    boolean hasReached(int phase) {
+        return state != STATE_ARMED && offsets[phase] >= 0;
+    }
+
+    private boolean hasReachedAnyPhase() {
+        for (long offset : offsets) {
+            if (offset >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Ends the trace, returns null if there was none. The next trace starts after reset().
+    Waterfall finish(long nowMs) {
+        if (state != STATE_TRACING) {
+            return null;
+        }
+
+        state = STATE_DONE;
+
+        final Waterfall waterfall = new Waterfall();
+        waterfall.offsets = offsets.clone();
+        waterfall.totalMs = Math.max(0, nowMs - startMs);
+        return waterfall;
+    }
+
+    // Forgets the trace so that the next playback is traced, called when a playback session ends
+    void reset() {
+        state = STATE_ARMED;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Formatted lazily when the event is sent
+    static final class Waterfall {
+        long[] offsets;
+        long totalMs;
+
+        // Time to first frame, -1 if the trace ended without one
+        long getFirstFrameMs() {
+            return offsets[PHASE_FIRST_FRAME];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder out = new StringBuilder(192);
+
+            if (getFirstFrameMs() >= 0) {
+                out.append("first frame after ").append(getFirstFrameMs()).append("ms");
+            } else {
+                out.append("ended after ").append(totalMs).append("ms without a frame");
+            }
+
+            // Phases in the order they were reached
+            long previous = -1;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < offsets.length; i++) {
+                    if (offsets[i] > previous && i != PHASE_FIRST_FRAME
+                            && (next < 0 || offsets[i] < offsets[next])) {
+                        next = i;
+                    }
+                }
+
+                if (next < 0) {
+                    break;
+                }
+
+                for (int i = 0; i < offsets.length; i++) {
+                    if (offsets[i] == offsets[next] && i != PHASE_FIRST_FRAME) {
+                        out.append(", ").append(PHASE_NAMES[i]).append(' ').append(offsets[i]).append("ms");
+                    }
+                }
+
+                previous = offsets[next];
+            }
+
+            return out.toString();
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
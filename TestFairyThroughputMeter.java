@@ -0,0 +1,229 @@
+package com.testfairy.tvtest.testfairy;
+
+// Streaming network throughput statistics for a single player.
+//
+// Each transfer sample (bytes over milliseconds) updates an exponentially weighted moving average whose decay depends
+// on the sample duration, a sliding window over the last WINDOW_SIZE samples, min/max and a running variance. All
+// state lives in primitive fields and two fixed arrays, so a sample costs a few arithmetic operations and no
+// allocation.
+//
+// Callers only hear about the estimate when it moves to a different band. Band bounds are in bits per second and a
+// band is only left once the estimate is HYSTERESIS_PERCENT past its bound, so an estimate hovering around a bound
+// does not produce an event for every sample.
+//
+// Samples are reported from the playback thread only.
+final class TestFairyThroughputMeter {
+
+    static final long[] DEFAULT_BANDS = {0, 500000, 1500000, 3000000, 6000000, 12000000};
+
+    static final int NO_BAND = -1;
+
+    private static final int WINDOW_SIZE = 16;
+    private static final double EWMA_TIME_CONSTANT_MS = 3000;
+    private static final int HYSTERESIS_PERCENT = 10;
+
+    // Bands
+    private long[] bands;
+    private int band = NO_BAND;
+    //////////////////////////////////////////////////////////////
+
+    // Sliding window
+    private final long[] windowBits = new long[WINDOW_SIZE];
+    private final long[] windowMs = new long[WINDOW_SIZE];
+    private int windowNext = 0;
+    private long windowBitsSum;
+    private long windowMsSum;
+    //////////////////////////////////////////////////////////////
+
+    // Statistics
+    private double ewma = -1;
+    private long sampleCount;
+    private double mean;
+    private double squaredDeviationSum;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+    private long playerEstimate = -1;
+    private long lastLoadThroughput = -1;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyThroughputMeter() {
+        this(DEFAULT_BANDS);
+    }
+
+    TestFairyThroughputMeter(long[] bands) {
+        this.bands = checkBands(bands).clone();
+    }
+
+    // Replaces the band bounds and keeps the statistics, the next sample reports its band under the new bounds
+    void setBands(long[] bands) {
+        this.bands = checkBands(bands).clone();
+        this.band = NO_BAND;
+    }
+
+    static long[] checkBands(long[] bands) {
+        if (bands.length == 0) {
+            throw new IllegalArgumentException("At least one band is required.");
+        }
+
+        for (int i = 1; i < bands.length; i++) {
+            if (bands[i] <= bands[i - 1]) {
+                throw new IllegalArgumentException("Band bounds must be increasing.");
+            }
+        }
+
+        return bands;
+    }
+
+    // Sampling
+    // Adds a bandwidth sample reported by the player. Returns the new band if the estimate moved to another band,
+    // NO_BAND otherwise.
+    int onBandwidthSample(long elapsedMs, long bytes, long playerBitrateEstimate) {
+        if (playerBitrateEstimate > 0) {
+            playerEstimate = playerBitrateEstimate;
+        }
+
+        return addSample(elapsedMs, bytes);
+    }
+
+    // Throughput of a single completed load, kept as context for the next stall
+    void onLoadCompleted(long elapsedMs, long bytes) {
+        if (elapsedMs > 0 && bytes > 0) {
+            lastLoadThroughput = bytes * 8000 / elapsedMs;
+        }
+    }
+
+    private int addSample(long elapsedMs, long bytes) {
+        if (elapsedMs <= 0 || bytes <= 0) {
+            return NO_BAND;
+        }
+
+        final long bits = bytes * 8;
+        final long throughput = bits * 1000 / elapsedMs;
+
+        // Longer samples carry more weight
+        if (ewma < 0) {
+            ewma = throughput;
+        } else {
+            final double alpha = 1 - Math.exp(-elapsedMs / EWMA_TIME_CONSTANT_MS);
+            ewma += alpha * (throughput - ewma);
+        }
+
+        windowBitsSum += bits - windowBits[windowNext];
+        windowMsSum += elapsedMs - windowMs[windowNext];
+        windowBits[windowNext] = bits;
+        windowMs[windowNext] = elapsedMs;
+        windowNext = (windowNext + 1) % WINDOW_SIZE;
+
+        // Welford's running variance
+        sampleCount++;
+        final double delta = throughput - mean;
+        mean += delta / sampleCount;
+        squaredDeviationSum += delta * (throughput - mean);
+
+        min = Math.min(min, throughput);
+        max = Math.max(max, throughput);
+
+        return updateBand((long) ewma);
+    }
+
+    private int updateBand(long estimate) {
+        if (band != NO_BAND) {
+            final long lower = bands[band] - bands[band] * HYSTERESIS_PERCENT / 100;
+            final long upper = band + 1 < bands.length
+                    ? bands[band + 1] + bands[band + 1] * HYSTERESIS_PERCENT / 100
+                    : Long.MAX_VALUE;
+
+            if (estimate >= lower && estimate < upper) {
+                return NO_BAND;
+            }
+        }
+
+        int next = 0;
+        while (next + 1 < bands.length && estimate >= bands[next + 1]) {
+            next++;
+        }
+
+        if (next == band) {
+            return NO_BAND;
+        }
+
+        band = next;
+        return band;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Reads, all throughput values are in bits per second and -1 when unknown
+    long getBandLowerBound(int index) {
+        return bands[index];
+    }
+
+    long getSmoothedThroughput() {
+        return ewma < 0 ? -1 : (long) ewma;
+    }
+
+    long getWindowThroughput() {
+        return windowMsSum > 0 ? windowBitsSum * 1000 / windowMsSum : -1;
+    }
+
+    long getLastLoadThroughput() {
+        return lastLoadThroughput;
+    }
+
+    long getStandardDeviation() {
+        return sampleCount > 1 ? (long) Math.sqrt(squaredDeviationSum / (sampleCount - 1)) : -1;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Ends the session statistics, returns null if no sample was seen. The smoothed estimate and band carry over since
+    // the network usually outlives a playback session.
+    Summary end() {
+        if (sampleCount == 0) {
+            return null;
+        }
+
+        final Summary summary = new Summary();
+        summary.sampleCount = sampleCount;
+        summary.smoothed = getSmoothedThroughput();
+        summary.window = getWindowThroughput();
+        summary.mean = (long) mean;
+        summary.standardDeviation = getStandardDeviation();
+        summary.min = min;
+        summary.max = max;
+        summary.playerEstimate = playerEstimate;
+
+        sampleCount = 0;
+        mean = 0;
+        squaredDeviationSum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+
+        return summary;
+    }
+
+    static final class Summary {
+        long sampleCount;
+        long smoothed;
+        long window;
+        long mean;
+        long standardDeviation;
+        long min;
+        long max;
+        long playerEstimate;
+
+        @Override
+        public String toString() {
+            final StringBuilder out = new StringBuilder(160);
+
+            out.append("samples ").append(sampleCount);
+            out.append(", mean ").append(mean / 1000).append("kbps");
+            out.append(", stddev ").append(standardDeviation < 0 ? -1 : standardDeviation / 1000).append("kbps");
+            out.append(", min ").append(min / 1000).append("kbps");
+            out.append(", max ").append(max / 1000).append("kbps");
+            out.append(", smoothed ").append(smoothed < 0 ? -1 : smoothed / 1000).append("kbps");
+            out.append(", window ").append(window < 0 ? -1 : window / 1000).append("kbps");
+            out.append(", player estimate ").append(playerEstimate < 0 ? -1 : playerEstimate / 1000).append("kbps");
+            return out.toString();
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
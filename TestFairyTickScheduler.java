@@ -0,0 +1,328 @@
+package com.testfairy.tvtest.testfairy;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// A timer shared by every wrapped player on the same looper. Tasks are kept on a hashed timer wheel, scheduling and
+// cancelling are O(1) and all tasks that are due at the same tick are run in one pass. The timer only wakes up when
+// the earliest task is due, so idle or parked players cost nothing.
+//
+// There is one wheel per looper, and tasks run on the looper of their wheel, or on whatever thread the Timer given to
+// the constructor wakes up on. Players call back on the looper of the thread that created them, so a task that is
+// driven by player callbacks uses the wheel of that looper and never shares its state with another thread. Such tasks
+// get their wheel through Task.getScheduler(), which binds it on first use and fails fast when called from any other
+// thread afterwards.
+final class TestFairyTickScheduler {
+
+    static final long TICK_MS = 100;
+
+    // Must be a power of two
+    private static final int WHEEL_SIZE = 64;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    // Wheels by looper, see getInstance()
+    private static final Map<Looper, WeakReference<TestFairyTickScheduler>> instances = new WeakHashMap<>();
+
+    // Wakes the scheduler up, a Handler on the wheel's looper unless a test passes its own clock
+    interface Timer {
+        long uptimeMillis();
+
+        long elapsedRealtime();
+
+        void postAtTime(Runnable tick, long uptimeMs);
+
+        void removeCallbacks(Runnable tick);
+
+        // True on the thread the timer wakes up on
+        boolean isCurrentThread();
+    }
+
+    // Tasks are intrusive list nodes so that the wheel never allocates
+    abstract static class Task {
+        private Task previous;
+        private Task next;
+        private Task nextDue;
+        private int slot = -1;
+        private int rounds;
+
+        // Due in the pass being run, cleared when the task is cancelled or rescheduled before its turn
+        private boolean collected;
+
+        // Wheel of a task that is confined to one thread, see getScheduler()
+        private TestFairyTickScheduler scheduler;
+
+        Task() {
+        }
+
+        Task(TestFairyTickScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        protected abstract void onTick();
+
+        // Wheel of the looper this task was first used on, unless one was given to the constructor. Every use must
+        // come from the thread of that wheel, so that the task is only ever touched by the player callbacks that
+        // drive it and by its own ticks.
+        protected final TestFairyTickScheduler getScheduler() {
+            if (scheduler == null) {
+                scheduler = getInstance();
+            }
+
+            scheduler.checkThread();
+            return scheduler;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // State
+    private final Timer timer;
+    private final Task[] wheel = new Task[WHEEL_SIZE];
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            onTimerTick();
+        }
+    };
+
+    private int cursor = 0;
+    private int scheduledCount = 0;
+
+    // Uptime of the last processed tick, slot (cursor + n) is due at baseUptimeMs + (n + 1) * TICK_MS
+    private long baseUptimeMs = 0;
+
+    private boolean timerPosted = false;
+    private boolean runningDueTasks = false;
+    private long nextWakeUptimeMs = 0;
+    //////////////////////////////////////////////////////////////
+
+    TestFairyTickScheduler(Timer timer) {
+        this.timer = timer;
+    }
+
+    // Wheel of the calling thread's looper, or of the main looper on threads without one. Wheels are created on first
+    // use and dropped once no task or component refers to them.
+    static TestFairyTickScheduler getInstance() {
+        Looper looper = Looper.myLooper();
+        if (looper == null) {
+            looper = Looper.getMainLooper();
+        }
+
+        synchronized (instances) {
+            final WeakReference<TestFairyTickScheduler> reference = instances.get(looper);
+            TestFairyTickScheduler instance = reference != null ? reference.get() : null;
+
+            if (instance == null) {
+                instance = new TestFairyTickScheduler(new LooperTimer(looper));
+                instances.put(looper, new WeakReference<>(instance));
+            }
+
+            return instance;
+        }
+    }
+
+    // Scheduling
+    synchronized void schedule(Task task, long delayMs) {
+        final long now = timer.uptimeMillis();
+
+        task.collected = false;
+        if (task.slot >= 0) {
+            unlink(task);
+        }
+
+        if (scheduledCount == 0) {
+            baseUptimeMs = now;
+        }
+
+        final long ticks = Math.max(1, (now + delayMs - baseUptimeMs + TICK_MS - 1) / TICK_MS);
+        link(task, (int) ((cursor + ticks - 1) & WHEEL_MASK), (int) ((ticks - 1) / WHEEL_SIZE));
+
+        final long dueUptimeMs = baseUptimeMs + ticks * TICK_MS;
+        if (!runningDueTasks && (!timerPosted || dueUptimeMs < nextWakeUptimeMs)) {
+            postWake(dueUptimeMs);
+        }
+    }
+
+    synchronized void cancel(Task task) {
+        task.collected = false;
+        if (task.slot >= 0) {
+            unlink(task);
+        }
+
+        if (scheduledCount == 0 && timerPosted) {
+            timer.removeCallbacks(tick);
+            timerPosted = false;
+        }
+    }
+
+    synchronized int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    // Clocks of the timer, so that tasks can be driven by a test clock
+    long uptimeMillis() {
+        return timer.uptimeMillis();
+    }
+
+    long elapsedRealtime() {
+        return timer.elapsedRealtime();
+    }
+
+    void checkThread() {
+        if (!timer.isCurrentThread()) {
+            throw new IllegalStateException("Player events must arrive on the looper that created the player.");
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Timer
+    private void onTimerTick() {
+        Task due = null;
+
+        synchronized (this) {
+            timerPosted = false;
+            runningDueTasks = true;
+
+            final long now = timer.uptimeMillis();
+            while (scheduledCount > 0 && baseUptimeMs + TICK_MS <= now) {
+                Task task = wheel[cursor];
+
+                while (task != null) {
+                    final Task next = task.next;
+
+                    if (task.rounds == 0) {
+                        unlink(task);
+                        task.collected = true;
+                        task.nextDue = due;
+                        due = task;
+                    } else {
+                        task.rounds--;
+                    }
+
+                    task = next;
+                }
+
+                cursor = (cursor + 1) & WHEEL_MASK;
+                baseUptimeMs += TICK_MS;
+            }
+        }
+
+        // Run outside the lock, tasks usually reschedule themselves and may cancel each other
+        while (due != null) {
+            final Task task = due;
+            due = task.nextDue;
+
+            final boolean run;
+            synchronized (this) {
+                task.nextDue = null;
+                run = task.collected;
+                task.collected = false;
+            }
+
+            if (run) {
+                task.onTick();
+            }
+        }
+
+        synchronized (this) {
+            runningDueTasks = false;
+
+            if (scheduledCount > 0) {
+                postWake(findNextDueUptimeMs());
+            }
+        }
+    }
+
+    private void postWake(long uptimeMs) {
+        timer.removeCallbacks(tick);
+        timer.postAtTime(tick, uptimeMs);
+        timerPosted = true;
+        nextWakeUptimeMs = uptimeMs;
+    }
+
+    private long findNextDueUptimeMs() {
+        long earliestTicks = Long.MAX_VALUE;
+
+        for (int offset = 0; offset < WHEEL_SIZE && earliestTicks > offset + 1; offset++) {
+            for (Task task = wheel[(cursor + offset) & WHEEL_MASK]; task != null; task = task.next) {
+                earliestTicks = Math.min(earliestTicks, (long) task.rounds * WHEEL_SIZE + offset + 1);
+            }
+        }
+
+        return baseUptimeMs + earliestTicks * TICK_MS;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Wheel
+    private void link(Task task, int slot, int rounds) {
+        task.slot = slot;
+        task.rounds = rounds;
+        task.previous = null;
+        task.next = wheel[slot];
+
+        if (task.next != null) {
+            task.next.previous = task;
+        }
+
+        wheel[slot] = task;
+        scheduledCount++;
+    }
+
+    private void unlink(Task task) {
+        if (task.previous != null) {
+            task.previous.next = task.next;
+        } else {
+            wheel[task.slot] = task.next;
+        }
+
+        if (task.next != null) {
+            task.next.previous = task.previous;
+        }
+
+        task.previous = null;
+        task.next = null;
+        task.slot = -1;
+        scheduledCount--;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Looper
+    private static final class LooperTimer implements Timer {
+        private final Looper looper;
+        private final Handler handler;
+
+        LooperTimer(Looper looper) {
+            this.looper = looper;
+            this.handler = new Handler(looper);
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void postAtTime(Runnable tick, long uptimeMs) {
+            handler.postAtTime(tick, uptimeMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable tick) {
+            handler.removeCallbacks(tick);
+        }
+
+        @Override
+        public boolean isCurrentThread() {
+            return Looper.myLooper() == looper;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,213 @@
+package com.testfairy.tvtest.testfairy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+// Records every callback that reaches the MediaPlayer wrapper, the PlayerAdapter wrapper and the ExoPlayer listener,
+// before deduplication and sampling, as a compact binary trace that can be replayed with TestFairyTraceReplayer.
+//
+// Each record is: varint time delta in ms, varint callback id shifted left by one (low bit set if a text extra
+// follows), three zigzag varint arguments and optionally a varint length prefixed UTF-8 extra. Callback ids are
+// fixed numbers that are never reused, new callbacks get new ids and VERSION changes whenever the record layout does.
+// Records are kept in memory up to a size cap so that recording never does I/O on the callback thread.
+//
+//   TestFairyTraceRecorder recorder = TestFairyTraceRecorder.start();
+//   ...
+//   TestFairyTraceRecorder.stop().writeTo(outputStream);
+//
+public final class TestFairyTraceRecorder {
+
+    static final int MAGIC = 0x54465452; // "TFTR"
+    static final int VERSION = 2;
+
+    // MediaPlayer callbacks
+    public static final int MP_BUFFERING_UPDATE = 1;            // arg0: percent
+    public static final int MP_COMPLETION = 2;
+    public static final int MP_ERROR = 3;                       // arg0: what, arg1: extra
+    public static final int MP_MEDIA_TIME_DISCONTINUITY = 4;    // arg0: anchor media time us, arg1: anchor system ns, arg2: clock rate float bits
+    public static final int MP_SEEK_COMPLETE = 5;
+    public static final int MP_INFO = 6;                        // arg0: what, arg1: extra
+    public static final int MP_PREPARED = 7;
+
+    // PlayerAdapter callbacks
+    public static final int ADAPTER_PLAY_STATE_CHANGED = 32;
+    public static final int ADAPTER_PREPARED_STATE_CHANGED = 33;
+    public static final int ADAPTER_PLAY_COMPLETED = 34;
+    public static final int ADAPTER_CURRENT_POSITION_CHANGED = 35;
+    public static final int ADAPTER_BUFFERED_POSITION_CHANGED = 36;
+    public static final int ADAPTER_DURATION_CHANGED = 37;
+    public static final int ADAPTER_VIDEO_SIZE_CHANGED = 38;    // arg0: width, arg1: height
+    public static final int ADAPTER_ERROR = 39;                 // arg0: error code, text: message
+    public static final int ADAPTER_BUFFERING_STATE_CHANGED = 40; // arg0: 1 if started
+    public static final int ADAPTER_METADATA_CHANGED = 41;
+
+    // ExoPlayer AnalyticsListener callbacks
+    public static final int EXO_PLAYER_STATE_CHANGED = 64;      // arg0: play when ready, arg1: playback state
+    public static final int EXO_TIMELINE_CHANGED = 65;          // arg0: reason
+    public static final int EXO_POSITION_DISCONTINUITY = 66;    // arg0: reason
+    public static final int EXO_SEEK_STARTED = 67;              // arg0: position ms
+    public static final int EXO_SEEK_PROCESSED = 68;            // arg0: position ms
+    public static final int EXO_PLAYBACK_PARAMETERS_CHANGED = 69; // arg0: speed float bits, arg1: pitch float bits
+    public static final int EXO_REPEAT_MODE_CHANGED = 70;       // arg0: repeat mode
+    public static final int EXO_SHUFFLE_MODE_CHANGED = 71;      // arg0: 1 if enabled
+    public static final int EXO_LOADING_CHANGED = 72;           // arg0: 1 if loading
+    public static final int EXO_PLAYER_ERROR = 73;              // arg0: error type, arg1: response code or -1, text: error
+    public static final int EXO_TRACKS_CHANGED = 74;            // arg0: track group count
+    public static final int EXO_LOAD_STARTED = 75;              // arg0: data type, arg1: track type, text: host
+    public static final int EXO_LOAD_COMPLETED = 76;            // arg0: data type, arg1: bytes, arg2: load ms
+    public static final int EXO_LOAD_CANCELED = 77;             // arg0: data type, arg1: bytes, arg2: load ms
+    public static final int EXO_LOAD_ERROR = 78;                // arg0: data type, arg1: response code or -1, arg2: 1 if canceled, text: host
+    public static final int EXO_DOWNSTREAM_FORMAT_CHANGED = 79; // arg0: track type, arg1: bitrate, arg2: width << 32 | height
+    public static final int EXO_UPSTREAM_DISCARDED = 80;        // arg0: data type, arg1: media start ms, arg2: media end ms
+    public static final int EXO_MEDIA_PERIOD_CREATED = 81;
+    public static final int EXO_MEDIA_PERIOD_RELEASED = 82;
+    public static final int EXO_READING_STARTED = 83;
+    public static final int EXO_BANDWIDTH_ESTIMATE = 84;        // arg0: load ms, arg1: bytes, arg2: bitrate estimate
+    public static final int EXO_SURFACE_SIZE_CHANGED = 85;      // arg0: width, arg1: height
+    public static final int EXO_METADATA = 86;
+    public static final int EXO_DECODER_ENABLED = 87;           // arg0: track type
+    public static final int EXO_DECODER_INITIALIZED = 88;       // arg0: track type, arg1: initialization ms, text: decoder
+    public static final int EXO_DECODER_INPUT_FORMAT_CHANGED = 89; // arg0: track type, arg1: bitrate, arg2: width << 32 | height
+    public static final int EXO_DECODER_DISABLED = 90;          // arg0: track type
+    public static final int EXO_AUDIO_SESSION_ID = 91;          // arg0: audio session id
+    public static final int EXO_AUDIO_ATTRIBUTES_CHANGED = 92;
+    public static final int EXO_VOLUME_CHANGED = 93;            // arg0: volume float bits
+    public static final int EXO_AUDIO_UNDERRUN = 94;            // arg0: buffer size, arg1: buffer ms, arg2: ms since last feed
+    public static final int EXO_DROPPED_VIDEO_FRAMES = 95;      // arg0: dropped frames, arg1: elapsed ms
+    public static final int EXO_VIDEO_SIZE_CHANGED = 96;        // arg0: width, arg1: height, arg2: unapplied rotation
+    public static final int EXO_RENDERED_FIRST_FRAME = 97;
+    public static final int EXO_DRM_SESSION_ACQUIRED = 98;
+    public static final int EXO_DRM_KEYS_LOADED = 99;
+    public static final int EXO_DRM_SESSION_MANAGER_ERROR = 100; // text: error
+    public static final int EXO_DRM_KEYS_RESTORED = 101;
+    public static final int EXO_DRM_KEYS_REMOVED = 102;
+    public static final int EXO_DRM_SESSION_RELEASED = 103;
+    //////////////////////////////////////////////////////////////
+
+    private static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile TestFairyTraceRecorder active;
+
+    // State
+    private final int maxBytes;
+    private byte[] buffer = new byte[64 * 1024];
+    private int length = 0;
+    private long lastTimeMs = -1;
+    private int recordCount = 0;
+    private int truncatedCount = 0;
+    //////////////////////////////////////////////////////////////
+
+    private TestFairyTraceRecorder(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Lifecycle
+    public static TestFairyTraceRecorder start() {
+        return start(DEFAULT_MAX_BYTES);
+    }
+
+    public static synchronized TestFairyTraceRecorder start(int maxBytes) {
+        active = new TestFairyTraceRecorder(maxBytes);
+        return active;
+    }
+
+    // Stops recording and returns the recorder that was active, if any
+    public static synchronized TestFairyTraceRecorder stop() {
+        final TestFairyTraceRecorder recorder = active;
+        active = null;
+        return recorder;
+    }
+
+    static TestFairyTraceRecorder getActive() {
+        return active;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Recording, called at the entry of every player callback. Costs a volatile read while no trace is recorded, the
+    // extra is only turned into text when it is.
+    static void recordCallback(int callbackId, long timeMs, long arg0, long arg1, long arg2, Object extra) {
+        final TestFairyTraceRecorder recorder = active;
+
+        if (recorder != null) {
+            recorder.record(callbackId, timeMs, arg0, arg1, arg2, extra);
+        }
+    }
+
+    synchronized void record(int callbackId, long timeMs, long arg0, long arg1, long arg2, Object extra) {
+        final long delta = lastTimeMs < 0 ? 0 : Math.max(0, timeMs - lastTimeMs);
+        final String text = extra != null ? extra.toString() : null;
+        final byte[] encodedExtra = text != null ? text.getBytes(UTF_8) : null;
+
+        // Worst case size of one record
+        final int needed = 10 + 5 + 10 + 10 + 10 + (encodedExtra != null ? 5 + encodedExtra.length : 0);
+        if (length + needed > maxBytes) {
+            truncatedCount++;
+            return;
+        }
+
+        ensureCapacity(length + needed);
+        lastTimeMs = Math.max(lastTimeMs, timeMs);
+
+        writeVarLong(delta);
+        writeVarLong(((long) callbackId << 1) | (encodedExtra != null ? 1 : 0));
+        writeVarLong(zigZag(arg0));
+        writeVarLong(zigZag(arg1));
+        writeVarLong(zigZag(arg2));
+
+        if (encodedExtra != null) {
+            writeVarLong(encodedExtra.length);
+            System.arraycopy(encodedExtra, 0, buffer, length, encodedExtra.length);
+            length += encodedExtra.length;
+        }
+
+        recordCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            final byte[] grown = new byte[Math.min(maxBytes, Math.max(capacity, buffer.length * 2))];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Output
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        out.write(MAGIC >>> 24);
+        out.write(MAGIC >>> 16);
+        out.write(MAGIC >>> 8);
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(buffer, 0, length);
+        out.flush();
+    }
+
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    // Records that did not fit under the size cap
+    public synchronized int getTruncatedCount() {
+        return truncatedCount;
+    }
+
+    public synchronized int getSizeInBytes() {
+        return length;
+    }
+    //////////////////////////////////////////////////////////////
+}
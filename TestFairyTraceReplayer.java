@@ -0,0 +1,131 @@
+package com.testfairy.tvtest.testfairy;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Replays a trace written by TestFairyTraceRecorder, either at the recorded speed or as fast as possible.
+//
+// MediaPlayer and PlayerAdapter traces drive a wrapper returned by TestFairyMediaPlayerGlue.createByWrapping(), through
+// TestFairyMediaPlayerGlue.replayTrace(). The recorded callbacks go through the wrapper's listeners, deduplication,
+// sampling and bridge exactly as they did on the device. Player getters are read from the wrapped player.
+// MediaTimestamp cannot be created by apps, so a recorded media time discontinuity only reaches the glue itself and not
+// the user's discontinuity listeners.
+//
+// ExoPlayer event objects cannot be rebuilt from a trace, so ExoPlayer traces are replayed into a Target that maps
+// the callback ids and primitive arguments onto whatever is being tested.
+//
+// Replaying blocks the calling thread. Run it on the thread the player normally calls back on.
+public final class TestFairyTraceReplayer {
+
+    // Receives replayed callbacks, returns false for callbacks it does not handle
+    public interface Target {
+        boolean onCallback(int callbackId, long arg0, long arg1, long arg2, String text);
+    }
+
+    // State
+    private final InputStream in;
+    private final boolean atRecordedSpeed;
+
+    // Current record
+    private int callbackId;
+    private long arg0;
+    private long arg1;
+    private long arg2;
+    private String text;
+    //////////////////////////////////////////////////////////////
+
+    public TestFairyTraceReplayer(InputStream in, boolean atRecordedSpeed) throws IOException {
+        this.in = new BufferedInputStream(in);
+        this.atRecordedSpeed = atRecordedSpeed;
+
+        final int magic = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        final int version = readByte();
+
+        if (magic != TestFairyTraceRecorder.MAGIC || version != TestFairyTraceRecorder.VERSION) {
+            throw new IOException("Not a TestFairy trace or unsupported version.");
+        }
+    }
+
+    // Returns the number of callbacks the target handled
+    public int replayInto(Target target) throws IOException, InterruptedException {
+        int count = 0;
+
+        while (next()) {
+            if (target.onCallback(callbackId, arg0, arg1, arg2, text)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Decoding, returns false at the end of the trace
+    private boolean next() throws IOException, InterruptedException {
+        final int first = in.read();
+
+        if (first < 0) {
+            return false;
+        }
+
+        final long delta = readVarLong(first);
+        final long idAndFlag = readVarLong(readByte());
+
+        callbackId = (int) (idAndFlag >>> 1);
+        arg0 = unZigZag(readVarLong(readByte()));
+        arg1 = unZigZag(readVarLong(readByte()));
+        arg2 = unZigZag(readVarLong(readByte()));
+        text = null;
+
+        if ((idAndFlag & 1) != 0) {
+            final byte[] encoded = new byte[(int) readVarLong(readByte())];
+
+            for (int read = 0; read < encoded.length; ) {
+                final int n = in.read(encoded, read, encoded.length - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+
+            text = new String(encoded, "UTF-8");
+        }
+
+        if (atRecordedSpeed && delta > 0) {
+            Thread.sleep(delta);
+        }
+
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        final int b = in.read();
+
+        if (b < 0) {
+            throw new EOFException();
+        }
+
+        return b;
+    }
+
+    private long readVarLong(int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+
+        while ((b & 0x80) != 0) {
+            b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+
+        return value;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    //////////////////////////////////////////////////////////////
+}
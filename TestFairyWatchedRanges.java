@@ -0,0 +1,274 @@
+package com.testfairy.tvtest.testfairy;
+
+// Which parts of the media were actually watched in a playback session.
+//
+// The media is split into at most MAX_BUCKETS fixed time buckets, and two bitsets record the buckets that were played
+// and the ones that were played more than once. Position samples are compared with the previous sample: if playback
+// could have moved that far since then, every bucket in between was watched. Seeks, and jumps that are too far to have
+// been played, start a new run instead, so seeking to 80% does not count 0% to 80% as watched.
+//
+// Memory is fixed regardless of media length, and a sample costs a few bit operations. Everything is reported once
+// with end(), which replaces the per-percent position events.
+//
+// Players that do not report seeks can have them inferred from jumps instead. Seeks shorter than the jump slack are
+// then counted as playback, and the summary says the seek counts are inferred.
+//
+// Not synchronized. Seeks are reported from player callbacks and samples from the position tracker or the adapter's
+// progress callback, all on the thread the player calls back on. TestFairyTickScheduler confines the tracker to that
+// looper.
+final class TestFairyWatchedRanges {
+
+    static final int MAX_BUCKETS = 1024;
+    static final long MIN_BUCKET_MS = 1000;
+
+    private static final int MAX_REPORTED_RANGES = 16;
+
+    // Playback is not expected to run faster than this, anything further is a jump
+    private static final long MAX_PLAYBACK_SPEED = 4;
+    private static final long JUMP_SLACK_MS = 2000;
+
+    private boolean inferSeeks = false;
+
+    // Buckets, bucketMs is 0 until the duration is known
+    private final long[] watched = new long[MAX_BUCKETS / 64];
+    private final long[] rewatched = new long[MAX_BUCKETS / 64];
+    private long duration;
+    private long bucketMs = 0;
+    private int bucketCount;
+    //////////////////////////////////////////////////////////////
+
+    // Current run
+    private long lastPosition = -1;
+    private long lastSampleMs;
+    private int markedThrough = -1;
+    private boolean seekPending = false;
+    //////////////////////////////////////////////////////////////
+
+    // Counters
+    private long playedMs;
+    private int seekCount;
+    private int forwardSeekCount;
+    private int backwardSeekCount;
+    private int jumpCount;
+    //////////////////////////////////////////////////////////////
+
+    // Sampling
+    void onPosition(long position, long duration, long nowMs) {
+        if (duration <= 0 || position < 0) {
+            return;
+        }
+
+        // Buckets are fixed for the session, positions past a grown duration land in the last bucket
+        if (bucketMs == 0) {
+            this.duration = duration;
+            this.bucketMs = Math.max(MIN_BUCKET_MS, (duration + MAX_BUCKETS - 1) / MAX_BUCKETS);
+            this.bucketCount = (int) ((duration + bucketMs - 1) / bucketMs);
+        }
+
+        final int bucket = bucketOf(position);
+
+        if (seekPending) {
+            seekPending = false;
+
+            if (lastPosition >= 0) {
+                if (position >= lastPosition) {
+                    forwardSeekCount++;
+                } else {
+                    backwardSeekCount++;
+                }
+            }
+        } else if (lastPosition >= 0) {
+            final long delta = position - lastPosition;
+
+            if (delta >= 0 && delta <= (nowMs - lastSampleMs) * MAX_PLAYBACK_SPEED + JUMP_SLACK_MS) {
+                // Buckets already marked by this run are not watched twice
+                final int from = markedThrough >= 0 ? markedThrough + 1 : bucketOf(lastPosition);
+                for (int i = from; i <= bucket; i++) {
+                    markWatched(i);
+                }
+
+                markedThrough = Math.max(markedThrough, bucket);
+                playedMs += delta;
+            } else if (inferSeeks) {
+                seekCount++;
+                if (delta >= 0) {
+                    forwardSeekCount++;
+                } else {
+                    backwardSeekCount++;
+                }
+                markedThrough = -1;
+            } else {
+                jumpCount++;
+                markedThrough = -1;
+            }
+        }
+
+        lastPosition = position;
+        lastSampleMs = nowMs;
+    }
+
+    // For players without seek callbacks, every jump counts as a seek from then on
+    void inferSeeksFromJumps() {
+        inferSeeks = true;
+    }
+
+    // Called once per seek, the next sample tells where it went
+    void onSeek() {
+        seekCount++;
+        seekPending = true;
+        markedThrough = -1;
+    }
+
+    private int bucketOf(long position) {
+        return (int) Math.min(bucketCount - 1, position / bucketMs);
+    }
+
+    private void markWatched(int bucket) {
+        final long bit = 1L << (bucket & 63);
+        final int word = bucket >>> 6;
+
+        if ((watched[word] & bit) != 0) {
+            rewatched[word] |= bit;
+        } else {
+            watched[word] |= bit;
+        }
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Ends the session, returns null if nothing was played or sought
+    Summary end() {
+        if (playedMs == 0 && seekCount == 0) {
+            reset();
+            return null;
+        }
+
+        final Summary summary = new Summary();
+        summary.duration = duration;
+        summary.bucketMs = bucketMs;
+        summary.playedMs = playedMs;
+        summary.seekCount = seekCount;
+        summary.forwardSeekCount = forwardSeekCount;
+        summary.backwardSeekCount = backwardSeekCount;
+        summary.jumpCount = jumpCount;
+        summary.seeksInferred = inferSeeks;
+
+        if (bucketCount > 0) {
+            summary.watchedMs = Math.min(duration, count(watched) * bucketMs);
+            summary.rewatchedMs = Math.min(duration, count(rewatched) * bucketMs);
+            summary.coveragePercent = (int) (count(watched) * 100 / bucketCount);
+            summary.watchedRanges = ranges(watched);
+            summary.rewatchedRanges = ranges(rewatched);
+        }
+
+        reset();
+        return summary;
+    }
+
+    private void reset() {
+        for (int i = 0; i < watched.length; i++) {
+            watched[i] = 0;
+            rewatched[i] = 0;
+        }
+
+        duration = 0;
+        bucketMs = 0;
+        bucketCount = 0;
+        lastPosition = -1;
+        markedThrough = -1;
+        seekPending = false;
+        playedMs = 0;
+        seekCount = 0;
+        forwardSeekCount = 0;
+        backwardSeekCount = 0;
+        jumpCount = 0;
+    }
+
+    private static long count(long[] bits) {
+        long count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
+    // Runs of set buckets as start and end positions in ms, at most MAX_REPORTED_RANGES of them
+    private long[] ranges(long[] bits) {
+        final long[] out = new long[MAX_REPORTED_RANGES * 2];
+        int count = 0;
+        int start = -1;
+
+        for (int i = 0; i <= bucketCount && count < MAX_REPORTED_RANGES; i++) {
+            final boolean set = i < bucketCount && (bits[i >>> 6] & (1L << (i & 63))) != 0;
+
+            if (set && start < 0) {
+                start = i;
+            } else if (!set && start >= 0) {
+                out[count * 2] = start * bucketMs;
+                out[count * 2 + 1] = Math.min(duration, i * bucketMs);
+                count++;
+                start = -1;
+            }
+        }
+
+        final long[] trimmed = new long[count * 2];
+        System.arraycopy(out, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Formatted lazily when the event is sent
+    static final class Summary {
+        long duration;
+        long bucketMs;
+        long playedMs;
+        long watchedMs;
+        long rewatchedMs;
+        int coveragePercent;
+        int seekCount;
+        int forwardSeekCount;
+        int backwardSeekCount;
+        int jumpCount;
+        boolean seeksInferred;
+        long[] watchedRanges = new long[0];
+        long[] rewatchedRanges = new long[0];
+
+        @Override
+        public String toString() {
+            final StringBuilder out = new StringBuilder(256);
+
+            out.append("coverage ").append(coveragePercent).append('%');
+            out.append(" of ").append(duration / 1000).append('s');
+            out.append(", watched ").append(watchedMs / 1000).append('s');
+            out.append(", played ").append(playedMs / 1000).append('s');
+            out.append(", rewatched ").append(rewatchedMs / 1000).append('s');
+            out.append(", seeks ").append(seekCount).append(seeksInferred ? " inferred" : "");
+            out.append(" (").append(forwardSeekCount).append(" forward, ").append(backwardSeekCount).append(" back)");
+            out.append(", jumps ").append(jumpCount);
+            appendRanges(out.append(", ranges "), watchedRanges);
+            appendRanges(out.append(", rewatched ranges "), rewatchedRanges);
+            out.append(", resolution ").append(bucketMs / 1000).append('s');
+            return out.toString();
+        }
+
+        private static void appendRanges(StringBuilder out, long[] ranges) {
+            if (ranges.length == 0) {
+                out.append("none");
+                return;
+            }
+
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (i > 0) {
+                    out.append(' ');
+                }
+
+                out.append(ranges[i] / 1000).append('-').append(ranges[i + 1] / 1000).append('s');
+            }
+
+            if (ranges.length == MAX_REPORTED_RANGES * 2) {
+                out.append(" ...");
+            }
+        }
+    }
+    //////////////////////////////////////////////////////////////
+}
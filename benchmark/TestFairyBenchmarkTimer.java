@@ -0,0 +1,60 @@
+package com.testfairy.tvtest.testfairy;
+
+// A TestFairyTickScheduler clock that only moves when a benchmark advances it. Wakeups run on the benchmark thread.
+final class TestFairyBenchmarkTimer implements TestFairyTickScheduler.Timer {
+
+    private long nowMs;
+    private Runnable pending;
+    private long pendingAtMs;
+
+    TestFairyBenchmarkTimer(long nowMs) {
+        this.nowMs = nowMs;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return nowMs;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return nowMs;
+    }
+
+    @Override
+    public void postAtTime(Runnable tick, long uptimeMs) {
+        pending = tick;
+        pendingAtMs = uptimeMs;
+    }
+
+    @Override
+    public void removeCallbacks(Runnable tick) {
+        if (pending == tick) {
+            pending = null;
+        }
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return true;
+    }
+
+    // Runs every wakeup that falls due on the way
+    void advanceBy(long deltaMs) {
+        final long targetMs = nowMs + deltaMs;
+
+        while (pending != null && pendingAtMs <= targetMs) {
+            final Runnable tick = pending;
+
+            nowMs = Math.max(nowMs, pendingAtMs);
+            pending = null;
+            tick.run();
+        }
+
+        nowMs = targetMs;
+    }
+
+    long now() {
+        return nowMs;
+    }
+}
@@ -0,0 +1,67 @@
+package com.testfairy.tvtest.testfairy;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Cost of one dropped frames event, before and after the typed event layer. Run with -prof gc and compare
+// gc.alloc.rate.norm: formatting on the callback thread allocates the format arguments and the text for every event,
+// queueing a TestFairyEvent allocates nothing. The text is still built once per event on the drainer thread.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TestFairyEventBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    private TestFairyEventQueue queue;
+    private TestFairyEvent[] batch;
+    private TestFairyEvent event;
+    private StringBuilder text;
+    private long droppedFrames = 0;
+
+    @Setup
+    public void setUp() {
+        queue = new TestFairyEventQueue(1024, TestFairyEventOverflowPolicy.DROP_OLDEST);
+        batch = new TestFairyEvent[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch[i] = new TestFairyEvent();
+        }
+
+        event = new TestFairyEvent();
+        text = new StringBuilder(128);
+    }
+
+    // Before, what every callback did
+    @Benchmark
+    public String formatOnCallback() {
+        droppedFrames++;
+        return String.format(Locale.ENGLISH, "Video has dropped %d frames in %dms", droppedFrames, 1000L);
+    }
+
+    // After, what a callback does now, draining a batch whenever one is full to keep the queue from overflowing
+    @Benchmark
+    public int queueOnCallback() {
+        droppedFrames++;
+        queue.offer(TestFairyEvent.Code.DROPPED_FRAMES, droppedFrames, 1000L, null);
+
+        return queue.size() < BATCH_SIZE ? 0 : queue.drain(batch);
+    }
+
+    // After, what the drainer does for each event before handing it to TestFairy.addEvent
+    @Benchmark
+    public String formatOnDrainer() {
+        droppedFrames++;
+        event.set(TestFairyEvent.Code.DROPPED_FRAMES, droppedFrames, 1000L, null);
+
+        text.setLength(0);
+        event.appendTo(text);
+        return text.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package com.testfairy.tvtest.testfairy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Replays a recorded minute of a busy DASH stream through TestFairyEventSampler, with no policies and with the default
+// ones. The trace is decoded once up front. Every event that passes is queued and formatted the way TestFairyEventLog
+// does it, so the time per replay includes the work the sampler saves downstream, but not TestFairy.addEvent itself.
+// The emitted counter shows how many events of one replay reached the log, summed over the measurement iterations.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TestFairyEventSamplerBenchmark {
+
+    private static final long STEP_MS = 50;
+    private static final long STORM_MS = 60000;
+
+    @Param({"none", "default"})
+    public String policies;
+
+    private int[] callbackIds;
+    private long[] args;
+    private TestFairyBenchmarkTimer timer;
+    private TestFairyEventSampler sampler;
+    private FormattingOutput output;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Emitted {
+        public long emitted;
+
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        decode(recordStorm());
+        timer = new TestFairyBenchmarkTimer(0);
+        output = new FormattingOutput();
+
+        final TestFairyEventSampler.Builder builder = policies.equals("default")
+                ? TestFairyEventSampler.createDefaultBuilder() : new TestFairyEventSampler.Builder();
+        sampler = new TestFairyEventSampler(builder, new TestFairyTickScheduler(timer), output);
+    }
+
+    @Benchmark
+    public long replayStorm(Emitted emitted) {
+        // Maps the callbacks onto the sampler the way TestFairyExoPlayerAnalyticsListener does. The trace has one
+        // dropped frames callback per step, so the clock moves by a step at each of them.
+        for (int i = 0; i < callbackIds.length; i++) {
+            if (callbackIds[i] == TestFairyTraceRecorder.EXO_DROPPED_VIDEO_FRAMES) {
+                timer.advanceBy(STEP_MS);
+                sampler.add(TestFairyEvent.Code.DROPPED_FRAMES, args[2 * i], args[2 * i + 1]);
+            } else {
+                sampler.add(TestFairyEvent.Code.PLAYBACK_BUFFERED, args[2 * i + 1] % 100);
+            }
+        }
+
+        sampler.flush();
+        output.drain();
+
+        emitted.emitted = output.count;
+        output.count = 0;
+        return output.length;
+    }
+
+    // A frame dropped in every step and a segment loaded in every other one
+    private static byte[] recordStorm() throws IOException {
+        TestFairyTraceRecorder.start();
+        for (long timeMs = 0, step = 0; timeMs < STORM_MS; timeMs += STEP_MS, step++) {
+            TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DROPPED_VIDEO_FRAMES, timeMs, 1 + step % 3,
+                    STEP_MS, 0, null);
+
+            if (step % 2 == 0) {
+                TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_LOAD_COMPLETED, timeMs, 1, step, 100,
+                        null);
+            }
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TestFairyTraceRecorder.stop().writeTo(out);
+        return out.toByteArray();
+    }
+
+    private void decode(byte[] trace) throws IOException {
+        final int[] ids = new int[(int) (2 * STORM_MS / STEP_MS)];
+        final long[] values = new long[2 * ids.length];
+        final int[] count = new int[1];
+
+        try {
+            new TestFairyTraceReplayer(new ByteArrayInputStream(trace), false).replayInto(
+                    new TestFairyTraceReplayer.Target() {
+                        @Override
+                        public boolean onCallback(int callbackId, long arg0, long arg1, long arg2, String text) {
+                            ids[count[0]] = callbackId;
+                            values[2 * count[0]] = arg0;
+                            values[2 * count[0] + 1] = arg1;
+                            count[0]++;
+                            return true;
+                        }
+                    });
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+
+        callbackIds = Arrays.copyOf(ids, count[0]);
+        args = Arrays.copyOf(values, 2 * count[0]);
+    }
+
+    // What TestFairyEventLog does with an event, short of handing the text to TestFairy
+    private static final class FormattingOutput implements TestFairyEventSampler.Output {
+        private final TestFairyEventQueue queue =
+                new TestFairyEventQueue(1024, TestFairyEventOverflowPolicy.DROP_OLDEST);
+        private final TestFairyEvent[] batch = new TestFairyEvent[64];
+        private final StringBuilder text = new StringBuilder(128);
+        private long count = 0;
+        private long length = 0;
+
+        private FormattingOutput() {
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = new TestFairyEvent();
+            }
+        }
+
+        @Override
+        public void add(TestFairyEvent.Code code, long arg0, long arg1, Object extra) {
+            queue.offer(code, arg0, arg1, extra);
+            count++;
+
+            if (queue.size() >= batch.length) {
+                drain();
+            }
+        }
+
+        private void drain() {
+            int drained;
+            while ((drained = queue.drain(batch)) > 0) {
+                for (int i = 0; i < drained; i++) {
+                    text.setLength(0);
+                    batch[i].appendTo(text);
+                    length += text.toString().length();
+                }
+            }
+        }
+    }
+}
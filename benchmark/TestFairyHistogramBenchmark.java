@@ -0,0 +1,50 @@
+package com.testfairy.tvtest.testfairy;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Cost of recording one latency on the playback thread, and of reading p50/p95/p99 from another thread through a
+// snapshot. Values are load times spread from a few milliseconds to several seconds.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TestFairyHistogramBenchmark {
+
+    private static final int VALUE_COUNT = 1024;
+
+    private final long[] values = new long[VALUE_COUNT];
+    private TestFairyHistogram histogram;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(10000));
+        }
+
+        histogram = new TestFairyHistogram("load");
+        for (long value : values) {
+            histogram.record(value);
+        }
+    }
+
+    @Benchmark
+    public long record() {
+        histogram.record(values[next++ & (VALUE_COUNT - 1)]);
+        return histogram.getCount();
+    }
+
+    @Benchmark
+    public long snapshotPercentiles() {
+        final TestFairyHistogram snapshot = histogram.snapshot();
+        return snapshot.getPercentile(50) + snapshot.getPercentile(95) + snapshot.getPercentile(99);
+    }
+}
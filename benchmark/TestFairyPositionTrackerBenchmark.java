@@ -0,0 +1,74 @@
+package com.testfairy.tvtest.testfairy;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Position sampling of several players sharing one TestFairyTickScheduler, on a clock that moves by one scheduler tick
+// per operation. Covers the wheel pass, the player reads and the rescheduling of every tracker that falls due.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TestFairyPositionTrackerBenchmark {
+
+    private static final long MOVIE_MS = 2 * 60 * 60 * 1000;
+
+    @Param({"1", "16"})
+    public int players;
+
+    private TestFairyBenchmarkTimer timer;
+    private SimulatedPlayer[] trackers;
+
+    @Setup
+    public void setUp() {
+        timer = new TestFairyBenchmarkTimer(0);
+        trackers = new SimulatedPlayer[players];
+
+        final TestFairyTickScheduler scheduler = new TestFairyTickScheduler(timer);
+        for (int i = 0; i < players; i++) {
+            // Staggered so that the players do not all cross a percent boundary at the same tick
+            trackers[i] = new SimulatedPlayer(scheduler, timer, i * MOVIE_MS / players);
+            trackers[i].start();
+        }
+    }
+
+    @Benchmark
+    public int tick() {
+        timer.advanceBy(TestFairyTickScheduler.TICK_MS);
+        return trackers[0].percent;
+    }
+
+    // Plays a movie in a loop at normal speed
+    private static final class SimulatedPlayer extends TestFairyPositionTracker {
+        private final TestFairyBenchmarkTimer timer;
+        private final long offsetMs;
+        private int percent = -1;
+
+        private SimulatedPlayer(TestFairyTickScheduler scheduler, TestFairyBenchmarkTimer timer, long offsetMs) {
+            super(scheduler);
+            this.timer = timer;
+            this.offsetMs = offsetMs;
+        }
+
+        @Override
+        protected long getDuration() {
+            return MOVIE_MS;
+        }
+
+        @Override
+        protected long getCurrentPosition() {
+            return (timer.now() + offsetMs) % MOVIE_MS;
+        }
+
+        @Override
+        protected void onPositionPercentChanged(int percent) {
+            this.percent = percent;
+        }
+    }
+}
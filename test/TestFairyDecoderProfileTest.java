@@ -0,0 +1,79 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import org.junit.Before;
+import org.junit.Test;
+
+// The renderer's counters are advanced by hand while a manual clock drives the sampling task.
+public class TestFairyDecoderProfileTest {
+
+    private static final int TRACK_TYPE_VIDEO = 2;
+
+    private TestFairyManualTimer timer;
+    private TestFairyTickScheduler scheduler;
+    private TestFairyDecoderProfile profile;
+    private DecoderCounters counters;
+
+    @Before
+    public void setUp() {
+        timer = new TestFairyManualTimer(0);
+        scheduler = new TestFairyTickScheduler(timer);
+        profile = new TestFairyDecoderProfile(TRACK_TYPE_VIDEO, scheduler);
+        counters = new DecoderCounters();
+    }
+
+    @Test
+    public void catchesOneSecondBurstsInLongPlayback() {
+        profile.onEnabled(counters, 0);
+        profile.onPlaybackStateChanged(0, true);
+
+        // 30 fps for two minutes, with 20 frames dropped within one second after a minute
+        for (int second = 1; second <= 120; second++) {
+            counters.renderedOutputBufferCount += 30;
+            if (second == 60) {
+                counters.droppedBufferCount += 20;
+            }
+            timer.advanceTo(second * 1000L);
+        }
+
+        final TestFairyDecoderProfile.Summary summary = profile.onDisabled(counters, 120000);
+        assertEquals(20, summary.peakDroppedPerSecond);
+        assertEquals(30, summary.renderedPerSecond);
+        assertEquals(20, summary.droppedBuffers);
+    }
+
+    @Test
+    public void onlySamplesWhileEnabledAndPlaying() {
+        profile.onPlaybackStateChanged(0, true);
+        assertEquals(0, scheduler.getScheduledCount());
+
+        profile.onEnabled(counters, 0);
+        assertEquals(1, scheduler.getScheduledCount());
+
+        profile.onPlaybackStateChanged(500, false);
+        assertEquals(0, scheduler.getScheduledCount());
+        assertFalse(timer.hasPendingWakeup());
+
+        profile.onPlaybackStateChanged(1000, true);
+        profile.onDisabled(counters, 1500);
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void keepsTicksRunningThroughFrequentStateChanges() {
+        profile.onEnabled(counters, 0);
+        profile.onPlaybackStateChanged(0, true);
+
+        final int wakeups = timer.getWakeupCount();
+        for (long now = 300; now <= 3000; now += 300) {
+            timer.advanceTo(now);
+            profile.onPlaybackStateChanged(now, true);
+        }
+
+        assertTrue(timer.getWakeupCount() - wakeups >= 2);
+    }
+}
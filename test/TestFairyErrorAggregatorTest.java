@@ -0,0 +1,113 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+// Errors are reported on the manual clock, so expired windows close on the scheduler as they would on the player's
+// looper.
+public class TestFairyErrorAggregatorTest {
+
+    private static final int HTTP = TestFairyErrorAggregator.KIND_HTTP_RESPONSE;
+    private static final long WINDOW_MS = TestFairyErrorAggregator.WINDOW_MS;
+
+    private TestFairyManualTimer timer;
+    private TestFairyTickScheduler scheduler;
+    private RecordingAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        timer = new TestFairyManualTimer(0);
+        scheduler = new TestFairyTickScheduler(timer);
+        aggregator = new RecordingAggregator(scheduler);
+    }
+
+    @Test
+    public void uploadsTheFirstErrorOfEachFingerprintPerWindow() {
+        assertTrue(aggregator.onError(HTTP, 503, "cdn.example.com", 0));
+        assertFalse(aggregator.onError(HTTP, 503, "cdn.example.com", 1000));
+        assertTrue(aggregator.onError(HTTP, 404, "cdn.example.com", 2000));
+        assertTrue(aggregator.onError(HTTP, 503, "other.example.com", 3000));
+
+        assertTrue(aggregator.onError(HTTP, 503, "cdn.example.com", WINDOW_MS + 1000));
+        assertEquals(4, aggregator.getUploadCount());
+    }
+
+    @Test
+    public void reportsRepeatsWhenTheWindowExpiresWithoutFurtherErrors() {
+        errorAt(0);
+        errorAt(5000);
+        errorAt(20000);
+
+        // The CDN recovered, nothing else is reported
+        timer.advanceTo(WINDOW_MS - 1);
+        assertTrue(aggregator.repeats.isEmpty());
+
+        timer.advanceTo(WINDOW_MS + TestFairyTickScheduler.TICK_MS);
+        assertEquals(1, aggregator.repeats.size());
+        assertEquals("HTTP 503 from cdn.example.com x2", aggregator.repeats.get(0));
+
+        // Nothing is left to wake up for
+        assertEquals(0, scheduler.getScheduledCount());
+        aggregator.flush(timer.now());
+        assertEquals(1, aggregator.repeats.size());
+    }
+
+    @Test
+    public void doesNotWakeUpForSingleErrors() {
+        errorAt(0);
+
+        assertEquals(0, scheduler.getScheduledCount());
+        assertFalse(timer.hasPendingWakeup());
+    }
+
+    @Test
+    public void flushesOpenWindowsAtSessionEnd() {
+        errorAt(0);
+        errorAt(1000);
+        aggregator.flush(2000);
+
+        assertEquals(1, aggregator.repeats.size());
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void flagsRetryStormsOnce() {
+        for (int i = 0; i < 15; i++) {
+            errorAt(i * 500);
+        }
+
+        assertEquals(1, aggregator.storms);
+        assertEquals(1, aggregator.getStormCount());
+    }
+    //////////////////////////////////////////////////////////////
+
+    private void errorAt(long nowMs) {
+        timer.advanceTo(nowMs);
+        aggregator.onError(HTTP, 503, "cdn.example.com", nowMs);
+    }
+
+    private static final class RecordingAggregator extends TestFairyErrorAggregator {
+        final List<String> repeats = new ArrayList<String>();
+        int storms;
+
+        RecordingAggregator(TestFairyTickScheduler scheduler) {
+            super(scheduler);
+        }
+
+        @Override
+        protected void onRepeats(String fingerprint, int repeats, long windowMs) {
+            this.repeats.add(fingerprint + " x" + repeats);
+        }
+
+        @Override
+        protected void onRetryStorm(String fingerprint, int errors, long windowMs) {
+            storms++;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+// Code ids end up in journals written by older versions. Changing an id here breaks reading them back, so only append.
+public class TestFairyEventCodeTest {
+
+    private static final String[] NAMES_BY_ID = {
+            null,
+            "VIDEO_BUFFERING", "VIDEO_STATE", "VIDEO_POSITION", "VIDEO_COMPLETE", "VIDEO_ERROR",
+            "PLAYBACK_PLAYING", "PLAYBACK_COMPLETED", "PLAYBACK_BUFFERING_OR_PAUSED", "PLAYBACK_PAUSED",
+            "PLAYBACK_POSITION", "PLAYBACK_SEEK", "PLAYBACK_BUFFERED", "STUTTER_PERIOD_TRANSITION", "STUTTER_SEEK",
+            "STUTTER_SEEK_ADJUSTMENT", "STUTTER_AD_INSERTION", "STUTTER_INTERNAL", "REPEAT_MODE_OFF",
+            "REPEAT_MODE_ONE", "REPEAT_MODE_ALL", "SHUFFLE_MODE", "NEW_VIDEO", "VOLUME", "DROPPED_FRAMES",
+            "HTTP_ERROR", "HTTP_ERROR_BEFORE_RESPONSE", "PLAYER_ERROR", "LOAD_ERROR", "DRM_ERROR",
+            "QOE_SUMMARY", "LATENCY_HISTOGRAM", "FORMAT_TIMELINE", "BANDWIDTH_BAND", "NETWORK_AT_STALL",
+            "THROUGHPUT_SUMMARY", "STALL", "WATCHED_RANGES", "JANK", "DECODER_PROFILE", "STARTUP", "SEGMENT_LOADS",
+            "ERROR_REPEATS", "RETRY_STORM", "BUFFERING_STATE", "DISCONTINUITY", "REPEAT_MODE", "FORMAT_SWITCH",
+            "BANDWIDTH_ESTIMATE", "DECODER_INITIALIZED", "AUDIO_UNDERRUN", "DRM_EVENT"
+    };
+
+    @Test
+    public void keepsEveryPublishedId() {
+        for (int id = 1; id < NAMES_BY_ID.length; id++) {
+            assertEquals(NAMES_BY_ID[id], TestFairyEvent.Code.fromId(id).name());
+        }
+    }
+
+    @Test
+    public void givesEveryNewCodeAnUnusedId() {
+        final Set<Integer> ids = new HashSet<Integer>();
+
+        for (TestFairyEvent.Code code : TestFairyEvent.Code.values()) {
+            assertTrue(code + " has no positive id", code.getId() > 0);
+            assertTrue(code + " reuses id " + code.getId(), ids.add(code.getId()));
+
+            // Codes that are not listed above must have been appended after the last listed id
+            if (code.getId() < NAMES_BY_ID.length) {
+                assertEquals(NAMES_BY_ID[code.getId()], code.name());
+            }
+        }
+    }
+
+    @Test
+    public void mapsIdsBackToCodes() {
+        for (TestFairyEvent.Code code : TestFairyEvent.Code.values()) {
+            assertSame(code, TestFairyEvent.Code.fromId(code.getId()));
+        }
+
+        assertNull(TestFairyEvent.Code.fromId(0));
+        assertNull(TestFairyEvent.Code.fromId(-1));
+        assertNull(TestFairyEvent.Code.fromId(10000));
+    }
+}
@@ -0,0 +1,198 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs the journal against a temporary directory. Records carry their sequence number in arg0.
+public class TestFairyEventJournalTest {
+
+    private static final int SEGMENT = TestFairyEventJournal.RECORDS_PER_SEGMENT;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("testfairy-journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void drainsRecordsInOrder() throws IOException {
+        final TestFairyEventJournal journal = new TestFairyEventJournal(directory, 4);
+
+        journal.append(100, TestFairyEvent.Code.VIDEO_STATE, 1, 0, 0, null);
+        journal.append(200, TestFairyEvent.Code.VIDEO_POSITION, 42, 7, -3, null);
+        journal.append(300, TestFairyEvent.Code.VIDEO_ERROR, 3, 0, 0, "a long error extra text that is cut off");
+
+        final Collector collector = new Collector();
+        assertEquals(3, journal.drain(collector, 10));
+        assertTrue(journal.isEmpty());
+
+        assertEquals(TestFairyEvent.Code.VIDEO_STATE, collector.codes.get(0));
+        assertEquals(Long.valueOf(100), collector.times.get(0));
+        assertNull(collector.extras.get(0));
+
+        assertEquals(TestFairyEvent.Code.VIDEO_POSITION, collector.codes.get(1));
+        assertEquals(Long.valueOf(42), collector.arg0s.get(1));
+        assertEquals(Long.valueOf(7), collector.arg1s.get(1));
+        assertEquals(Long.valueOf(-3), collector.arg2s.get(1));
+
+        assertEquals(TestFairyEvent.Code.VIDEO_ERROR, collector.codes.get(2));
+        assertEquals("a long error extra text ", collector.extras.get(2));
+    }
+
+    @Test
+    public void drainsInChunks() throws IOException {
+        final TestFairyEventJournal journal = new TestFairyEventJournal(directory, 4);
+        appendRange(journal, 0, 10);
+
+        final Collector collector = new Collector();
+        assertEquals(4, journal.drain(collector, 4));
+        assertFalse(journal.isEmpty());
+        assertEquals(6, journal.drain(collector, 100));
+        assertTrue(journal.isEmpty());
+        assertSequence(collector, 0, 10);
+    }
+
+    @Test
+    public void dropsRecordsUntilTheSpareSegmentIsMapped() throws IOException {
+        final TestFairyEventJournal journal = new TestFairyEventJournal(directory, 4);
+        assertTrue(journal.needsMaintenance());
+
+        appendRange(journal, 0, SEGMENT + 2);
+        assertEquals(2, journal.getDroppedRecordCount());
+
+        journal.maintain();
+        assertFalse(journal.needsMaintenance());
+        appendRange(journal, SEGMENT + 2, SEGMENT + 3);
+        assertEquals(2, journal.getDroppedRecordCount());
+        assertTrue(journal.needsMaintenance());
+
+        final Collector collector = new Collector();
+        assertEquals(SEGMENT + 1, journal.drain(collector, Integer.MAX_VALUE));
+        assertEquals(Long.valueOf(SEGMENT - 1), collector.arg0s.get(SEGMENT - 1));
+        assertEquals(Long.valueOf(SEGMENT + 2), collector.arg0s.get(SEGMENT));
+    }
+
+    @Test
+    public void dropsTheOldestSegmentsOverTheCap() throws IOException {
+        final TestFairyEventJournal journal = new TestFairyEventJournal(directory, 2);
+
+        for (int i = 0; i < 3; i++) {
+            journal.maintain();
+            appendRange(journal, i * SEGMENT, (i + 1) * SEGMENT);
+        }
+
+        assertEquals(1, journal.getDroppedSegmentCount());
+        assertEquals(0, journal.getDroppedRecordCount());
+
+        // The dropped segment is deleted by maintenance, next to the two live ones and the new spare
+        journal.maintain();
+        assertEquals(3, directory.list().length);
+
+        final Collector collector = new Collector();
+        assertEquals(2 * SEGMENT, journal.drain(collector, Integer.MAX_VALUE));
+        assertSequence(collector, SEGMENT, 3 * SEGMENT);
+    }
+
+    @Test
+    public void picksUpLeftoversWithoutReplayingTwice() throws IOException {
+        final TestFairyEventJournal first = new TestFairyEventJournal(directory, 4);
+        appendRange(first, 0, 10);
+        assertEquals(4, first.drain(new Collector(), 4));
+
+        final TestFairyEventJournal reopened = new TestFairyEventJournal(directory, 4);
+        final Collector collector = new Collector();
+        assertEquals(6, reopened.drain(collector, 100));
+        assertSequence(collector, 4, 10);
+
+        // Writing continues after the leftovers
+        appendRange(reopened, 10, 12);
+        final Collector more = new Collector();
+        assertEquals(2, reopened.drain(more, 100));
+        assertSequence(more, 10, 12);
+    }
+
+    @Test
+    public void picksUpLeftoversAcrossSegments() throws IOException {
+        final TestFairyEventJournal first = new TestFairyEventJournal(directory, 4);
+        first.maintain();
+        appendRange(first, 0, SEGMENT + 5);
+
+        final TestFairyEventJournal reopened = new TestFairyEventJournal(directory, 4);
+        final Collector collector = new Collector();
+        assertEquals(SEGMENT + 5, reopened.drain(collector, Integer.MAX_VALUE));
+        assertSequence(collector, 0, SEGMENT + 5);
+    }
+
+    @Test
+    public void startsOverOnceEverythingWasRead() throws IOException {
+        final TestFairyEventJournal journal = new TestFairyEventJournal(directory, 4);
+        journal.maintain();
+        appendRange(journal, 0, 3);
+        journal.drain(new Collector(), 100);
+
+        // The read segment is deleted and the spare becomes the write segment
+        assertEquals(1, directory.list().length);
+        assertTrue(journal.needsMaintenance());
+
+        appendRange(journal, 3, 5);
+        final Collector collector = new Collector();
+        assertEquals(2, journal.drain(collector, 100));
+        assertSequence(collector, 3, 5);
+    }
+    //////////////////////////////////////////////////////////////
+
+    private static void appendRange(TestFairyEventJournal journal, int from, int to) {
+        for (int i = from; i < to; i++) {
+            journal.append(i, TestFairyEvent.Code.VIDEO_POSITION, i, 0, 0, null);
+        }
+    }
+
+    private static void assertSequence(Collector collector, int from, int to) {
+        assertEquals(to - from, collector.arg0s.size());
+        for (int i = from; i < to; i++) {
+            assertEquals(Long.valueOf(i), collector.arg0s.get(i - from));
+        }
+    }
+
+    private static final class Collector implements TestFairyEventJournal.Consumer {
+        final List<TestFairyEvent.Code> codes = new ArrayList<TestFairyEvent.Code>();
+        final List<Long> times = new ArrayList<Long>();
+        final List<Long> arg0s = new ArrayList<Long>();
+        final List<Long> arg1s = new ArrayList<Long>();
+        final List<Long> arg2s = new ArrayList<Long>();
+        final List<String> extras = new ArrayList<String>();
+
+        @Override
+        public void accept(TestFairyEvent event, long timeMs) {
+            codes.add(event.code);
+            times.add(timeMs);
+            arg0s.add(event.arg0);
+            arg1s.add(event.arg1);
+            arg2s.add(event.arg2);
+            extras.add(event.extra == null ? null : event.extra.toString());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+// Several producers share the queue through a lock, as TestFairyEventLog does, while a consumer drains it concurrently.
+// Producers write their id into arg0 and a per-producer sequence number into arg1.
+public class TestFairyEventQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final TestFairyEvent.Code[] CODES = {TestFairyEvent.Code.VIDEO_BUFFERING,
+            TestFairyEvent.Code.VIDEO_POSITION, TestFairyEvent.Code.PLAYBACK_BUFFERED,
+            TestFairyEvent.Code.PLAYBACK_POSITION};
+
+    @Test
+    public void keepsEveryEventInOrderWhileUnderCapacity() throws Exception {
+        final TestFairyEventQueue queue = new TestFairyEventQueue(1024, TestFairyEventOverflowPolicy.DROP_NEWEST);
+        final Result result = run(queue, 200);
+
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(PRODUCERS * 200, result.received);
+        for (int i = 0; i < PRODUCERS; i++) {
+            assertEquals(200, result.receivedPerProducer[i]);
+        }
+    }
+
+    @Test
+    public void accountsForEveryEventWhenDroppingOldest() throws Exception {
+        assertAccounted(TestFairyEventOverflowPolicy.DROP_OLDEST);
+    }
+
+    @Test
+    public void accountsForEveryEventWhenDroppingNewest() throws Exception {
+        assertAccounted(TestFairyEventOverflowPolicy.DROP_NEWEST);
+    }
+
+    @Test
+    public void accountsForEveryEventWhenCoalescing() throws Exception {
+        assertAccounted(TestFairyEventOverflowPolicy.COALESCE);
+    }
+
+    @Test
+    public void coalescingKeepsTheLatestEventOfEachCode() {
+        final TestFairyEventQueue queue = new TestFairyEventQueue(2, TestFairyEventOverflowPolicy.COALESCE);
+
+        queue.offer(TestFairyEvent.Code.VIDEO_STATE, 1, 0, null);
+        queue.offer(TestFairyEvent.Code.VIDEO_STATE, 0, 0, null);
+        queue.offer(TestFairyEvent.Code.VIDEO_POSITION, 10, 0, null);
+        queue.offer(TestFairyEvent.Code.VIDEO_POSITION, 11, 0, null);
+        queue.offer(TestFairyEvent.Code.VIDEO_POSITION, 12, 0, null);
+
+        final TestFairyEvent[] batch = createBatch(8);
+        assertEquals(2, queue.drain(batch));
+        assertEquals(2, queue.getDroppedCount());
+        assertTrue(queue.hasCoalesced());
+
+        queue.publishCoalesced();
+        assertEquals(1, queue.drain(batch));
+        assertEquals(TestFairyEvent.Code.VIDEO_POSITION, batch[0].code);
+        assertEquals(12, batch[0].arg0);
+    }
+
+    private static void assertAccounted(TestFairyEventOverflowPolicy policy) throws Exception {
+        final TestFairyEventQueue queue = new TestFairyEventQueue(64, policy);
+        final Result result = run(queue, 100000);
+
+        assertEquals(PRODUCERS * 100000L, result.received + queue.getDroppedCount());
+        assertEquals(result.received, queue.getConsumedCount());
+    }
+    //////////////////////////////////////////////////////////////
+
+    private static final class Result {
+        long received;
+        final long[] receivedPerProducer = new long[PRODUCERS];
+    }
+
+    // Fails if any producer's events arrive out of order or twice
+    private static Result run(final TestFairyEventQueue queue, final int eventsPerProducer) throws Exception {
+        final Object lock = new Object();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(PRODUCERS);
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < eventsPerProducer; i++) {
+                            synchronized (lock) {
+                                queue.offer(CODES[producer], producer, i, null);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failed.set(true);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        final Result result = new Result();
+        final long[] lastSequence = {-1, -1, -1, -1};
+        final TestFairyEvent[] batch = createBatch(16);
+
+        start.countDown();
+        while (true) {
+            final boolean producersDone = done.getCount() == 0;
+            final int count = queue.drain(batch);
+
+            for (int i = 0; i < count; i++) {
+                final int producer = (int) batch[i].arg0;
+                assertEquals(CODES[producer], batch[i].code);
+                assertTrue("Out of order or duplicated", batch[i].arg1 > lastSequence[producer]);
+
+                lastSequence[producer] = batch[i].arg1;
+                result.receivedPerProducer[producer]++;
+                result.received++;
+            }
+
+            if (count == 0 && producersDone) {
+                synchronized (lock) {
+                    if (!queue.hasCoalesced()) {
+                        break;
+                    }
+                    queue.publishCoalesced();
+                }
+            }
+        }
+
+        assertTrue(!failed.get());
+        return result;
+    }
+
+    private static TestFairyEvent[] createBatch(int size) {
+        final TestFairyEvent[] batch = new TestFairyEvent[size];
+
+        for (int i = 0; i < size; i++) {
+            batch[i] = new TestFairyEvent();
+        }
+
+        return batch;
+    }
+}
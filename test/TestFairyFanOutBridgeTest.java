@@ -0,0 +1,394 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+// A sink that blocks must only lose its own events, and idle sink workers must park without a timeout.
+public class TestFairyFanOutBridgeTest {
+
+    private static final int EVENTS = 1000;
+    private static final int CAPACITY = 128;
+    private static final int ROUND = 100;
+    private static final long TIMEOUT_MS = 5000;
+
+    private TestFairyFanOutBridge fanOut;
+
+    @After
+    public void tearDown() {
+        if (fanOut != null) {
+            fanOut.close();
+        }
+    }
+
+    @Test
+    public void blockedSinkDoesNotHoldBackTheOthers() throws Exception {
+        final BlockingSink slow = new BlockingSink();
+        final CountingSink fast = new CountingSink(EVENTS);
+        fanOut = new TestFairyFanOutBridge(CAPACITY, TestFairyEventOverflowPolicy.DROP_OLDEST, slow, fast);
+
+        fanOut.onPlaybackPositionUpdate(0);
+        assertTrue(slow.entered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // Sent in rounds that fit the queue, so that only a sink that stopped consuming can fall behind
+        for (int i = 1; i < EVENTS; i++) {
+            fanOut.onPlaybackPositionUpdate(i % 100);
+
+            if (i % ROUND == 0) {
+                waitForLag(1, 0);
+            }
+        }
+
+        // The fast sink gets everything while the slow one is still stuck in its first event
+        assertTrue(fast.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(EVENTS, fast.count.get());
+        assertEquals(0, fanOut.getDroppedCount(1));
+        assertEquals(EVENTS, fanOut.getDeliveredCount(1));
+        assertEquals(1, slow.count.get());
+        assertTrue(fanOut.getDroppedCount(0) > 0);
+
+        // Once released, the slow sink accounts for every event as either delivered or dropped
+        slow.release.countDown();
+        waitForLag(0, 0);
+        assertEquals(EVENTS, fanOut.getDeliveredCount(0) + fanOut.getDroppedCount(0));
+    }
+
+    @Test
+    public void idleWorkersParkUntilTheNextEvent() throws Exception {
+        final CountingSink sink = new IdleSink(2);
+        fanOut = new TestFairyFanOutBridge(sink);
+
+        fanOut.onBufferingUpdate(10);
+        final Thread worker = findWorker(IdleSink.class);
+        waitForState(worker, Thread.State.WAITING);
+
+        fanOut.onBufferingUpdate(20);
+        assertTrue(sink.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        waitForState(worker, Thread.State.WAITING);
+    }
+    @Test
+    public void forwardsEveryBridgeV2Event() throws Exception {
+        final RecordingSink sink = new RecordingSink();
+        fanOut = new TestFairyFanOutBridge(sink);
+
+        final List<String> expected = Arrays.asList(
+                "onBufferingUpdate 5", "onPlaybackStateChange true", "onPlaybackPositionUpdate 6", "onComplete",
+                "onError 7 extra", "onBufferingStateChange true", "onSeek 8", "onDiscontinuity 2",
+                "onRepeatModeChange 1", "onShuffleModeChange false", "onNewMedia", "onVolumeChange 9",
+                "onFormatSwitch -1 -1 1920 -1 10000", "onBandwidthEstimate 100 5000000000 8000000",
+                "onDroppedFrames 3 1000", "onDecoderInitialized 2 40", "onAudioUnderrun 4096 85 120",
+                "onHttpError -1", "onLoadError", "onDrmEvent 5", "onErrorRepeats 4 60000 HTTP 503",
+                "onRetryStorm 10 900 HTTP 503", "onBandwidthBand 1000000 1200000", "onNetworkAtStall -1 300000",
+                "onStall 2 1500", "onJank 3 5000 episode", "onStartup -1 700 waterfall",
+                "onSummary 5 2 profile", "onSummary 0 -1 qoe");
+
+        fanOut.onBufferingUpdate(5);
+        fanOut.onPlaybackStateChange(true);
+        fanOut.onPlaybackPositionUpdate(6);
+        fanOut.onComplete();
+        fanOut.onError(7, "extra");
+        fanOut.onBufferingStateChange(true);
+        fanOut.onSeek(8);
+        fanOut.onDiscontinuity(2);
+        fanOut.onRepeatModeChange(1);
+        fanOut.onShuffleModeChange(false);
+        fanOut.onNewMedia();
+        fanOut.onVolumeChange(9);
+        fanOut.onFormatSwitch(TestFairyMediaPlayerGlue.TestFairyBridgeV2.TRACK_TYPE_UNKNOWN,
+                TestFairyMediaPlayerGlue.TestFairyBridgeV2.NO_VALUE, 1920, -1, 10000);
+        fanOut.onBandwidthEstimate(100, 5000000000L, 8000000);
+        fanOut.onDroppedFrames(3, 1000);
+        fanOut.onDecoderInitialized(2, 40);
+        fanOut.onAudioUnderrun(4096, 85, 120);
+        fanOut.onHttpError(TestFairyMediaPlayerGlue.TestFairyBridgeV2.NO_VALUE);
+        fanOut.onLoadError();
+        fanOut.onDrmEvent(TestFairyMediaPlayerGlue.TestFairyBridgeV2.DRM_SESSION_ERROR);
+        fanOut.onErrorRepeats(4, 60000, "HTTP 503");
+        fanOut.onRetryStorm(10, 900, "HTTP 503");
+        fanOut.onBandwidthBand(1000000, 1200000);
+        fanOut.onNetworkAtStall(-1, 300000);
+        fanOut.onStall(TestFairyMediaPlayerGlue.TestFairyBridgeV2.STALL_REBUFFER, 1500);
+        fanOut.onJank(TestFairyMediaPlayerGlue.TestFairyBridgeV2.JANK_SEVERE, 5000, "episode");
+        fanOut.onStartup(TestFairyMediaPlayerGlue.TestFairyBridgeV2.NO_VALUE, 700, "waterfall");
+        fanOut.onSummary(TestFairyMediaPlayerGlue.TestFairyBridgeV2.SUMMARY_DECODER_PROFILE,
+                TestFairyMediaPlayerGlue.TestFairyBridgeV2.TRACK_TYPE_VIDEO, "profile");
+        fanOut.onSummary(TestFairyMediaPlayerGlue.TestFairyBridgeV2.SUMMARY_QOE,
+                TestFairyMediaPlayerGlue.TestFairyBridgeV2.TRACK_TYPE_UNKNOWN, "qoe");
+
+        waitForLag(0, 0);
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (sink.size() < expected.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(expected, sink.copy());
+    }
+    //////////////////////////////////////////////////////////////
+
+    private void waitForLag(int sink, int lag) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (fanOut.getLag(sink) > lag && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(lag, fanOut.getLag(sink));
+    }
+
+    private static Thread findWorker(Class<?> sinkClass) {
+        final String name = "TestFairyFanOutBridge-" + sinkClass.getSimpleName();
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) {
+                return thread;
+            }
+        }
+
+        throw new AssertionError("No worker thread named " + name);
+    }
+
+    private static void waitForState(Thread thread, Thread.State state) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (thread.getState() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(state, thread.getState());
+    }
+
+    private static class CountingSink implements TestFairyMediaPlayerGlue.TestFairyBridge {
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch done;
+
+        CountingSink(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        void onEvent() {
+            count.incrementAndGet();
+            done.countDown();
+        }
+
+        @Override
+        public void onBufferingUpdate(int percent) {
+            onEvent();
+        }
+
+        @Override
+        public void onPlaybackStateChange(boolean isPlaying) {
+            onEvent();
+        }
+
+        @Override
+        public void onPlaybackPositionUpdate(int percent) {
+            onEvent();
+        }
+
+        @Override
+        public void onComplete() {
+            onEvent();
+        }
+
+        @Override
+        public void onError(int reason, Object extra) {
+            onEvent();
+        }
+    }
+
+    private static final class RecordingSink extends TestFairyMediaPlayerGlue.BaseTestFairyBridgeV2 {
+        private final List<String> calls = new ArrayList<String>();
+
+        private synchronized void record(Object... parts) {
+            final StringBuilder out = new StringBuilder();
+            for (Object part : parts) {
+                out.append(out.length() == 0 ? "" : " ").append(part);
+            }
+            calls.add(out.toString());
+        }
+
+        synchronized int size() {
+            return calls.size();
+        }
+
+        synchronized List<String> copy() {
+            return new ArrayList<String>(calls);
+        }
+
+        @Override
+        public void onBufferingUpdate(int percent) {
+            record("onBufferingUpdate", percent);
+        }
+
+        @Override
+        public void onPlaybackStateChange(boolean isPlaying) {
+            record("onPlaybackStateChange", isPlaying);
+        }
+
+        @Override
+        public void onPlaybackPositionUpdate(int percent) {
+            record("onPlaybackPositionUpdate", percent);
+        }
+
+        @Override
+        public void onComplete() {
+            record("onComplete");
+        }
+
+        @Override
+        public void onError(int reason, Object extra) {
+            record("onError", reason, extra);
+        }
+
+        @Override
+        public void onBufferingStateChange(boolean isBuffering) {
+            record("onBufferingStateChange", isBuffering);
+        }
+
+        @Override
+        public void onSeek(int percent) {
+            record("onSeek", percent);
+        }
+
+        @Override
+        public void onDiscontinuity(int reason) {
+            record("onDiscontinuity", reason);
+        }
+
+        @Override
+        public void onRepeatModeChange(int repeatMode) {
+            record("onRepeatModeChange", repeatMode);
+        }
+
+        @Override
+        public void onShuffleModeChange(boolean isEnabled) {
+            record("onShuffleModeChange", isEnabled);
+        }
+
+        @Override
+        public void onNewMedia() {
+            record("onNewMedia");
+        }
+
+        @Override
+        public void onVolumeChange(int percent) {
+            record("onVolumeChange", percent);
+        }
+
+        @Override
+        public void onFormatSwitch(int trackType, int bitrate, int width, int height, int selectionReason) {
+            record("onFormatSwitch", trackType, bitrate, width, height, selectionReason);
+        }
+
+        @Override
+        public void onBandwidthEstimate(int totalLoadTimeMs, long totalBytesLoaded, long bitrateEstimate) {
+            record("onBandwidthEstimate", totalLoadTimeMs, totalBytesLoaded, bitrateEstimate);
+        }
+
+        @Override
+        public void onDroppedFrames(int droppedFrames, long elapsedMs) {
+            record("onDroppedFrames", droppedFrames, elapsedMs);
+        }
+
+        @Override
+        public void onDecoderInitialized(int trackType, long initializationDurationMs) {
+            record("onDecoderInitialized", trackType, initializationDurationMs);
+        }
+
+        @Override
+        public void onAudioUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+            record("onAudioUnderrun", bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
+        }
+
+        @Override
+        public void onHttpError(int responseCode) {
+            record("onHttpError", responseCode);
+        }
+
+        @Override
+        public void onLoadError() {
+            record("onLoadError");
+        }
+
+        @Override
+        public void onDrmEvent(int drmEvent) {
+            record("onDrmEvent", drmEvent);
+        }
+
+        @Override
+        public void onErrorRepeats(int repeats, long windowMs, String fingerprint) {
+            record("onErrorRepeats", repeats, windowMs, fingerprint);
+        }
+
+        @Override
+        public void onRetryStorm(int errors, long spanMs, String fingerprint) {
+            record("onRetryStorm", errors, spanMs, fingerprint);
+        }
+
+        @Override
+        public void onBandwidthBand(long bandLowerBound, long bitrateEstimate) {
+            record("onBandwidthBand", bandLowerBound, bitrateEstimate);
+        }
+
+        @Override
+        public void onNetworkAtStall(long bitrateEstimate, long lastLoadBitrate) {
+            record("onNetworkAtStall", bitrateEstimate, lastLoadBitrate);
+        }
+
+        @Override
+        public void onStall(int stallCause, long durationMs) {
+            record("onStall", stallCause, durationMs);
+        }
+
+        @Override
+        public void onJank(int jankSeverity, long durationMs, Object episode) {
+            record("onJank", jankSeverity, durationMs, episode);
+        }
+
+        @Override
+        public void onStartup(long firstFrameMs, long tracedMs, Object waterfall) {
+            record("onStartup", firstFrameMs, tracedMs, waterfall);
+        }
+
+        @Override
+        public void onSummary(int summaryType, int trackType, Object summary) {
+            record("onSummary", summaryType, trackType, summary);
+        }
+    }
+
+    // Only here to give the worker thread a name of its own
+    private static final class IdleSink extends CountingSink {
+        IdleSink(int expected) {
+            super(expected);
+        }
+    }
+
+    private static final class BlockingSink extends CountingSink {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingSink() {
+            super(EVENTS);
+        }
+
+        @Override
+        void onEvent() {
+            super.onEvent();
+            entered.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
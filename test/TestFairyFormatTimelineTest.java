@@ -0,0 +1,106 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+// Decodes the timeline entries back into absolute values.
+public class TestFairyFormatTimelineTest {
+
+    private static final int NO_VALUE = TestFairyFormatTimeline.NO_VALUE;
+
+    @Test
+    public void encodesTheTimeSinceThePreviousSwitch() {
+        final TestFairyFormatTimeline timeline = new TestFairyFormatTimeline();
+
+        timeline.onFormat(1000, 1000000, 1280, 720, 0);
+        timeline.onFormat(3000, 3000000, 1920, 1080, 1);
+        timeline.onFormat(3500, 2000000, NO_VALUE, NO_VALUE, 1);
+
+        final TestFairyFormatTimeline.Summary summary = timeline.end(5500);
+        final long[][] entries = decode(summary.encoded, summary.entryCount);
+
+        assertArrayEquals(new long[] {0, 1000000, 1280, 720, 0}, entries[0]);
+        assertArrayEquals(new long[] {2000, 3000000, 1920, 1080, 1}, entries[1]);
+        assertArrayEquals(new long[] {500, 2000000, 1920, 1080, 1}, entries[2]);
+    }
+
+    @Test
+    public void summarizesTheSession() {
+        final TestFairyFormatTimeline timeline = new TestFairyFormatTimeline();
+
+        timeline.onFormat(1000, 1000000, 1280, 720, 0);
+        timeline.onFormat(3000, 3000000, 1920, 1080, 1);
+        timeline.onFormat(3500, 2000000, NO_VALUE, NO_VALUE, 1);
+
+        // Repeats of the current format are not entries
+        timeline.onFormat(4000, 2000000, 1920, 1080, 1);
+
+        final TestFairyFormatTimeline.Summary summary = timeline.end(5500);
+
+        assertEquals(3, summary.entryCount);
+        assertEquals(1, summary.upshiftCount);
+        assertEquals(1, summary.downshiftCount);
+        assertEquals(4500, summary.durationMs);
+
+        // 2000 ms at 1 Mbps, 500 ms at 3 Mbps and 2000 ms at 2 Mbps
+        assertEquals((2000L * 1000000 + 500L * 3000000 + 2000L * 2000000) / 4500, summary.averageBitrate);
+    }
+
+    @Test
+    public void startsOverAfterTheSessionEnds() {
+        final TestFairyFormatTimeline timeline = new TestFairyFormatTimeline();
+
+        assertNull(timeline.end(100));
+
+        timeline.onFormat(1000, 1000000, 1280, 720, 0);
+        timeline.end(2000);
+        timeline.onFormat(9000, 500000, 640, 360, 0);
+
+        final TestFairyFormatTimeline.Summary summary = timeline.end(9500);
+        assertArrayEquals(new long[] {0, 500000, 640, 360, 0}, decode(summary.encoded, summary.entryCount)[0]);
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Returns time delta, bitrate, width, height and reason of every entry
+    private static long[][] decode(byte[] encoded, int count) {
+        final long[][] entries = new long[count][];
+        final int[] position = {0};
+        long bitrate = NO_VALUE;
+        long width = NO_VALUE;
+        long height = NO_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            final long deltaMs = readVarLong(encoded, position);
+            bitrate += unZigZag(readVarLong(encoded, position));
+            width += unZigZag(readVarLong(encoded, position));
+            height += unZigZag(readVarLong(encoded, position));
+            final long reason = unZigZag(readVarLong(encoded, position));
+
+            entries[i] = new long[] {deltaMs, bitrate, width, height, reason};
+        }
+
+        assertEquals(encoded.length, position[0]);
+        return entries;
+    }
+
+    private static long readVarLong(byte[] encoded, int[] position) {
+        long value = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = encoded[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
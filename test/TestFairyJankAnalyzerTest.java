@@ -0,0 +1,80 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// Drives the analyzer with a manual clock at the default 30 fps, where 5% of the drop window is 7.5 frames.
+public class TestFairyJankAnalyzerTest {
+
+    private TestFairyManualTimer timer;
+    private RecordingAnalyzer analyzer;
+
+    @Before
+    public void setUp() {
+        timer = new TestFairyManualTimer(0);
+        analyzer = new RecordingAnalyzer(new TestFairyTickScheduler(timer));
+    }
+
+    @Test
+    public void datesUnderrunEpisodesBackToTheFirstUnderrun() {
+        analyzer.onAudioUnderrun(10000);
+        assertNull(analyzer.episode);
+
+        analyzer.onAudioUnderrun(30000);
+        analyzer.end(31000);
+
+        assertEquals(10000, analyzer.episode.startMs);
+        assertEquals(20000, analyzer.episode.durationMs);
+        assertEquals(2, analyzer.episode.underruns);
+        assertEquals(TestFairyJankAnalyzer.SEVERITY_MILD, analyzer.episode.severity);
+    }
+
+    @Test
+    public void datesDropEpisodesBackToTheFirstDropInTheWindow() {
+        analyzer.onDroppedFrames(2000, 3, 1000);
+        analyzer.onDroppedFrames(4000, 10, 1000);
+        analyzer.end(5000);
+
+        assertEquals(1000, analyzer.episode.startMs);
+        assertEquals(3000, analyzer.episode.durationMs);
+        assertEquals(13, analyzer.episode.droppedFrames);
+    }
+
+    @Test
+    public void leavesReportsOutsideTheWindowOutOfTheEpisode() {
+        analyzer.onDroppedFrames(1000, 3, 1000);
+        analyzer.onDroppedFrames(20000, 10, 1000);
+        analyzer.end(21000);
+
+        assertEquals(19000, analyzer.episode.startMs);
+        assertEquals(10, analyzer.episode.droppedFrames);
+    }
+
+    @Test
+    public void closesEpisodesOnTheSchedulerWhenReportsStop() {
+        timer.advanceTo(2000);
+        analyzer.onDroppedFrames(2000, 40, 1000);
+        assertNull(analyzer.episode);
+
+        timer.advanceTo(10000);
+        assertEquals(1000, analyzer.episode.startMs);
+        assertEquals(1000, analyzer.episode.durationMs);
+    }
+    //////////////////////////////////////////////////////////////
+
+    private static final class RecordingAnalyzer extends TestFairyJankAnalyzer {
+        Episode episode;
+
+        RecordingAnalyzer(TestFairyTickScheduler scheduler) {
+            super(scheduler);
+        }
+
+        @Override
+        protected void onEpisode(Episode episode) {
+            this.episode = episode;
+        }
+    }
+}
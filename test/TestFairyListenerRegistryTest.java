@@ -0,0 +1,234 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+// Writers register and unregister their own listeners while readers iterate over snapshots, the way player callbacks
+// race with apps adding listeners from another thread.
+public class TestFairyListenerRegistryTest {
+
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int LISTENERS_PER_WRITER = 8;
+    private static final int ROUNDS = 2000;
+
+    @Test
+    public void keepsRegistrationOrder() {
+        final TestFairyListenerRegistry<String> registry = new TestFairyListenerRegistry<String>(new String[0]);
+
+        assertTrue(registry.add("a"));
+        assertTrue(registry.add("b"));
+        assertFalse(registry.add("a"));
+        assertTrue(registry.add("c"));
+        assertArrayEquals(new String[] {"a", "b", "c"}, registry.get());
+
+        assertTrue(registry.remove("b"));
+        assertFalse(registry.remove("b"));
+        assertArrayEquals(new String[] {"a", "c"}, registry.get());
+
+        registry.set("d");
+        assertArrayEquals(new String[] {"d"}, registry.get());
+
+        registry.set(null);
+        assertEquals(0, registry.get().length);
+    }
+
+    @Test
+    public void neverChangesASnapshot() {
+        final TestFairyListenerRegistry<String> registry = new TestFairyListenerRegistry<String>(new String[0]);
+        registry.add("a");
+        registry.add("b");
+
+        final String[] snapshot = registry.get();
+        registry.remove("a");
+        registry.add("c");
+        registry.set("d");
+
+        assertArrayEquals(new String[] {"a", "b"}, snapshot);
+    }
+
+    @Test
+    public void readersOnlySeeConsistentSnapshotsWhileWritersRace() throws Exception {
+        final TestFairyListenerRegistry<Listener> registry = new TestFairyListenerRegistry<Listener>(new Listener[0]);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] writers = new Thread[WRITERS];
+        final Thread[] readers = new Thread[READERS];
+
+        for (int w = 0; w < WRITERS; w++) {
+            final Listener[] own = new Listener[LISTENERS_PER_WRITER];
+            for (int i = 0; i < own.length; i++) {
+                own[i] = new Listener(w, i);
+            }
+
+            writers[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    for (int round = 0; round < ROUNDS; round++) {
+                        for (Listener listener : own) {
+                            if (!registry.add(listener)) {
+                                failure.compareAndSet(null, listener + " was already registered");
+                            }
+                        }
+
+                        // Nobody else touches this writer's listeners, so they are all visible now
+                        final Listener[] snapshot = registry.get();
+                        for (Listener listener : own) {
+                            if (indexOf(snapshot, listener) < 0) {
+                                failure.compareAndSet(null, listener + " is missing after add");
+                            }
+                        }
+
+                        for (int i = own.length - 1; i >= 0; i--) {
+                            if (!registry.remove(own[i])) {
+                                failure.compareAndSet(null, own[i] + " was not registered");
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    while (writing.get()) {
+                        final String problem = check(registry.get());
+                        if (problem != null) {
+                            failure.compareAndSet(null, problem);
+                        }
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.start();
+        }
+
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        writing.set(false);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(0, registry.get().length);
+    }
+
+    @Test
+    public void settlesOnTheLastSetFromAnyThread() throws Exception {
+        final TestFairyListenerRegistry<Listener> registry = new TestFairyListenerRegistry<Listener>(new Listener[0]);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Listener[] last = new Listener[WRITERS];
+        final Thread[] writers = new Thread[WRITERS];
+
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    for (int round = 0; round < ROUNDS; round++) {
+                        final Listener listener = new Listener(writer, round);
+                        registry.set(listener);
+                        registry.add(new Listener(writer, -round - 1));
+                        last[writer] = listener;
+                    }
+                }
+            });
+            writers[w].start();
+        }
+
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+
+        // Whatever interleaving won, the registry holds one set listener and at most the adds that followed it
+        final Listener[] snapshot = registry.get();
+        assertTrue(snapshot.length >= 1 && snapshot.length <= WRITERS + 1);
+        assertNull(check(snapshot));
+        assertTrue(snapshot[0].index >= 0);
+        assertSame(last[snapshot[0].writer], snapshot[0]);
+    }
+    //////////////////////////////////////////////////////////////
+
+    private static final class Listener {
+        final int writer;
+        final int index;
+
+        Listener(int writer, int index) {
+            this.writer = writer;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return "listener " + writer + "/" + index;
+        }
+    }
+
+    // Snapshots never hold nulls or duplicates, and every writer's listeners keep their registration order
+    private static String check(Listener[] snapshot) {
+        final int[] lastIndex = new int[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            lastIndex[w] = Integer.MIN_VALUE;
+        }
+
+        for (int i = 0; i < snapshot.length; i++) {
+            final Listener listener = snapshot[i];
+            if (listener == null) {
+                return "null at " + i;
+            }
+            if (indexOf(snapshot, listener) != i) {
+                return listener + " is registered twice";
+            }
+            if (listener.index >= 0) {
+                if (listener.index < lastIndex[listener.writer]) {
+                    return listener + " is out of order";
+                }
+                lastIndex[listener.writer] = listener.index;
+            }
+        }
+
+        return null;
+    }
+
+    private static int indexOf(Object[] array, Object value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.testfairy.tvtest.testfairy;
+
+// A TestFairyTickScheduler clock that only moves when a test advances it. Wakeups run on the test thread.
+final class TestFairyManualTimer implements TestFairyTickScheduler.Timer {
+
+    private long nowMs;
+    private Runnable pending;
+    private long pendingAtMs;
+    private int wakeupCount = 0;
+
+    TestFairyManualTimer(long nowMs) {
+        this.nowMs = nowMs;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return nowMs;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return nowMs;
+    }
+
+    @Override
+    public void postAtTime(Runnable tick, long uptimeMs) {
+        pending = tick;
+        pendingAtMs = uptimeMs;
+    }
+
+    @Override
+    public void removeCallbacks(Runnable tick) {
+        if (pending == tick) {
+            pending = null;
+        }
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return true;
+    }
+
+    // Runs every wakeup that falls due on the way to the given time
+    void advanceTo(long targetMs) {
+        while (pending != null && pendingAtMs <= targetMs) {
+            final Runnable tick = pending;
+
+            nowMs = Math.max(nowMs, pendingAtMs);
+            pending = null;
+            wakeupCount++;
+            tick.run();
+        }
+
+        nowMs = Math.max(nowMs, targetMs);
+    }
+
+    void advanceBy(long deltaMs) {
+        advanceTo(nowMs + deltaMs);
+    }
+
+    long now() {
+        return nowMs;
+    }
+
+    boolean hasPendingWakeup() {
+        return pending != null;
+    }
+
+    int getWakeupCount() {
+        return wakeupCount;
+    }
+}
@@ -0,0 +1,180 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+// Counts the getter calls that reach a fake player while the snapshot is read the way the integrations read it.
+public class TestFairyPlayerSnapshotTest {
+
+    private static final long MAX_AGE_MS = TestFairyPlayerSnapshot.MAX_AGE_MS;
+
+    @Test
+    public void keepsTheDurationUntilItIsInvalidated() {
+        final FakePlayer player = new FakePlayer();
+        player.duration = 60000;
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(60000, player.getDuration());
+        }
+        assertEquals(1, player.durationCalls);
+
+        player.duration = 90000;
+        player.invalidateDuration();
+        assertEquals(90000, player.getDuration());
+        assertEquals(2, player.durationCalls);
+    }
+
+    @Test
+    public void asksAgainWhileTheDurationIsUnknown() {
+        final FakePlayer player = new FakePlayer();
+        player.duration = -1;
+
+        assertEquals(-1, player.getPositionPercent());
+        assertEquals(-1, player.getPositionPercent());
+        assertEquals(2, player.durationCalls);
+
+        player.duration = 1000;
+        player.position = 250;
+        assertEquals(25, player.getPositionPercent());
+    }
+
+    @Test
+    public void forgetsTheDurationWhenPlaybackPassesIt() {
+        final FakePlayer player = new FakePlayer();
+        player.duration = 1000;
+        player.getDuration();
+
+        // The media was replaced without a callback
+        player.duration = 5000;
+        player.position = 2000;
+        player.getCurrentPosition();
+
+        assertEquals(5000, player.getDuration());
+        assertEquals(2, player.durationCalls);
+    }
+
+    @Test
+    public void clampsTheBufferedPercent() {
+        final FakePlayer player = new FakePlayer();
+        player.duration = -1;
+        assertEquals(-1, player.getBufferedPercent());
+
+        player.duration = 1000;
+        player.bufferedPosition = 400;
+        assertEquals(40, player.getBufferedPercent());
+
+        player.bufferedPosition = 1200;
+        player.nowMs += MAX_AGE_MS;
+        assertEquals(100, player.getBufferedPercent());
+    }
+
+    @Test
+    public void sharesVolatileValuesWithinTheMaxAge() {
+        final FakePlayer player = new FakePlayer();
+        player.position = 100;
+
+        assertEquals(100, player.getCurrentPosition());
+        player.position = 200;
+        player.nowMs += MAX_AGE_MS - 1;
+        assertEquals(100, player.getCurrentPosition());
+        assertEquals(1, player.positionCalls);
+
+        player.nowMs += 1;
+        assertEquals(200, player.getCurrentPosition());
+        assertEquals(2, player.positionCalls);
+    }
+
+    @Test
+    public void readsAgainAfterAStateChange() {
+        final FakePlayer player = new FakePlayer();
+        player.playing = true;
+        assertTrue(player.isPlaying());
+
+        player.playing = false;
+        player.invalidate();
+        assertFalse(player.isPlaying());
+        assertEquals(2, player.playingCalls);
+    }
+
+    // The adapter reports position and buffered position once per update interval, and the position tracker wakes up
+    // in the same tick. Without the snapshot every read below is a call into the player.
+    @Test
+    public void cutsPlayerCallsPerTick() {
+        final FakePlayer player = new FakePlayer();
+        player.duration = 2 * 60 * 60 * 1000;
+        player.playing = true;
+
+        final int ticks = 1000;
+        for (int tick = 0; tick < ticks; tick++) {
+            player.nowMs += 1000;
+            player.position += 1000;
+            player.bufferedPosition = player.position + 30000;
+
+            // onCurrentPositionChanged
+            player.getDuration();
+            player.getCurrentPosition();
+
+            // onBufferedPositionChanged
+            player.getDuration();
+            player.getBufferedPosition();
+
+            // Position tracker
+            player.getDuration();
+            player.getCurrentPosition();
+            player.isPlaying();
+        }
+
+        assertEquals(7 * ticks, player.getReadCount());
+
+        // One duration read in total, then position, buffered position and play state once per tick
+        assertEquals(1 + 3 * ticks, player.getPlayerCallCount());
+        assertEquals(player.durationCalls + player.positionCalls + player.bufferedPositionCalls + player.playingCalls,
+                player.getPlayerCallCount());
+    }
+    //////////////////////////////////////////////////////////////
+
+    private static final class FakePlayer extends TestFairyPlayerSnapshot {
+        long nowMs = 1000;
+        long duration;
+        long position;
+        long bufferedPosition;
+        boolean playing;
+
+        int durationCalls;
+        int positionCalls;
+        int bufferedPositionCalls;
+        int playingCalls;
+
+        @Override
+        protected long readDuration() {
+            durationCalls++;
+            return duration;
+        }
+
+        @Override
+        protected long readCurrentPosition() {
+            positionCalls++;
+            return position;
+        }
+
+        @Override
+        protected boolean readIsPlaying() {
+            playingCalls++;
+            return playing;
+        }
+
+        @Override
+        protected long readBufferedPosition() {
+            bufferedPositionCalls++;
+            return bufferedPosition;
+        }
+
+        @Override
+        protected long uptimeMillis() {
+            return nowMs;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+// Plays a simulated player against a scheduler whose clock only moves when the test advances it
+public class TestFairyPositionTrackerTest {
+
+    private static final long MOVIE_MS = 2 * 60 * 60 * 1000;
+
+    private TestFairyManualTimer timer;
+    private TestFairyTickScheduler scheduler;
+    private SimulatedPlayer player;
+
+    @Before
+    public void setUp() {
+        timer = new TestFairyManualTimer(1000);
+        scheduler = new TestFairyTickScheduler(timer);
+        player = new SimulatedPlayer(scheduler);
+    }
+
+    @Test
+    public void computesTheDelayToTheNextPercentBoundary() {
+        // 1% of a two hour movie is 72 s, capped at MAX_DELAY_MS
+        assertEquals(TestFairyPositionTracker.MAX_DELAY_MS, TestFairyPositionTracker.computeDelayMs(0, MOVIE_MS, 1f));
+        assertEquals(36020, TestFairyPositionTracker.computeDelayMs(36000, MOVIE_MS, 1f));
+        assertEquals(18020, TestFairyPositionTracker.computeDelayMs(36000, MOVIE_MS, 2f));
+        assertEquals(2020, TestFairyPositionTracker.computeDelayMs(70000, MOVIE_MS, 1f));
+
+        // Never polls faster than MIN_DELAY_MS, even for short clips
+        assertEquals(TestFairyPositionTracker.MIN_DELAY_MS, TestFairyPositionTracker.computeDelayMs(0, 5000, 1f));
+    }
+
+    @Test
+    public void reportsEveryPercentOfAMovieWithFewWakeups() {
+        player.play();
+        player.tracker.start();
+        timer.advanceTo(timer.now() + MOVIE_MS);
+
+        assertEquals(100, player.percents.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) player.percents.get(i));
+        }
+
+        // Polling every 100 ms would take 72000 wakeups
+        assertTrue("Too many wakeups: " + timer.getWakeupCount(), timer.getWakeupCount() < 250);
+    }
+
+    @Test
+    public void defersTheFirstSample() {
+        player.play();
+        player.tracker.start();
+
+        timer.advanceBy(TestFairyPositionTracker.MIN_DELAY_MS - 1);
+        assertEquals(0, player.reads);
+
+        timer.advanceBy(1);
+        assertEquals(1, player.percents.size());
+    }
+
+    @Test
+    public void parksWhilePausedAndResyncsOnResume() {
+        player.play();
+        player.tracker.start();
+        timer.advanceBy(10 * 60 * 1000);
+        assertEquals(8, (int) player.percents.get(player.percents.size() - 1));
+
+        player.pause();
+        player.tracker.resync();
+        assertFalse(timer.hasPendingWakeup());
+        assertEquals(0, scheduler.getScheduledCount());
+
+        final int wakeups = timer.getWakeupCount();
+        final int reads = player.reads;
+        timer.advanceBy(60 * 60 * 1000);
+        assertEquals(wakeups, timer.getWakeupCount());
+        assertEquals(reads, player.reads);
+
+        player.play();
+        player.tracker.resync();
+        assertTrue(timer.hasPendingWakeup());
+        timer.advanceBy(3 * 60 * 1000);
+        assertEquals(10, (int) player.percents.get(player.percents.size() - 1));
+    }
+
+    @Test
+    public void reportsTheNewPercentRightAfterASeek() {
+        player.play();
+        player.tracker.start();
+        timer.advanceBy(1000);
+
+        player.seekTo(MOVIE_MS / 2);
+        player.tracker.resync();
+        assertEquals(50, (int) player.percents.get(player.percents.size() - 1));
+    }
+
+    @Test
+    public void followsThePlaybackSpeed() {
+        player.play();
+        player.tracker.start();
+        timer.advanceBy(1000);
+
+        player.setSpeed(2f);
+        player.tracker.setPlaybackSpeed(2f);
+        timer.advanceBy(5 * 60 * 1000);
+
+        // 5 minutes at twice the speed cover 10 minutes of the movie
+        assertEquals(8, (int) player.percents.get(player.percents.size() - 1));
+    }
+
+    @Test
+    public void stopsSampling() {
+        player.play();
+        player.tracker.start();
+        timer.advanceBy(1000);
+
+        player.tracker.stop();
+        final int reads = player.reads;
+        timer.advanceBy(MOVIE_MS);
+
+        assertEquals(reads, player.reads);
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void staysStoppedWhenStoppedFromThePercentCallback() {
+        player.stopAtPercent = 3;
+        player.play();
+        player.tracker.start();
+        timer.advanceTo(timer.now() + MOVIE_MS);
+
+        assertEquals(3, (int) player.percents.get(player.percents.size() - 1));
+        assertFalse(player.tracker.isRunning());
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+    //////////////////////////////////////////////////////////////
+
+    private final class SimulatedPlayer {
+        final List<Integer> percents = new ArrayList<>();
+        final TestFairyPositionTracker tracker;
+        int reads = 0;
+        int stopAtPercent = -1;
+
+        private boolean playing = false;
+        private float speed = 1f;
+        private long basePositionMs = 0;
+        private long baseTimeMs = 0;
+
+        SimulatedPlayer(TestFairyTickScheduler scheduler) {
+            tracker = new TestFairyPositionTracker(scheduler) {
+                @Override
+                protected long getDuration() {
+                    return MOVIE_MS;
+                }
+
+                @Override
+                protected long getCurrentPosition() {
+                    reads++;
+                    return position();
+                }
+
+                @Override
+                protected boolean isPlaying() {
+                    return playing;
+                }
+
+                @Override
+                protected void onPositionPercentChanged(int percent) {
+                    percents.add(percent);
+
+                    if (percent == stopAtPercent) {
+                        stop();
+                    }
+                }
+            };
+        }
+
+        long position() {
+            if (!playing) {
+                return basePositionMs;
+            }
+
+            return Math.min(MOVIE_MS - 1, basePositionMs + (long) ((timer.now() - baseTimeMs) * speed));
+        }
+
+        void play() {
+            rebase();
+            playing = true;
+        }
+
+        void pause() {
+            rebase();
+            playing = false;
+        }
+
+        void seekTo(long positionMs) {
+            rebase();
+            basePositionMs = positionMs;
+        }
+
+        void setSpeed(float speed) {
+            rebase();
+            this.speed = speed;
+        }
+
+        private void rebase() {
+            basePositionMs = position();
+            baseTimeMs = timer.now();
+        }
+    }
+}
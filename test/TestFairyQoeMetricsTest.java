@@ -0,0 +1,70 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestFairyQoeMetricsTest {
+
+    @Test
+    public void averagesBitrateOverPlayingTime() {
+        final TestFairyQoeMetrics metrics = new TestFairyQoeMetrics();
+
+        metrics.onPlayIntent(0);
+        metrics.onBitrateChanged(0, 1000000);
+        metrics.onPlaying(0);
+        metrics.onBitrateChanged(10000, 3000000);
+
+        final TestFairyQoeMetrics.Summary summary = metrics.end(30000);
+
+        // 10 s at 1000 kbps and 20 s at 3000 kbps
+        assertEquals(2333333, summary.averageBitrate);
+        assertEquals(30000, summary.playingMs);
+    }
+
+    @Test
+    public void leavesPausedTimeOutOfTheAverage() {
+        final TestFairyQoeMetrics metrics = new TestFairyQoeMetrics();
+
+        metrics.onPlayIntent(0);
+        metrics.onBitrateChanged(0, 1000000);
+        metrics.onPlaying(0);
+        metrics.onPaused(10000);
+        metrics.onBitrateChanged(50000, 4000000);
+        metrics.onPlaying(60000);
+        metrics.onBitrateChanged(70000, 2000000);
+
+        final TestFairyQoeMetrics.Summary summary = metrics.end(80000);
+
+        // 10 s at 1000 kbps, 10 s at 4000 kbps and 10 s at 2000 kbps
+        assertEquals(2333333, summary.averageBitrate);
+        assertEquals(30000, summary.playingMs);
+        assertEquals(50000, summary.pausedMs);
+    }
+
+    @Test
+    public void leavesStartupAndStallsOutWhenNotTraced() {
+        final TestFairyQoeMetrics metrics = new TestFairyQoeMetrics();
+        metrics.setStartupAndStallsTraced(false);
+
+        // The first thing an untraced integration sees is playback
+        metrics.onPlaying(1000);
+        final String summary = metrics.end(11000).toString();
+
+        assertTrue(summary, summary.startsWith("played 10s"));
+        assertFalse(summary, summary.contains("startup"));
+        assertFalse(summary, summary.contains("rebuffers"));
+    }
+
+    @Test
+    public void reportsNoBitrateWithoutPlayback() {
+        final TestFairyQoeMetrics metrics = new TestFairyQoeMetrics();
+
+        metrics.onPlayIntent(0);
+        metrics.onBitrateChanged(0, 1000000);
+
+        assertEquals(-1, metrics.end(5000).averageBitrate);
+    }
+}
@@ -0,0 +1,184 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+// Feeds transitions the way the integrations do and checks the stalls and states that come out.
+public class TestFairyStallDetectorTest {
+
+    private static final int INITIAL_LOAD = TestFairyStallDetector.CAUSE_INITIAL_LOAD;
+    private static final int SEEK = TestFairyStallDetector.CAUSE_SEEK;
+    private static final int REBUFFER = TestFairyStallDetector.CAUSE_REBUFFER;
+
+    @Test
+    public void classifiesStallsByCause() {
+        final RecordingDetector detector = new RecordingDetector();
+
+        detector.onBufferingStarted(0);
+        detector.onBufferingEnded(800, true);
+
+        detector.onBufferingStarted(5000);
+        detector.onBufferingEnded(5300, true);
+
+        detector.onSeek(9000);
+        detector.onBufferingStarted(9010);
+        detector.onBufferingEnded(9510, true);
+
+        assertEquals("0:800 2:300 1:500", detector.stalls());
+    }
+
+    @Test
+    public void attributesLateSeeksToTheOngoingStall() {
+        final RecordingDetector detector = new RecordingDetector();
+        detector.onPlaying(0);
+
+        detector.onBufferingStarted(1000);
+        detector.onSeek(1005);
+        detector.onBufferingEnded(1400, true);
+
+        assertEquals("1:400", detector.stalls());
+    }
+
+    @Test
+    public void keepsTheFirstLoadWhenSeekingBeforePlayback() {
+        final RecordingDetector detector = new RecordingDetector();
+
+        detector.onBufferingStarted(0);
+        detector.onSeek(10);
+        detector.onBufferingEnded(600, true);
+
+        assertEquals("0:600", detector.stalls());
+    }
+
+    @Test
+    public void endsStallsOnPause() {
+        final RecordingDetector detector = new RecordingDetector();
+        detector.onPlaying(0);
+
+        detector.onBufferingStarted(1000);
+        detector.onPaused(1200);
+        assertFalse(detector.isStalled());
+
+        // Buffering end after the pause does not report the stall again
+        detector.onBufferingEnded(1500, false);
+
+        assertEquals("2:200", detector.stalls());
+    }
+
+    @Test
+    public void ignoresPlayStateChangesWhileStalled() {
+        final RecordingDetector detector = new RecordingDetector();
+        detector.onPlaying(0);
+
+        detector.onBufferingStarted(1000);
+        detector.onPlaying(1100);
+        assertTrue(detector.isStalled());
+
+        detector.onBufferingEnded(1300, true);
+        assertEquals("2:300", detector.stalls());
+    }
+
+    @Test
+    public void closesTheOngoingStallWhenTheSessionEnds() {
+        final RecordingDetector detector = new RecordingDetector();
+        detector.onPlaying(0);
+        detector.onBufferingStarted(1000);
+        detector.end(1700);
+
+        // The next session starts with an initial load again
+        detector.onBufferingStarted(2000);
+        detector.end(2100);
+
+        assertEquals("2:700 0:100", detector.stalls());
+    }
+
+    @Test
+    public void reportsEveryStateChangeOnce() {
+        final RecordingDetector detector = new RecordingDetector();
+
+        detector.onBufferingStarted(0);
+        detector.onBufferingEnded(100, true);
+        detector.onPlaying(200);
+        detector.onBufferingStarted(300);
+        detector.onSeek(310);
+        detector.onBufferingEnded(400, false);
+        detector.end(500);
+
+        assertEquals("STALLED/0@0 PLAYING@100 STALLED/2@300 STALLED/1@310 PAUSED@400 IDLE@500", detector.states());
+    }
+
+    @Test
+    public void keepsSeekStallsOutOfTheRebufferCount() {
+        final TestFairyQoeMetrics metrics = new TestFairyQoeMetrics();
+        final RecordingDetector detector = new RecordingDetector() {
+            @Override
+            protected void onStateChanged(int state, int cause, long nowMs) {
+                metrics.onPlaybackState(state, cause, nowMs);
+            }
+        };
+
+        metrics.onPlayIntent(0);
+        detector.onBufferingStarted(0);
+        detector.onBufferingEnded(1000, true);
+
+        detector.onSeek(5000);
+        detector.onBufferingStarted(5000);
+        detector.onBufferingEnded(5400, true);
+
+        detector.onBufferingStarted(8000);
+        detector.onSeek(8010);
+        detector.onBufferingEnded(8200, true);
+
+        detector.onBufferingStarted(10000);
+        detector.onBufferingEnded(10300, true);
+
+        detector.end(12000);
+        final TestFairyQoeMetrics.Summary summary = metrics.end(12000);
+
+        assertEquals(1000, summary.startupMs);
+        assertEquals(1, summary.stallCount);
+        assertEquals(300, summary.stalledMs);
+        assertEquals(2, summary.seekStallCount);
+        assertEquals(600, summary.seekStalledMs);
+        assertEquals(12000 - 1000 - 300 - 600, summary.playingMs);
+    }
+    //////////////////////////////////////////////////////////////
+
+    private static class RecordingDetector extends TestFairyStallDetector {
+        private static final String[] STATE_NAMES = {"IDLE", "PLAYING", "PAUSED", "STALLED"};
+
+        private final List<String> stalls = new ArrayList<String>();
+        private final List<String> states = new ArrayList<String>();
+
+        @Override
+        protected void onStall(int cause, long durationMs) {
+            stalls.add(cause + ":" + durationMs);
+        }
+
+        @Override
+        protected void onStateChanged(int state, int cause, long nowMs) {
+            states.add(STATE_NAMES[state] + (state == STATE_STALLED ? "/" + cause : "") + "@" + nowMs);
+        }
+
+        String stalls() {
+            return join(stalls);
+        }
+
+        String states() {
+            return join(states);
+        }
+
+        private static String join(List<String> parts) {
+            final StringBuilder out = new StringBuilder();
+            for (String part : parts) {
+                out.append(out.length() > 0 ? " " : "").append(part);
+            }
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestFairyStartupTracerTest {
+
+    @Test
+    public void stampsEveryPhaseOnceFromTheStart() {
+        final TestFairyStartupTracer tracer = new TestFairyStartupTracer();
+
+        tracer.start(1000);
+        tracer.mark(TestFairyStartupTracer.PHASE_PREPARED, 1200);
+        tracer.mark(TestFairyStartupTracer.PHASE_PREPARED, 1300);
+        tracer.mark(TestFairyStartupTracer.PHASE_FIRST_FRAME, 1500);
+
+        final TestFairyStartupTracer.Waterfall waterfall = tracer.finish(1500);
+        assertEquals(200, waterfall.offsets[TestFairyStartupTracer.PHASE_PREPARED]);
+        assertEquals(500, waterfall.getFirstFrameMs());
+        assertEquals(500, waterfall.totalMs);
+        assertEquals(-1, waterfall.offsets[TestFairyStartupTracer.PHASE_DRM_KEYS_LOADED]);
+    }
+
+    @Test
+    public void ignoresStartsUntilReset() {
+        final TestFairyStartupTracer tracer = new TestFairyStartupTracer();
+
+        tracer.start(1000);
+        tracer.start(2000);
+        assertEquals(2000, tracer.finish(3000).totalMs);
+
+        tracer.start(4000);
+        assertFalse(tracer.isTracing());
+        assertNull(tracer.finish(5000));
+
+        tracer.reset();
+        assertTrue(tracer.isArmed());
+        tracer.start(6000);
+        assertEquals(1000, tracer.finish(7000).totalMs);
+    }
+
+    @Test
+    public void restartsForNewMediaAfterTheFirstFrame() {
+        final TestFairyStartupTracer tracer = new TestFairyStartupTracer();
+
+        tracer.start(0);
+        tracer.mark(TestFairyStartupTracer.PHASE_FIRST_FRAME, 500);
+        tracer.finish(500);
+        assertTrue(tracer.hasReached(TestFairyStartupTracer.PHASE_FIRST_FRAME));
+
+        assertNull(tracer.restart(10000));
+        assertTrue(tracer.isTracing());
+        assertFalse(tracer.hasReached(TestFairyStartupTracer.PHASE_FIRST_FRAME));
+
+        tracer.mark(TestFairyStartupTracer.PHASE_FIRST_FRAME, 10300);
+        assertEquals(300, tracer.finish(10300).getFirstFrameMs());
+    }
+
+    @Test
+    public void reportsAbandonedTracesOnRestart() {
+        final TestFairyStartupTracer tracer = new TestFairyStartupTracer();
+
+        tracer.start(0);
+        tracer.mark(TestFairyStartupTracer.PHASE_PREPARED, 100);
+
+        final TestFairyStartupTracer.Waterfall abandoned = tracer.restart(2000);
+        assertEquals(-1, abandoned.getFirstFrameMs());
+        assertEquals(2000, abandoned.totalMs);
+
+        // A trace that never reached a phase is not worth a report
+        assertNull(tracer.restart(3000));
+        assertTrue(tracer.isTracing());
+        assertEquals(500, tracer.finish(3500).totalMs);
+    }
+}
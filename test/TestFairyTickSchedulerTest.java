@@ -0,0 +1,206 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+// Tasks due at the same tick are collected together and run one after the other outside the scheduler lock.
+public class TestFairyTickSchedulerTest {
+
+    private static final long TICK_MS = TestFairyTickScheduler.TICK_MS;
+    private static final int PLAYER_COUNT = 150;
+
+    private TestFairyManualTimer timer;
+    private TestFairyTickScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        timer = new TestFairyManualTimer(0);
+        scheduler = new TestFairyTickScheduler(timer);
+    }
+
+    @Test
+    public void runsTasksAtTheirTick() {
+        final CountingTask first = new CountingTask();
+        final CountingTask second = new CountingTask();
+        scheduler.schedule(first, TICK_MS);
+        scheduler.schedule(second, 3 * TICK_MS);
+
+        timer.advanceTo(TICK_MS);
+        assertEquals(1, first.ticks);
+        assertEquals(0, second.ticks);
+
+        timer.advanceTo(3 * TICK_MS);
+        assertEquals(1, second.ticks);
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void skipsTasksCancelledByAnEarlierTaskInTheSamePass() {
+        final CountingTask first = new CountingTask();
+        final CountingTask second = new CountingTask();
+        first.other = second;
+        second.other = first;
+        scheduler.schedule(first, TICK_MS);
+        scheduler.schedule(second, TICK_MS);
+
+        timer.advanceTo(TICK_MS);
+
+        // Whichever ran first cancelled the other
+        assertEquals(1, first.ticks + second.ticks);
+    }
+
+    @Test
+    public void runsTasksRescheduledInTheSamePassAtTheirNewTick() {
+        final CountingTask postponed = new CountingTask();
+        final TestFairyTickScheduler.Task postponing = new TestFairyTickScheduler.Task() {
+            @Override
+            protected void onTick() {
+                scheduler.schedule(postponed, 5 * TICK_MS);
+            }
+        };
+        // Tasks due at the same tick run in the order they were scheduled
+        scheduler.schedule(postponing, TICK_MS);
+        scheduler.schedule(postponed, TICK_MS);
+
+        timer.advanceTo(5 * TICK_MS);
+        assertEquals(0, postponed.ticks);
+
+        timer.advanceTo(6 * TICK_MS);
+        assertEquals(1, postponed.ticks);
+    }
+
+    @Test
+    public void stopsWakingUpOnceEverythingIsCancelled() {
+        final CountingTask task = new CountingTask();
+        scheduler.schedule(task, 10 * TICK_MS);
+        scheduler.cancel(task);
+
+        timer.advanceTo(20 * TICK_MS);
+        assertEquals(0, task.ticks);
+        assertEquals(0, timer.getWakeupCount());
+    }
+
+    @Test
+    public void samplesManyPlayersOnTimeInOnePassPerTick() {
+        final Random random = new Random(7);
+        final Map<Long, Integer> wakeupBySampleTime = new HashMap<>();
+        final List<SimulatedPlayer> players = new ArrayList<>();
+
+        for (int i = 0; i < PLAYER_COUNT; i++) {
+            timer.advanceBy(random.nextInt((int) TICK_MS));
+
+            // Between 30 s and 2 h long, at 1x, 1.5x or 2x
+            final SimulatedPlayer player = new SimulatedPlayer(30000 + random.nextInt(2 * 60 * 60 * 1000),
+                    1f + random.nextInt(3) / 2f, wakeupBySampleTime);
+            player.tracker.setPlaybackSpeed(player.speed);
+            player.tracker.start();
+            players.add(player);
+        }
+
+        // Every tenth player is stopped half an hour in
+        timer.advanceBy(30 * 60 * 1000);
+        int stopped = 0;
+        for (int i = 0; i < PLAYER_COUNT; i += 10) {
+            players.get(i).tracker.stop();
+            stopped++;
+        }
+
+        timer.advanceBy(2 * 60 * 60 * 1000);
+
+        for (int i = 0; i < PLAYER_COUNT; i++) {
+            final SimulatedPlayer player = players.get(i);
+
+            assertTrue("Sampled " + -player.earliestLatenessMs + " ms early", player.earliestLatenessMs >= 0);
+            assertTrue("Sampled " + player.latestLatenessMs + " ms late", player.latestLatenessMs <= TICK_MS);
+            if (i % 10 != 0) {
+                assertEquals(100, player.percents);
+            }
+        }
+
+        // Players due at the same tick are sampled in one wakeup, and only a stopped player leaves one without samples
+        assertTrue(timer.getWakeupCount() <= wakeupBySampleTime.size() + stopped);
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Plays from the start at a fixed speed and parks at the end
+    private final class SimulatedPlayer {
+        final TestFairyPositionTracker tracker;
+        int percents = 0;
+        long earliestLatenessMs = Long.MAX_VALUE;
+        long latestLatenessMs = Long.MIN_VALUE;
+
+        private final long durationMs;
+        private final float speed;
+        private final long startMs;
+        private long dueMs;
+
+        SimulatedPlayer(long durationMs, float speed, final Map<Long, Integer> wakeupBySampleTime) {
+            this.durationMs = durationMs;
+            this.speed = speed;
+            this.startMs = timer.now();
+            this.dueMs = startMs + TestFairyPositionTracker.MIN_DELAY_MS;
+
+            tracker = new TestFairyPositionTracker(scheduler) {
+                @Override
+                protected long getDuration() {
+                    return SimulatedPlayer.this.durationMs;
+                }
+
+                @Override
+                protected long getCurrentPosition() {
+                    return position();
+                }
+
+                @Override
+                protected boolean isPlaying() {
+                    return position() < SimulatedPlayer.this.durationMs - 1;
+                }
+
+                @Override
+                protected void onPositionSampled(long position, long duration) {
+                    final long now = timer.now();
+                    earliestLatenessMs = Math.min(earliestLatenessMs, now - dueMs);
+                    latestLatenessMs = Math.max(latestLatenessMs, now - dueMs);
+                    dueMs = now + computeDelayMs(position, duration, SimulatedPlayer.this.speed);
+
+                    final Integer wakeup = wakeupBySampleTime.put(now, timer.getWakeupCount());
+                    if (wakeup != null) {
+                        assertEquals((int) wakeup, timer.getWakeupCount());
+                    }
+                }
+
+                @Override
+                protected void onPositionPercentChanged(int percent) {
+                    percents++;
+                }
+            };
+        }
+
+        long position() {
+            return Math.min(durationMs - 1, (long) ((timer.now() - startMs) * speed));
+        }
+    }
+
+    private final class CountingTask extends TestFairyTickScheduler.Task {
+        CountingTask other;
+        int ticks;
+
+        @Override
+        protected void onTick() {
+            ticks++;
+
+            if (other != null) {
+                scheduler.cancel(other);
+            }
+        }
+    }
+}
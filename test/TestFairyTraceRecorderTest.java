@@ -0,0 +1,114 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestFairyTraceRecorderTest {
+
+    @After
+    public void tearDown() {
+        TestFairyTraceRecorder.stop();
+    }
+
+    @Test
+    public void replaysCallbacksInOrderWithTheirArguments() throws Exception {
+        TestFairyTraceRecorder.start();
+        TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.MP_INFO, 1000, 701, 0, 0, null);
+        TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_PLAYER_ERROR, 1005, 0, -1, 0, "HTTP 503");
+        TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_BANDWIDTH_ESTIMATE, 1005, 250,
+                Long.MAX_VALUE, Long.MIN_VALUE, null);
+        final TestFairyTraceRecorder recorder = TestFairyTraceRecorder.stop();
+
+        // Not recorded once stopped
+        TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.MP_COMPLETION, 2000, 0, 0, 0, null);
+        assertEquals(3, recorder.getRecordCount());
+
+        final List<long[]> replayed = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        final int count = replay(recorder).replayInto(new TestFairyTraceReplayer.Target() {
+            @Override
+            public boolean onCallback(int callbackId, long arg0, long arg1, long arg2, String text) {
+                replayed.add(new long[]{callbackId, arg0, arg1, arg2});
+                texts.add(text);
+                return callbackId != TestFairyTraceRecorder.EXO_PLAYER_ERROR;
+            }
+        });
+
+        assertEquals(2, count);
+        assertEquals(3, replayed.size());
+        assertArrayEquals(new long[]{TestFairyTraceRecorder.MP_INFO, 701, 0, 0}, replayed.get(0));
+        assertArrayEquals(new long[]{TestFairyTraceRecorder.EXO_PLAYER_ERROR, 0, -1, 0}, replayed.get(1));
+        assertArrayEquals(new long[]{TestFairyTraceRecorder.EXO_BANDWIDTH_ESTIMATE, 250, Long.MAX_VALUE,
+                Long.MIN_VALUE}, replayed.get(2));
+        assertNull(texts.get(0));
+        assertEquals("HTTP 503", texts.get(1));
+    }
+
+    @Test
+    public void stopsRecordingAtTheSizeCap() {
+        final TestFairyTraceRecorder recorder = TestFairyTraceRecorder.start(64);
+
+        for (int i = 0; i < 100; i++) {
+            TestFairyTraceRecorder.recordCallback(TestFairyTraceRecorder.EXO_DROPPED_VIDEO_FRAMES, i, 3, 1000, 0, null);
+        }
+
+        assertTrue(recorder.getSizeInBytes() <= 64);
+        assertEquals(100, recorder.getRecordCount() + recorder.getTruncatedCount());
+    }
+
+    @Test
+    public void rejectsTracesOfAnotherVersion() throws Exception {
+        final byte[] header = {0x54, 0x46, 0x54, 0x52, (byte) (TestFairyTraceRecorder.VERSION - 1)};
+
+        try {
+            new TestFairyTraceReplayer(new ByteArrayInputStream(header), false);
+            fail("Old trace accepted");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    // Ids are written to traces, they must never be reused
+    @Test
+    public void usesUniqueCallbackIds() throws Exception {
+        final Set<Integer> ids = new HashSet<>();
+        int count = 0;
+
+        for (Field field : TestFairyTraceRecorder.class.getDeclaredFields()) {
+            final String name = field.getName();
+            if (Modifier.isPublic(field.getModifiers()) && field.getType() == int.class
+                    && (name.startsWith("MP_") || name.startsWith("ADAPTER_") || name.startsWith("EXO_"))) {
+                assertTrue("Duplicate id " + name, ids.add(field.getInt(null)));
+                count++;
+            }
+        }
+
+        assertEquals(7 + 10 + 40, count);
+        assertEquals(1, TestFairyTraceRecorder.MP_BUFFERING_UPDATE);
+        assertEquals(32, TestFairyTraceRecorder.ADAPTER_PLAY_STATE_CHANGED);
+        assertEquals(64, TestFairyTraceRecorder.EXO_PLAYER_STATE_CHANGED);
+        assertEquals(103, TestFairyTraceRecorder.EXO_DRM_SESSION_RELEASED);
+    }
+    //////////////////////////////////////////////////////////////
+
+    private static TestFairyTraceReplayer replay(TestFairyTraceRecorder recorder) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeTo(out);
+        return new TestFairyTraceReplayer(new ByteArrayInputStream(out.toByteArray()), false);
+    }
+}
@@ -0,0 +1,98 @@
+package com.testfairy.tvtest.testfairy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+// Samples one second apart on a 100 s media, so every bucket is one second long.
+public class TestFairyWatchedRangesTest {
+
+    private static final long DURATION = 100000;
+
+    @Test
+    public void countsReportedSeeksByDirection() {
+        final TestFairyWatchedRanges ranges = new TestFairyWatchedRanges();
+
+        play(ranges, 0, 10000, 0);
+        ranges.onSeek();
+        play(ranges, 50000, 60000, 20000);
+        ranges.onSeek();
+        play(ranges, 30000, 35000, 40000);
+
+        final TestFairyWatchedRanges.Summary summary = ranges.end();
+        assertEquals(2, summary.seekCount);
+        assertEquals(1, summary.forwardSeekCount);
+        assertEquals(1, summary.backwardSeekCount);
+        assertEquals(0, summary.jumpCount);
+        assertArrayEquals(new long[] {0, 11000, 30000, 36000, 50000, 61000}, summary.watchedRanges);
+    }
+
+    @Test
+    public void countsUnreportedSeeksAsJumps() {
+        final TestFairyWatchedRanges ranges = new TestFairyWatchedRanges();
+
+        play(ranges, 0, 10000, 0);
+        play(ranges, 50000, 60000, 11000);
+
+        final TestFairyWatchedRanges.Summary summary = ranges.end();
+        assertEquals(0, summary.seekCount);
+        assertEquals(1, summary.jumpCount);
+        assertArrayEquals(new long[] {0, 11000, 50000, 61000}, summary.watchedRanges);
+    }
+
+    @Test
+    public void infersSeeksFromJumpsWhenAsked() {
+        final TestFairyWatchedRanges ranges = new TestFairyWatchedRanges();
+        ranges.inferSeeksFromJumps();
+
+        play(ranges, 0, 10000, 0);
+        play(ranges, 50000, 60000, 11000);
+        play(ranges, 20000, 25000, 22000);
+
+        final TestFairyWatchedRanges.Summary summary = ranges.end();
+        assertEquals(2, summary.seekCount);
+        assertEquals(1, summary.forwardSeekCount);
+        assertEquals(1, summary.backwardSeekCount);
+        assertEquals(0, summary.jumpCount);
+        assertTrue(summary.toString().contains("seeks 2 inferred"));
+        assertArrayEquals(new long[] {0, 11000, 20000, 26000, 50000, 61000}, summary.watchedRanges);
+
+        // Inference is a property of the player, it stays on for the next session
+        play(ranges, 0, 5000, 30000);
+        play(ranges, 80000, 85000, 36000);
+        assertEquals(1, ranges.end().seekCount);
+    }
+
+    @Test
+    public void marksRewatchedBuckets() {
+        final TestFairyWatchedRanges ranges = new TestFairyWatchedRanges();
+
+        play(ranges, 0, 20000, 0);
+        ranges.onSeek();
+        play(ranges, 10000, 30000, 21000);
+
+        final TestFairyWatchedRanges.Summary summary = ranges.end();
+        assertArrayEquals(new long[] {0, 31000}, summary.watchedRanges);
+        assertArrayEquals(new long[] {10000, 21000}, summary.rewatchedRanges);
+        assertEquals(31, summary.coveragePercent);
+    }
+
+    @Test
+    public void reportsNothingWithoutPlayback() {
+        final TestFairyWatchedRanges ranges = new TestFairyWatchedRanges();
+        ranges.onPosition(0, DURATION, 0);
+
+        assertNull(ranges.end());
+    }
+    //////////////////////////////////////////////////////////////
+
+    // Plays from one position to another, inclusive, sampling once a second from the given time
+    private static void play(TestFairyWatchedRanges ranges, long from, long to, long startMs) {
+        for (long position = from; position <= to; position += 1000) {
+            ranges.onPosition(position, DURATION, startMs + position - from);
+        }
+    }
+}